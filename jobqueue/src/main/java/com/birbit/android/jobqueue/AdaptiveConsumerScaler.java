@@ -0,0 +1,196 @@
+package com.birbit.android.jobqueue;
+
+import android.support.annotation.Nullable;
+
+import com.birbit.android.jobqueue.callback.ConsumerScalingListener;
+import com.birbit.android.jobqueue.log.JqLog;
+
+import java.util.Arrays;
+
+/**
+ * Picks the number of consumers between the min and max consumer counts that completes the most
+ * jobs per second. Used by {@link ConsumerManager} on JobManager's thread.
+ * <p>
+ * Jobs that finish are counted in windows of a fixed duration. A window only counts if all
+ * consumers had a job to run during the whole window, otherwise the throughput says more about
+ * the jobs that were added than about the number of consumers.
+ * <p>
+ * The target starts at the max consumer count and moves by one consumer at a time. After each
+ * move, one window is skipped while consumers are added or removed and the next one is compared
+ * with the window before the move:
+ * <ul>
+ *     <li>If the throughput went up by more than {@link #HYSTERESIS}, the next move goes in the
+ *     same direction.</li>
+ *     <li>If it went down by more than {@link #HYSTERESIS}, the move is undone.</li>
+ *     <li>Otherwise, fewer consumers are preferred: a removed consumer stays removed and the next
+ *     move removes another one while an added consumer is removed again.</li>
+ * </ul>
+ * After a move is undone, the target is kept for a few windows before the other direction is
+ * tried. This wait doubles every time a move is undone, up to {@link #MAX_HOLD_WINDOWS}, so that
+ * a target which is already right is not changed back and forth.
+ */
+class AdaptiveConsumerScaler {
+    // changes in throughput smaller than this fraction are considered noise
+    static final double HYSTERESIS = 0.1;
+    static final int MIN_HOLD_WINDOWS = 2;
+    static final int MAX_HOLD_WINDOWS = 32;
+    // the run times of the last jobs of a window that percentiles are calculated from
+    static final int MAX_SAMPLES = 256;
+
+    private final int minTarget;
+    private final int maxTarget;
+    private final long windowNs;
+    @Nullable
+    private final ConsumerScalingListener listener;
+    private int target;
+    private int direction = -1;
+    private long windowStartNs;
+    private int completed;
+    private final long[] runTimesNs = new long[MAX_SAMPLES];
+    // the throughput of the last window before the current move, negative if there is none
+    private double baseline = -1;
+    private boolean moved;
+    // true if the current window started while consumers were being added or removed
+    private boolean settling;
+    private int holdWindows;
+    private int nextHoldWindows = MIN_HOLD_WINDOWS;
+
+    AdaptiveConsumerScaler(int minConsumerCount, int maxConsumerCount, long windowNs,
+            @Nullable ConsumerScalingListener listener, long nowNs) {
+        this.minTarget = Math.max(1, minConsumerCount);
+        this.maxTarget = Math.max(minTarget, maxConsumerCount);
+        this.windowNs = windowNs;
+        this.listener = listener;
+        this.target = maxTarget;
+        this.windowStartNs = nowNs;
+    }
+
+    int getTarget() {
+        return target;
+    }
+
+    /**
+     * Records a job that finished running.
+     *
+     * @return True if the window is over and {@link #evaluate(long, int, int)} should be called
+     */
+    boolean onJobFinished(long runTimeNs, long nowNs) {
+        runTimesNs[completed % MAX_SAMPLES] = runTimeNs;
+        completed++;
+        return nowNs - windowStartNs >= windowNs;
+    }
+
+    /**
+     * Called when a consumer goes idle because there is no job for it. Drops the current window
+     * and the move being measured since the throughput was limited by the jobs.
+     */
+    void onConsumerStarved(long nowNs) {
+        startWindow(nowNs);
+        baseline = -1;
+        moved = false;
+        settling = false;
+    }
+
+    /**
+     * Ends the current window and decides on the target.
+     *
+     * @param backlog The number of ready jobs that are waiting for a consumer
+     * @param workerCount The number of consumers
+     *
+     * @return True if the target changed
+     */
+    boolean evaluate(long nowNs, int backlog, int workerCount) {
+        final double jobsPerSecond = completed * (double) JobManager.NS_PER_MS * 1000
+                / Math.max(1, nowNs - windowStartNs);
+        final int sampleCount = Math.min(completed, MAX_SAMPLES);
+        final long[] sorted = Arrays.copyOf(runTimesNs, sampleCount);
+        Arrays.sort(sorted);
+        final long medianRunTimeNs = percentile(sorted, 50);
+        final long p90RunTimeNs = percentile(sorted, 90);
+        startWindow(nowNs);
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("scaling window: %.1f jobs/s, median run time %sns, p90 run time %sns,"
+                            + " backlog %s, consumers %s, target %s", jobsPerSecond,
+                    medianRunTimeNs, p90RunTimeNs, backlog, workerCount, target);
+        }
+        if (settling) {
+            settling = false;
+            return false;
+        }
+        if (backlog == 0 || workerCount < target) {
+            // not every consumer had a job, the throughput is limited by the jobs
+            baseline = -1;
+            moved = false;
+            return false;
+        }
+        if (holdWindows > 0) {
+            holdWindows--;
+            return false;
+        }
+        if (!moved || baseline < 0) {
+            baseline = jobsPerSecond;
+            return move(direction, jobsPerSecond, medianRunTimeNs, p90RunTimeNs, backlog);
+        }
+        final double change = baseline == 0 ? (jobsPerSecond > 0 ? 1 : 0)
+                : (jobsPerSecond - baseline) / baseline;
+        final boolean keep;
+        if (change > HYSTERESIS) {
+            keep = true;
+        } else if (change < -HYSTERESIS) {
+            keep = false;
+        } else {
+            // no clear difference, prefer the smaller number of consumers
+            keep = direction < 0;
+        }
+        if (keep) {
+            nextHoldWindows = MIN_HOLD_WINDOWS;
+            baseline = jobsPerSecond;
+            return move(direction, jobsPerSecond, medianRunTimeNs, p90RunTimeNs, backlog);
+        }
+        direction = -direction;
+        moved = false;
+        holdWindows = nextHoldWindows;
+        nextHoldWindows = Math.min(MAX_HOLD_WINDOWS, nextHoldWindows * 2);
+        return setTarget(target + direction, jobsPerSecond, medianRunTimeNs, p90RunTimeNs,
+                backlog);
+    }
+
+    private boolean move(int step, double jobsPerSecond, long medianRunTimeNs,
+            long p90RunTimeNs, int backlog) {
+        final int newTarget = target + step;
+        if (newTarget < minTarget || newTarget > maxTarget) {
+            // try the other direction after a while
+            direction = -direction;
+            moved = false;
+            holdWindows = nextHoldWindows;
+            return false;
+        }
+        moved = true;
+        return setTarget(newTarget, jobsPerSecond, medianRunTimeNs, p90RunTimeNs, backlog);
+    }
+
+    private boolean setTarget(int newTarget, double jobsPerSecond, long medianRunTimeNs,
+            long p90RunTimeNs, int backlog) {
+        final int previousTarget = target;
+        target = newTarget;
+        settling = true;
+        JqLog.d("changing consumer target from %s to %s", previousTarget, newTarget);
+        if (listener != null) {
+            listener.onConsumerTargetChanged(previousTarget, newTarget, jobsPerSecond,
+                    medianRunTimeNs, p90RunTimeNs, backlog);
+        }
+        return true;
+    }
+
+    private void startWindow(long nowNs) {
+        windowStartNs = nowNs;
+        completed = 0;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(sorted.length - 1) * percentile / 100];
+    }
+}
@@ -5,6 +5,7 @@ import com.birbit.android.jobqueue.network.NetworkUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -53,13 +54,14 @@ class CancelHandler {
     }
 
     void commit(JobManagerThread jobManagerThread) {
+        removeInvalidJobs(jobManagerThread);
         for (JobHolder jobHolder : cancelled) {
             try {
                 jobHolder.onCancel(CancelReason.CANCELLED_WHILE_RUNNING);
             } catch (Throwable t) {
                 JqLog.e(t, "job's on cancel has thrown an exception. Ignoring...");
             }
-            if (jobHolder.getJob().isPersistent()) {
+            if (jobHolder.persistent) {
                 jobManagerThread.nonPersistentJobQueue.remove(jobHolder);
             }
         }
@@ -80,6 +82,26 @@ class CancelHandler {
         }
     }
 
+    /**
+     * Persistent jobs are loaded lazily so a job that cannot be deserialized is only noticed
+     * here. Such jobs are removed from the queue without calling their callbacks.
+     */
+    private void removeInvalidJobs(JobManagerThread jobManagerThread) {
+        for (Iterator<JobHolder> iterator = cancelled.iterator(); iterator.hasNext(); ) {
+            JobHolder holder = iterator.next();
+            if (holder.isJobLoaded()) {
+                continue;
+            }
+            try {
+                holder.getJob();
+            } catch (IllegalStateException e) {
+                JqLog.e(e, "cannot load cancelled job %s, removing it", holder.getId());
+                iterator.remove();
+                jobManagerThread.persistentJobQueue.remove(holder);
+            }
+        }
+    }
+
     void onJobRun(JobHolder holder, int resultCode) {
         final boolean exists;
         exists = running.remove(holder.getId());
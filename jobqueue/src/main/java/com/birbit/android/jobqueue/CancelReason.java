@@ -14,7 +14,8 @@ import java.lang.annotation.RetentionPolicy;
         CancelReason.SINGLE_INSTANCE_WHILE_RUNNING,
         CancelReason.CANCELLED_VIA_SHOULD_RE_RUN,
         CancelReason.SINGLE_INSTANCE_ID_QUEUED,
-        CancelReason.REACHED_DEADLINE})
+        CancelReason.REACHED_DEADLINE,
+        CancelReason.REJECTED_BY_QUEUE})
 public @interface CancelReason {
     /**
      * Used when a job was added while another job with the same single instance ID was already
@@ -64,4 +65,11 @@ public @interface CancelReason {
      */
     int REACHED_DEADLINE = JobHolder.RUN_RESULT_HIT_DEADLINE;
 
+    /**
+     * Used when a job added via {@link JobManager#addJobs(java.util.Collection)} could not be
+     * saved because its queue rejected the batch it was in, e.g. because another job with the same
+     * id was already saved. {@link Job#onAdded()} is not called for such a job and it will not run.
+     */
+    int REJECTED_BY_QUEUE = 8;
+
 }
@@ -18,6 +18,7 @@ import com.birbit.android.jobqueue.messaging.message.RunJobResultMessage;
 import com.birbit.android.jobqueue.scheduling.SchedulerConstraint;
 import com.birbit.android.jobqueue.timer.Timer;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,8 +26,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is responsible to communicate with the Workers(consumers) that run the jobs.
@@ -63,6 +71,26 @@ class ConsumerManager {
 
     private final ThreadFactory threadFactory;
 
+    private final boolean batchMessageDrain;
+
+    // runs the consumers if set, otherwise each consumer gets a new thread
+    private final Executor consumerExecutor;
+
+    // the pool created for consumerExecutor if it was not provided by the configuration
+    private final ThreadPoolExecutor ownedThreadPool;
+
+    // null unless jobs are handed to the consumers directly instead of via their message queues
+    private final JobHandOff handOff;
+
+    // true while an idle message that fills the hand-off is waiting in the queue
+    private boolean handOffFillPosted = false;
+
+    // true if handOff queues jobs for each consumer ahead of time, see WorkStealingJobHandOff
+    private final boolean workStealing;
+
+    // null unless the number of consumers is picked by measuring throughput
+    private final AdaptiveConsumerScaler scaler;
+
     private final CopyOnWriteArrayList<Runnable> internalZeroConsumersListeners
             = new CopyOnWriteArrayList<>();
 
@@ -78,9 +106,70 @@ class ConsumerManager {
                 * JobManagerThread.NS_PER_MS;
         this.threadPriority = configuration.getThreadPriority();
         this.threadFactory = configuration.getThreadFactory();
+        this.batchMessageDrain = configuration.batchMessageDrain();
         runningJobHolders = new HashMap<>();
         runningJobGroups = new RunningJobSet(timer);
         threadGroup = new ThreadGroup("JobConsumers");
+        workStealing = configuration.getWorkStealingQueueSize() > 0;
+        if (workStealing) {
+            handOff = new WorkStealingJobHandOff(timer, configuration.getWorkStealingQueueSize());
+        } else {
+            handOff = configuration.directJobHandOff() ? new JobHandOff(timer) : null;
+        }
+        if (configuration.getAdaptiveScalingWindowMs() > 0) {
+            scaler = new AdaptiveConsumerScaler(minConsumerCount, maxConsumerCount,
+                    configuration.getAdaptiveScalingWindowMs() * JobManagerThread.NS_PER_MS,
+                    configuration.getConsumerScalingListener(), timer.nanoTime());
+        } else {
+            scaler = null;
+        }
+        if (configuration.getConsumerExecutor() != null) {
+            ownedThreadPool = null;
+            consumerExecutor = configuration.getConsumerExecutor();
+        } else if (configuration.hasConsumerThreadPool()) {
+            ownedThreadPool = createThreadPool(configuration);
+            consumerExecutor = ownedThreadPool;
+        } else {
+            ownedThreadPool = null;
+            consumerExecutor = null;
+        }
+    }
+
+    private ThreadPoolExecutor createThreadPool(Configuration configuration) {
+        final BlockingQueue<Runnable> queue;
+        if (configuration.getConsumerPoolQueueSize() == 0) {
+            queue = new SynchronousQueue<>();
+        } else {
+            queue = new LinkedBlockingQueue<>(configuration.getConsumerPoolQueueSize());
+        }
+        ThreadFactory poolThreadFactory = threadFactory;
+        if (poolThreadFactory == null) {
+            poolThreadFactory = new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(threadGroup, runnable,
+                            "job-queue-worker-" + UUID.randomUUID());
+                    thread.setPriority(threadPriority);
+                    return thread;
+                }
+            };
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(configuration.getConsumerPoolCoreSize(),
+                configuration.getConsumerPoolMaxSize(), consumerKeepAliveNs,
+                TimeUnit.NANOSECONDS, queue, poolThreadFactory);
+        if (consumerKeepAliveNs > 0) {
+            pool.allowCoreThreadTimeOut(true);
+        }
+        return pool;
+    }
+
+    /**
+     * Shuts down the thread pool of the consumers if it was created by JobManager.
+     */
+    void shutdownThreadPool() {
+        if (ownedThreadPool != null) {
+            ownedThreadPool.shutdown();
+        }
     }
 
     void addNoConsumersListener(Runnable runnable) {
@@ -95,17 +184,42 @@ class ConsumerManager {
         considerAddingConsumers(false);
     }
 
+    /**
+     * Called when multiple jobs are added at once. Pokes all waiting consumers and adds as many
+     * consumers as the load factor asks for instead of reacting to each job separately.
+     */
+    void onJobsAdded() {
+        if (!jobManagerThread.isRunning()) {
+            JqLog.d("jobqueue is not running, no consumers will be added");
+            return;
+        }
+        considerAddingConsumers(true);
+        //noinspection StatementWithEmptyBody
+        while (isAboveLoadFactor() && addWorker()) {
+        }
+    }
+
     void handleConstraintChange() {
         considerAddingConsumers(true);
     }
 
     void handleStop() {
         // poke everybody so we can kill them
-        for (Consumer consumer : consumers) {
-            SafeMessageQueue mq = consumer.messageQueue;
-            CommandMessage command = factory.obtain(CommandMessage.class);
-            command.set(CommandMessage.POKE);
-            mq.post(command);
+        if (handOff != null) {
+            // jobs that did not start yet go back to the queue
+            for (JobHolder jobHolder : handOff.drainJobs()) {
+                runningJobHolders.remove(jobHolder.getJob().getId());
+                runningJobGroups.remove(jobHolder.getGroupId());
+                jobManagerThread.releaseJob(jobHolder);
+            }
+            handOff.wakeUpAll();
+        } else {
+            for (Consumer consumer : consumers) {
+                SafeMessageQueue mq = consumer.messageQueue;
+                CommandMessage command = factory.obtain(CommandMessage.class);
+                command.set(CommandMessage.POKE);
+                mq.post(command);
+            }
         }
         if (consumers.isEmpty()) {
             for (Runnable runnable : internalZeroConsumersListeners) {
@@ -115,25 +229,43 @@ class ConsumerManager {
     }
 
     private void considerAddingConsumers(boolean pokeAllWaiting) {
-        JqLog.d("considering adding a new consumer. Should poke all waiting? %s isRunning? %s"
-                        + " waiting workers? %d"
-                , pokeAllWaiting, jobManagerThread.isRunning(), waitingConsumers.size());
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("considering adding a new consumer. Should poke all waiting? %s isRunning? %s"
+                            + " waiting workers? %d"
+                    , pokeAllWaiting, jobManagerThread.isRunning(), waitingConsumers.size());
+        }
         if (!jobManagerThread.isRunning()) {
             JqLog.d("jobqueue is not running, no consumers will be added");
             return;
         }
+        if (handOff != null) {
+            final boolean hasIdleConsumers = handOff.getIdleCount() > 0;
+            if (hasIdleConsumers || handOff.getNeededJobCount() > 0) {
+                JqLog.d("there are waiting workers or queues, will hand jobs to them");
+                postHandOffFill();
+            }
+            if (hasIdleConsumers) {
+                return;
+            }
+        }
         if (waitingConsumers.size() > 0) {
-            JqLog.d("there are waiting workers, will poke them instead");
-            for (int i = waitingConsumers.size() - 1; i >= 0; i--) {
-                Consumer consumer = waitingConsumers.remove(i);
-                CommandMessage command = factory.obtain(CommandMessage.class);
-                command.set(CommandMessage.POKE);
-                consumer.messageQueue.post(command);
-                if (!pokeAllWaiting) {
-                    break;
+            JqLog.d("there are waiting workers, will poke one of them instead");
+            // the poked consumer claims jobs for the other waiting consumers as well, see
+            // handleIdle. Prefer one that is not running a job so that it asks right away.
+            int index = waitingConsumers.size() - 1;
+            if (pokeAllWaiting) {
+                for (int i = index; i >= 0; i--) {
+                    if (!waitingConsumers.get(i).hasJob) {
+                        index = i;
+                        break;
+                    }
                 }
             }
-            JqLog.d("there were waiting workers, poked them and I'm done");
+            Consumer consumer = waitingConsumers.remove(index);
+            CommandMessage command = factory.obtain(CommandMessage.class);
+            command.set(CommandMessage.POKE);
+            consumer.messageQueue.post(command);
+            JqLog.d("there were waiting workers, poked one and I'm done");
             return;
         }
         boolean isAboveLoadFactor = isAboveLoadFactor();
@@ -143,10 +275,31 @@ class ConsumerManager {
         }
     }
 
-    private void addWorker() {
+    /**
+     * @return False if the consumer executor rejected the new consumer
+     */
+    private boolean addWorker() {
         JqLog.d("adding another consumer");
         Consumer consumer = new Consumer(jobManagerThread.messageQueue,
-                new SafeMessageQueue(timer, factory, "consumer"), factory, timer);
+                handOff == null ? new SafeMessageQueue(timer, factory, "consumer",
+                        batchMessageDrain) : null, handOff, factory, timer);
+        if (handOff != null) {
+            handOff.register(consumer);
+        }
+        if (consumerExecutor != null) {
+            consumers.add(consumer);
+            try {
+                consumerExecutor.execute(consumer);
+                return true;
+            } catch (RejectedExecutionException e) {
+                JqLog.e(e, "consumer executor rejected a new consumer");
+                consumers.remove(consumer);
+                if (handOff != null) {
+                    handOff.unregister(consumer);
+                }
+                return false;
+            }
+        }
         final Thread thread;
         if (threadFactory != null) {
             thread = threadFactory.newThread(consumer);
@@ -156,11 +309,12 @@ class ConsumerManager {
         }
         consumers.add(consumer);
         thread.start();
+        return true;
     }
 
     private boolean isAboveLoadFactor() {
         final int workerCount = consumers.size();
-        if (workerCount >= maxConsumerCount) {
+        if (workerCount >= (scaler == null ? maxConsumerCount : scaler.getTarget())) {
             JqLog.d("too many consumers, clearly above load factor %s", workerCount);
             return false;
         }
@@ -169,50 +323,73 @@ class ConsumerManager {
 
         boolean aboveLoadFactor = (workerCount * loadFactor < remainingJobs + runningHolders) ||
                 (workerCount < minConsumerCount && workerCount < remainingJobs + runningHolders);
-        JqLog.d("check above load factor: totalCons:%s minCons:%s maxConsCount: %s, loadFactor %s"
-                        + " remainingJobs: %s runningsHolders: %s. isAbove:%s", workerCount,
-                minConsumerCount, maxConsumerCount, loadFactor, remainingJobs, runningHolders,
-                aboveLoadFactor);
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("check above load factor: totalCons:%s minCons:%s maxConsCount: %s,"
+                            + " loadFactor %s remainingJobs: %s runningsHolders: %s. isAbove:%s",
+                    workerCount, minConsumerCount, maxConsumerCount, loadFactor, remainingJobs,
+                    runningHolders, aboveLoadFactor);
+        }
         return aboveLoadFactor;
     }
 
+    /**
+     * @return True if adaptive scaling wants fewer consumers than there are
+     */
+    private boolean isAboveScalingTarget() {
+        return scaler != null && consumers.size() > Math.max(minConsumerCount, scaler.getTarget());
+    }
+
     /**
      * @return true if consumer received a job or busy, false otherwise
      */
     boolean handleIdle(@NonNull JobConsumerIdleMessage message) {
         Consumer consumer = (Consumer) message.getWorker();
+        if (handOff != null) {
+            return handleHandOffIdle(consumer, message.getLastJobCompleted());
+        }
         if (consumer.hasJob) {
             return true;// ignore, it has a job to process.
         }
-        JobHolder nextJob = null;
+        List<JobHolder> nextJobs = null;
         final boolean running = jobManagerThread.isRunning();
-        if (running) {
-            nextJob = jobManagerThread.getNextJob(runningJobGroups.getSafe());
+        final boolean aboveTarget = isAboveScalingTarget();
+        if (running && !aboveTarget) {
+            // claim jobs for the other waiting consumers too so that they don't query one by one
+            nextJobs = jobManagerThread.getNextJobs(runningJobGroups.getSafe(),
+                    1 + countWaitingConsumersWithoutJob(consumer));
         }
-        if (nextJob != null) {
-            consumer.hasJob = true;
-            runningJobGroups.add(nextJob.getGroupId());
-            RunJobMessage runJobMessage = factory.obtain(RunJobMessage.class);
-            runJobMessage.setJobHolder(nextJob);
-            runningJobHolders.put(nextJob.getJob().getId(), nextJob);
-            if (nextJob.getGroupId() != null) {
-                runningJobGroups.add(nextJob.getGroupId());
+        if (nextJobs != null && !nextJobs.isEmpty()) {
+            sendJob(consumer, nextJobs.get(0));
+            int next = 1;
+            for (int i = waitingConsumers.size() - 1; i >= 0 && next < nextJobs.size(); i--) {
+                Consumer waiting = waitingConsumers.get(i);
+                if (waiting != consumer && !waiting.hasJob) {
+                    waitingConsumers.remove(i);
+                    sendJob(waiting, nextJobs.get(next++));
+                }
             }
-            consumer.messageQueue.post(runJobMessage);
             return true;
         } else {
             long keepAliveTimeout = message.getLastJobCompleted() + consumerKeepAliveNs;
-            JqLog.d("keep alive: %s", keepAliveTimeout);
+            if (JqLog.isDebugEnabled()) {
+                JqLog.d("keep alive: %s", keepAliveTimeout);
+            }
             final boolean tooMany = consumers.size() > minConsumerCount;
-            boolean kill = !running || (tooMany && keepAliveTimeout < timer.nanoTime());
+            boolean kill = !running || aboveTarget
+                    || (tooMany && keepAliveTimeout < timer.nanoTime());
             JqLog.d("Consumer idle, will kill? %s . isRunning: %s", kill, running);
+            if (scaler != null && running && !aboveTarget) {
+                scaler.onConsumerStarved(timer.nanoTime());
+            }
             if (kill) {
                 CommandMessage command = factory.obtain(CommandMessage.class);
                 command.set(CommandMessage.QUIT);
                 consumer.messageQueue.post(command);
                 waitingConsumers.remove(consumer);
                 consumers.remove(consumer);
-                JqLog.d("killed consumers. remaining consumers %d", consumers.size());
+                if (JqLog.isDebugEnabled()) {
+                    JqLog.d("killed consumers. remaining consumers %d", consumers.size());
+                }
                 if (consumers.isEmpty() && internalZeroConsumersListeners != null) {
                     for (Runnable runnable : internalZeroConsumersListeners) {
                         runnable.run();
@@ -228,14 +405,120 @@ class ConsumerManager {
                     if (!tooMany) {
                         keepAliveTimeout = timer.nanoTime() + consumerKeepAliveNs;
                     }
-                    consumer.messageQueue.postAt(cm, keepAliveTimeout);
-                    JqLog.d("poke consumer manager at %s", keepAliveTimeout);
+                    consumer.messageQueue.postAtUnique(cm, keepAliveTimeout,
+                            Consumer.POKE_KEY, JobManagerThread.WAKE_UP_WINDOW_NS);
+                    if (JqLog.isDebugEnabled()) {
+                        JqLog.d("poke consumer manager at %s", keepAliveTimeout);
+                    }
                 }
             }
             return false;
         }
     }
 
+    /**
+     * Makes JobManager handle the consumer as idle after it handles the messages that are already
+     * in its queue, like it would handle an idle message sent by the consumer. A null consumer
+     * only fills the hand-off.
+     */
+    private void postHandOffIdle(Consumer consumer, long lastJobCompleted) {
+        JobConsumerIdleMessage idle = factory.obtain(JobConsumerIdleMessage.class);
+        idle.setWorker(consumer);
+        idle.setLastJobCompleted(lastJobCompleted);
+        jobManagerThread.messageQueue.post(idle);
+    }
+
+    private int countWaitingConsumersWithoutJob(Consumer except) {
+        int count = 0;
+        for (Consumer waiting : waitingConsumers) {
+            if (waiting != except && !waiting.hasJob) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void sendJob(Consumer consumer, JobHolder jobHolder) {
+        consumer.hasJob = true;
+        RunJobMessage runJobMessage = factory.obtain(RunJobMessage.class);
+        runJobMessage.setJobHolder(jobHolder);
+        runningJobHolders.put(jobHolder.getJob().getId(), jobHolder);
+        runningJobGroups.add(jobHolder.getGroupId());
+        consumer.messageQueue.post(runJobMessage);
+    }
+
+    private boolean handleHandOffIdle(Consumer consumer, long lastJobCompleted) {
+        final boolean running = jobManagerThread.isRunning();
+        if (consumer != null && running && isAboveScalingTarget() && handOff.retire(consumer)) {
+            // retired before the fill so that no job is claimed for it
+            removeRetiredConsumer(consumer);
+            return false;
+        }
+        if (running) {
+            fillHandOff();
+        }
+        if (consumer == null) {
+            handOffFillPosted = false;
+            return !areAllConsumersIdle();
+        }
+        if (!handOff.isIdle(consumer) || handOff.hasJobs()) {
+            return true;
+        }
+        if (scaler != null && running) {
+            scaler.onConsumerStarved(timer.nanoTime());
+        }
+        long keepAliveTimeout = lastJobCompleted + consumerKeepAliveNs;
+        final boolean tooMany = consumers.size() > minConsumerCount;
+        boolean kill = !running || (tooMany && keepAliveTimeout < timer.nanoTime());
+        JqLog.d("Consumer idle, will kill? %s . isRunning: %s", kill, running);
+        if (kill && handOff.retire(consumer)) {
+            removeRetiredConsumer(consumer);
+        } else if (tooMany || !jobManagerThread.canListenToNetwork()) {
+            if (!tooMany) {
+                keepAliveTimeout = timer.nanoTime() + consumerKeepAliveNs;
+            }
+            handOff.setWakeUpTime(consumer, keepAliveTimeout);
+        } else {
+            handOff.setWakeUpTime(consumer, JobHandOff.NEVER);
+        }
+        return false;
+    }
+
+    private void removeRetiredConsumer(Consumer consumer) {
+        consumers.remove(consumer);
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("killed consumers. remaining consumers %d", consumers.size());
+        }
+        if (consumers.isEmpty()) {
+            for (Runnable runnable : internalZeroConsumersListeners) {
+                runnable.run();
+            }
+        }
+    }
+
+    private void fillHandOff() {
+        final int needed = handOff.getNeededJobCount();
+        if (needed == 0) {
+            return;
+        }
+        List<JobHolder> nextJobs = jobManagerThread.getNextJobs(runningJobGroups.getSafe(), needed);
+        if (nextJobs.isEmpty()) {
+            return;
+        }
+        for (JobHolder nextJob : nextJobs) {
+            runningJobHolders.put(nextJob.getJob().getId(), nextJob);
+            runningJobGroups.add(nextJob.getGroupId());
+        }
+        handOff.offerAll(nextJobs);
+    }
+
+    private void postHandOffFill() {
+        if (!handOffFillPosted) {
+            handOffFillPosted = true;
+            postHandOffIdle(null, 0);
+        }
+    }
+
     /**
      * Excludes cancelled jobs
      */
@@ -274,10 +557,20 @@ class ConsumerManager {
     void handleRunJobResult(RunJobResultMessage message, JobHolder jobHolder,
             RetryConstraint retryConstraint) {
         Consumer consumer = (Consumer) message.getWorker();
-        if (!consumer.hasJob) {
-            throw new IllegalStateException("this worker should not have a job");
+        if (handOff == null) {
+            if (!consumer.hasJob) {
+                throw new IllegalStateException("this worker should not have a job");
+            }
+            consumer.hasJob = false;
+        } else if (workStealing) {
+            // the consumer keeps running queued jobs and reports when it runs out of them
+            if (handOff.getNeededJobCount() > 0) {
+                postHandOffFill();
+            }
+        } else {
+            // the consumer went idle before it posted the result
+            postHandOffIdle(consumer, timer.nanoTime());
         }
-        consumer.hasJob = false;
         runningJobHolders.remove(jobHolder.getJob().getId());
         if (jobHolder.getGroupId() != null) {
             runningJobGroups.remove(jobHolder.getGroupId());
@@ -288,6 +581,25 @@ class ConsumerManager {
                                 + retryConstraint.getNewDelayInMs() * JobManagerThread.NS_PER_MS);
             }
         }
+        if (scaler != null) {
+            updateScalingTarget(message.getRunTimeNs());
+        }
+    }
+
+    private void updateScalingTarget(long runTimeNs) {
+        final long now = timer.nanoTime();
+        if (!scaler.onJobFinished(runTimeNs, now) || !jobManagerThread.isRunning()) {
+            return;
+        }
+        final int previousTarget = scaler.getTarget();
+        if (scaler.evaluate(now, jobManagerThread.countRemainingReadyJobs(), consumers.size())
+                && scaler.getTarget() > previousTarget) {
+            // there are jobs waiting, otherwise the target would not grow. Consumers above the
+            // target quit when they ask for their next job.
+            //noinspection StatementWithEmptyBody
+            while (consumers.size() < scaler.getTarget() && addWorker()) {
+            }
+        }
     }
 
     boolean isJobRunning(String id) {
@@ -300,7 +612,7 @@ class ConsumerManager {
 
     public boolean hasJobsWithSchedulerConstraint(SchedulerConstraint constraint) {
         for (JobHolder jobHolder : runningJobHolders.values()) {
-            if (!jobHolder.getJob().isPersistent()) {
+            if (!jobHolder.persistent) {
                 continue;
             }
             if(constraint.getNetworkStatus() >= jobHolder.requiredNetworkType) {
@@ -311,13 +623,20 @@ class ConsumerManager {
     }
 
     public boolean areAllConsumersIdle() {
+        if (handOff != null) {
+            return handOff.getIdleCount() == consumers.size() && !handOff.hasJobs();
+        }
         return waitingConsumers.size() == consumers.size();
     }
 
     static class Consumer implements Runnable {
 
+        // null in direct hand-off mode
         final SafeMessageQueue messageQueue;
 
+        // null unless in direct hand-off mode
+        final JobHandOff handOff;
+
         final MessageQueue parentMessageQueue;
 
         final MessageFactory factory;
@@ -328,6 +647,22 @@ class ConsumerManager {
 
         long lastJobCompleted;
 
+        // queued jobs of this consumer in work stealing mode, guarded by itself
+        final ArrayDeque<JobHolder> localJobs = new ArrayDeque<>();
+
+        // written by this consumer only, true while it takes jobs without going idle in work
+        // stealing mode
+        boolean handOffBusy;
+
+        // guarded by handOff
+        boolean handOffIdle;
+        boolean handOffQuit;
+        long handOffWakeUpNs = JobHandOff.NEVER;
+        long handOffGeneration;
+
+        // used to coalesce the delayed pokes posted while the consumer waits for jobs
+        static final Object POKE_KEY = new Object();
+
         static final MessagePredicate pokeMessagePredicate =
                 new MessagePredicate() {
                     @Override
@@ -355,20 +690,30 @@ class ConsumerManager {
             @Override
             public void onIdle() {
                 JqLog.d("consumer manager on idle");
-                JobConsumerIdleMessage idle = factory.obtain(JobConsumerIdleMessage.class);
-                idle.setWorker(Consumer.this);
-                idle.setLastJobCompleted(lastJobCompleted);
-                parentMessageQueue.post(idle);
+                postIdleMessage();
             }
         };
 
+        private void postIdleMessage() {
+            JobConsumerIdleMessage idle = factory.obtain(JobConsumerIdleMessage.class);
+            idle.setWorker(this);
+            idle.setLastJobCompleted(lastJobCompleted);
+            parentMessageQueue.post(idle);
+        }
+
         private void removePokeMessages() {
             messageQueue.cancelMessages(pokeMessagePredicate);
         }
 
         public Consumer(MessageQueue parentMessageQueue, SafeMessageQueue messageQueue,
                 MessageFactory factory, Timer timer) {
+            this(parentMessageQueue, messageQueue, null, factory, timer);
+        }
+
+        public Consumer(MessageQueue parentMessageQueue, SafeMessageQueue messageQueue,
+                JobHandOff handOff, MessageFactory factory, Timer timer) {
             this.messageQueue = messageQueue;
+            this.handOff = handOff;
             this.factory = factory;
             this.parentMessageQueue = parentMessageQueue;
             this.timer = timer;
@@ -377,7 +722,27 @@ class ConsumerManager {
 
         @Override
         public void run() {
-            messageQueue.consume(queueConsumer);
+            if (handOff != null) {
+                runWithHandOff();
+            } else {
+                messageQueue.consume(queueConsumer);
+            }
+        }
+
+        private void runWithHandOff() {
+            handOff.markIdle(this);
+            postIdleMessage();
+            while (true) {
+                JobHolder jobHolder = handOff.take(this);
+                if (jobHolder != null) {
+                    runJob(jobHolder);
+                    lastJobCompleted = timer.nanoTime();
+                } else if (handOff.hasQuit(this)) {
+                    return;
+                } else {
+                    postIdleMessage();
+                }
+            }
         }
 
         private void handleCommand(CommandMessage message) {
@@ -393,13 +758,23 @@ class ConsumerManager {
         }
 
         private void handleRunJob(RunJobMessage message) {
-            JqLog.d("running job %s", message.getJobHolder().getClass().getSimpleName());
-            JobHolder jobHolder = message.getJobHolder();
+            if (JqLog.isDebugEnabled()) {
+                JqLog.d("running job %s", message.getJobHolder().getClass().getSimpleName());
+            }
+            runJob(message.getJobHolder());
+        }
+
+        private void runJob(JobHolder jobHolder) {
+            final long startNs = timer.nanoTime();
             int result = jobHolder.safeRun(jobHolder.getRunCount(), timer);
             RunJobResultMessage resultMessage = factory.obtain(RunJobResultMessage.class);
             resultMessage.setJobHolder(jobHolder);
             resultMessage.setResult(result);
+            resultMessage.setRunTimeNs(timer.nanoTime() - startNs);
             resultMessage.setWorker(this);
+            if (handOff != null) {
+                handOff.onJobFinished(this);
+            }
             parentMessageQueue.post(resultMessage);
         }
     }
@@ -1,15 +1,17 @@
 package com.birbit.android.jobqueue;
 
-import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
 import com.birbit.android.jobqueue.*;
 import com.birbit.android.jobqueue.cachedQueue.CachedJobQueue;
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.WriteBehindJobQueue;
 
 /**
  * Default implementation of QueueFactory that creates one {@link SqliteJobQueue} and
- * one {@link SimpleInMemoryPriorityQueue} both are wrapped inside a {@link CachedJobQueue} to
- * improve performance
+ * one {@link IndexedInMemoryPriorityQueue} both are wrapped inside a {@link CachedJobQueue} to
+ * improve performance. If {@link Configuration#sqliteWriteBehind()} is enabled, a
+ * {@link WriteBehindJobQueue} is used instead of the {@link SqliteJobQueue}.
  */
 public class DefaultQueueFactory implements QueueFactory {
     SqliteJobQueue.JobSerializer jobSerializer;
@@ -24,11 +26,15 @@ public class DefaultQueueFactory implements QueueFactory {
 
     @Override
     public JobQueue createPersistentQueue(Configuration configuration, long sessionId) {
+        if (configuration.sqliteWriteBehind()) {
+            return new CachedJobQueue(
+                    new WriteBehindJobQueue(configuration, sessionId, jobSerializer));
+        }
         return new CachedJobQueue(new SqliteJobQueue(configuration, sessionId, jobSerializer));
     }
 
     @Override
     public JobQueue createNonPersistent(Configuration configuration, long sessionId) {
-        return new CachedJobQueue(new SimpleInMemoryPriorityQueue(configuration, sessionId));
+        return new CachedJobQueue(new IndexedInMemoryPriorityQueue(configuration, sessionId));
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package com.birbit.android.jobqueue;
+
+import com.birbit.android.jobqueue.timer.Timer;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hands jobs from {@link JobManagerThread} to idle consumers without going through the message
+ * queues.
+ * <p>
+ * A consumer registers itself as idle when it finishes a job and then blocks in
+ * {@link #take(ConsumerManager.Consumer)}. {@link ConsumerManager} offers at most one job per idle
+ * consumer, so a job never waits here for a consumer that is not coming. Any idle consumer can take
+ * any offered job.
+ */
+class JobHandOff {
+    static final long NEVER = Long.MAX_VALUE;
+    final Timer timer;
+    private final ArrayDeque<JobHolder> jobs = new ArrayDeque<>();
+    private int idleCount = 0;
+    // incremented to make every waiting consumer ask the JobManager for a job again
+    private long wakeUpGeneration = 0;
+
+    JobHandOff(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Called by {@link ConsumerManager} when it creates a consumer.
+     */
+    void register(ConsumerManager.Consumer consumer) {
+    }
+
+    /**
+     * Called by {@link ConsumerManager} when a consumer could not be started.
+     */
+    void unregister(ConsumerManager.Consumer consumer) {
+    }
+
+    /**
+     * Called by the consumer before it asks for a job.
+     */
+    synchronized void markIdle(ConsumerManager.Consumer consumer) {
+        if (!consumer.handOffIdle) {
+            consumer.handOffGeneration = wakeUpGeneration;
+            setIdle(consumer, true);
+        }
+    }
+
+    /**
+     * Called by the consumer after it runs a job, before it posts the result.
+     */
+    void onJobFinished(ConsumerManager.Consumer consumer) {
+        // must be idle before the result is handled, which may hand out the next job
+        markIdle(consumer);
+    }
+
+    // must hold the lock
+    void setIdle(ConsumerManager.Consumer consumer, boolean idle) {
+        if (consumer.handOffIdle != idle) {
+            consumer.handOffIdle = idle;
+            idleCount += idle ? 1 : -1;
+        }
+    }
+
+    /**
+     * Blocks until a job is offered, the consumer should check in with the JobManager or it is
+     * retired.
+     *
+     * @return The job to run or null if the consumer should post an idle message or quit
+     */
+    synchronized JobHolder take(ConsumerManager.Consumer consumer) {
+        while (true) {
+            if (consumer.handOffQuit) {
+                return null;
+            }
+            JobHolder jobHolder = jobs.poll();
+            if (jobHolder != null) {
+                setIdle(consumer, false);
+                return jobHolder;
+            }
+            if (!await(consumer)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Waits until the lock is notified or the wake up time of the consumer. Must hold the lock.
+     *
+     * @return False if the consumer should check in with the JobManager instead of waiting
+     */
+    boolean await(ConsumerManager.Consumer consumer) {
+        if (consumer.handOffGeneration != wakeUpGeneration) {
+            // set when the consumer went idle so that a wake up before this call is not lost
+            consumer.handOffGeneration = wakeUpGeneration;
+            return false;
+        }
+        final long wakeUpNs = consumer.handOffWakeUpNs;
+        try {
+            if (wakeUpNs == NEVER) {
+                timer.waitOnObject(this);
+            } else if (wakeUpNs <= timer.nanoTime()) {
+                consumer.handOffWakeUpNs = NEVER;
+                return false;
+            } else {
+                timer.waitOnObjectUntilNs(this, wakeUpNs);
+            }
+        } catch (InterruptedException ignored) {
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of idle consumers without a job waiting for them
+     */
+    synchronized int getNeededJobCount() {
+        return Math.max(0, idleCount - jobs.size());
+    }
+
+    synchronized void offerAll(Collection<JobHolder> jobHolders) {
+        jobs.addAll(jobHolders);
+        timer.notifyObject(this);
+    }
+
+    /**
+     * Removes the offered jobs that no consumer took yet, except cancelled ones which still have
+     * to run to report their cancellation. Jobs are taken as soon as they are offered here so
+     * there is nothing to remove.
+     *
+     * @return The removed jobs
+     */
+    List<JobHolder> drainJobs() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Tells the consumer to quit unless it is running a job or an offered job needs it.
+     *
+     * @return True if the consumer will quit
+     */
+    synchronized boolean retire(ConsumerManager.Consumer consumer) {
+        if (!consumer.handOffIdle || jobs.size() >= idleCount) {
+            return false;
+        }
+        setIdle(consumer, false);
+        consumer.handOffQuit = true;
+        timer.notifyObject(this);
+        return true;
+    }
+
+    synchronized void setWakeUpTime(ConsumerManager.Consumer consumer, long wakeUpNs) {
+        consumer.handOffWakeUpNs = wakeUpNs;
+        timer.notifyObject(this);
+    }
+
+    synchronized void wakeUpAll() {
+        wakeUpGeneration++;
+        timer.notifyObject(this);
+    }
+
+    synchronized boolean hasQuit(ConsumerManager.Consumer consumer) {
+        return consumer.handOffQuit;
+    }
+
+    synchronized boolean hasJobs() {
+        return !jobs.isEmpty();
+    }
+
+    synchronized boolean isIdle(ConsumerManager.Consumer consumer) {
+        return consumer.handOffIdle;
+    }
+
+    synchronized int getIdleCount() {
+        return idleCount;
+    }
+}
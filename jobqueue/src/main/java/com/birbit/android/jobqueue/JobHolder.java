@@ -75,7 +75,11 @@ public class JobHolder {
      * What to do when deadline is reached
      */
     private boolean cancelOnDeadline;
-    transient final Job job;
+    /**
+     * null until the job is loaded if this holder is created with a {@link JobLoader}
+     */
+    transient Job job;
+    @Nullable private JobLoader jobLoader;
     protected final Set<String> tags;
     private volatile boolean cancelled;
     private volatile boolean cancelledSingleId;
@@ -95,7 +99,8 @@ public class JobHolder {
      * @param priority         Higher is better
      * @param groupId          which group does this job belong to? default null
      * @param runCount         Incremented each time job is fetched to run, initial value should be 0
-     * @param job              Actual job to run
+     * @param job              Actual job to run or null if it is loaded via the jobLoader
+     * @param jobLoader        Loads the job when it is first needed if job is null
      * @param createdNs        System.nanotime
      * @param delayUntilNs     System.nanotime value: when job can be run the very first time
      * @param runningSessionId The running session id for the job
@@ -104,7 +109,8 @@ public class JobHolder {
      * @param deadlineNs       System.nanotime value: when the job will ignore its constraints
      * @param cancelOnDeadline true if job should be cancelled when deadline is reached, false otherwise
      */
-    private JobHolder(String id, boolean persistent, int priority, String groupId, int runCount, Job job, long createdNs,
+    private JobHolder(String id, boolean persistent, int priority, String groupId, int runCount, Job job,
+                      JobLoader jobLoader, long createdNs,
                       long delayUntilNs, long runningSessionId, Set<String> tags,
                       int requiredNetworkType, long deadlineNs, boolean cancelOnDeadline) {
         this.id = id;
@@ -115,6 +121,7 @@ public class JobHolder {
         this.createdNs = createdNs;
         this.delayUntilNs = delayUntilNs;
         this.job = job;
+        this.jobLoader = jobLoader;
         this.runningSessionId = runningSessionId;
         this.requiredNetworkType = requiredNetworkType;
         this.tags = tags;
@@ -129,7 +136,7 @@ public class JobHolder {
      * @return RUN_RESULT
      */
     int safeRun(int currentRunCount, Timer timer) {
-        return job.safeRun(this, currentRunCount, timer);
+        return getJob().safeRun(this, currentRunCount, timer);
     }
 
     @NonNull public String getId() {
@@ -153,7 +160,9 @@ public class JobHolder {
 
     public void setPriority(int priority) {
         this.priority = priority;
-        this.job.priority = this.priority;
+        if (job != null) {
+            job.priority = this.priority;
+        }
     }
 
     public Long getInsertionOrder() {
@@ -200,10 +209,38 @@ public class JobHolder {
         return delayUntilNs;
     }
 
+    /**
+     * Returns the Job of this holder, loading it first if it was not loaded yet.
+     *
+     * @return The Job
+     * @throws IllegalStateException if the Job cannot be loaded
+     */
     public Job getJob() {
+        if (job == null) {
+            loadJob();
+        }
         return job;
     }
 
+    /**
+     * @return True if the Job is available without loading it
+     */
+    public boolean isJobLoaded() {
+        return job != null;
+    }
+
+    private void loadJob() {
+        //noinspection ConstantConditions
+        Job loaded = jobLoader.load();
+        if (loaded == null) {
+            throw new IllegalStateException("cannot load job " + id);
+        }
+        loaded.updateFromJobHolder(this);
+        loaded.cancelled = cancelled;
+        job = loaded;
+        jobLoader = null;
+    }
+
     public String getGroupId() {
         return groupId;
     }
@@ -214,7 +251,9 @@ public class JobHolder {
 
     public void markAsCancelled() {
         cancelled = true;
-        job.cancelled = true;
+        if (job != null) {
+            job.cancelled = true;
+        }
     }
 
     public boolean isCancelled() {
@@ -250,11 +289,11 @@ public class JobHolder {
     }
 
     public void setApplicationContext(Context applicationContext) {
-        this.job.setApplicationContext(applicationContext);
+        getJob().setApplicationContext(applicationContext);
     }
 
     public void setDeadlineIsReached(boolean didReachDeadline) {
-        this.job.setDeadlineReached(didReachDeadline);
+        getJob().setDeadlineReached(didReachDeadline);
     }
 
     public boolean hasDeadline() {
@@ -266,7 +305,7 @@ public class JobHolder {
     }
 
     public void onCancel(@CancelReason int cancelReason) {
-        job.onCancel(cancelReason, throwable);
+        getJob().onCancel(cancelReason, throwable);
     }
 
     public RetryConstraint getRetryConstraint() {
@@ -298,6 +337,18 @@ public class JobHolder {
         return requiredNetworkType;
     }
 
+    /**
+     * Creates the Job of a {@link JobHolder} when it is first needed. Lets a {@link JobQueue}
+     * return holders without deserializing their Jobs when only the metadata is used.
+     */
+    public interface JobLoader {
+        /**
+         * @return The Job or null if it cannot be loaded
+         */
+        @Nullable
+        Job load();
+    }
+
     public static class Builder {
         private int priority;
         private static final int FLAG_PRIORITY = 1;
@@ -309,6 +360,7 @@ public class JobHolder {
         private static final int FLAG_GROUP_ID = FLAG_ID << 1;
         private int runCount = 0;
         private Job job;
+        private JobLoader jobLoader;
         private static final int FLAG_JOB = FLAG_GROUP_ID << 1;
         private long createdNs;
         private static final int FLAG_CREATED_NS = FLAG_JOB << 1;
@@ -363,6 +415,15 @@ public class JobHolder {
             return this;
         }
 
+        /**
+         * Sets a loader that creates the Job when it is first needed, instead of the Job itself.
+         */
+        public Builder jobLoader(JobLoader jobLoader) {
+            this.jobLoader = jobLoader;
+            providedFlags |= FLAG_JOB;
+            return this;
+        }
+
         public Builder id(String id) {
             this.id = id;
             providedFlags |= FLAG_ID;
@@ -403,7 +464,7 @@ public class JobHolder {
         }
 
         public JobHolder build() {
-            if (job == null) {
+            if (job == null && jobLoader == null) {
                 throw new IllegalArgumentException("must provide a job");
             }
             int flagCheck = REQUIRED_FLAGS & providedFlags;
@@ -411,12 +472,15 @@ public class JobHolder {
                 throw new IllegalArgumentException("must provide all required fields. your result:" + Long.toBinaryString(flagCheck));
             }
 
-            JobHolder jobHolder = new JobHolder(id, persistent, priority, groupId, runCount, job, createdNs,
+            JobHolder jobHolder = new JobHolder(id, persistent, priority, groupId, runCount, job,
+                    job == null ? jobLoader : null, createdNs,
                     delayUntilNs, runningSessionId, tags, requiredNetworkType, deadlineNs, cancelOnDeadline);
             if (insertionOrder != null) {
                 jobHolder.setInsertionOrder(insertionOrder);
             }
-            job.updateFromJobHolder(jobHolder);
+            if (job != null) {
+                job.updateFromJobHolder(jobHolder);
+            }
             return jobHolder;
         }
     }
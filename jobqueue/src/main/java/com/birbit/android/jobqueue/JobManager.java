@@ -9,11 +9,13 @@ import com.birbit.android.jobqueue.callback.JobManagerCallback;
 import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.messaging.LockFreeMessageQueue;
 import com.birbit.android.jobqueue.messaging.Message;
 import com.birbit.android.jobqueue.messaging.MessageFactory;
 import com.birbit.android.jobqueue.messaging.MessageQueue;
 import com.birbit.android.jobqueue.messaging.PriorityMessageQueue;
 import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.AddJobsMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelMessage;
 import com.birbit.android.jobqueue.messaging.message.CommandMessage;
 import com.birbit.android.jobqueue.messaging.message.PublicQueryMessage;
@@ -21,6 +23,10 @@ import com.birbit.android.jobqueue.messaging.message.SchedulerMessage;
 import com.birbit.android.jobqueue.scheduling.Scheduler;
 import com.birbit.android.jobqueue.scheduling.SchedulerConstraint;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -40,7 +46,7 @@ public class JobManager {
     public static final long MIN_DELAY_TO_USE_SCHEDULER_IN_MS = 1000 * 30;
 
     final JobManagerThread jobManagerThread;
-    private final PriorityMessageQueue messageQueue;
+    private final MessageQueue messageQueue;
     private final MessageFactory messageFactory;
     @SuppressWarnings("FieldCanBeLocal")
     private Thread chefThread;
@@ -57,8 +63,14 @@ public class JobManager {
      * @see com.birbit.android.jobqueue.config.Configuration.Builder
      */
     public JobManager(Configuration configuration) {
-        messageFactory = new MessageFactory();
-        messageQueue = new PriorityMessageQueue(configuration.getTimer(), messageFactory);
+        messageFactory = new MessageFactory(configuration.getMessagePoolSize(),
+                configuration.getMessagePoolStripes());
+        if (configuration.lockFreeMessageQueue()) {
+            messageQueue = new LockFreeMessageQueue(configuration.getTimer(), messageFactory);
+        } else {
+            messageQueue = new PriorityMessageQueue(configuration.getTimer(), messageFactory,
+                    configuration.batchMessageDrain());
+        }
         jobManagerThread = new JobManagerThread(configuration, messageQueue, messageFactory);
         chefThread = new Thread(jobManagerThread, "job-manager");
         if (configuration.getScheduler() != null) {
@@ -161,6 +173,28 @@ public class JobManager {
         return new IntQueryFuture<>(messageQueue, message).getSafe();
     }
 
+    /**
+     * Returns how many times JobManager reused a pooled message instead of allocating one.
+     * Can be called from any thread.
+     *
+     * @return The number of pool hits
+     * @see Configuration.Builder#messagePoolSize(int)
+     */
+    public long getMessagePoolHitCount() {
+        return messageFactory.getHitCount();
+    }
+
+    /**
+     * Returns how many times JobManager had to allocate a message because its pool was empty.
+     * Can be called from any thread.
+     *
+     * @return The number of pool misses
+     * @see Configuration.Builder#messagePoolSize(int)
+     */
+    public long getMessagePoolMissCount() {
+        return messageFactory.getMissCount();
+    }
+
     /**
      * Destroys the JobManager. You cannot make any calls to this JobManager after this call.
      * Useful to be called after your tests.
@@ -174,6 +208,7 @@ public class JobManager {
         message.set(CommandMessage.QUIT);
         messageQueue.post(message);
         jobManagerThread.callbackManager.destroy();
+        jobManagerThread.consumerManager.shutdownThreadPool();
     }
 
     /**
@@ -240,6 +275,28 @@ public class JobManager {
         messageQueue.post(message);
     }
 
+    /**
+     * Adds the given Jobs to the JobManager in a single batch. This method instantly returns and
+     * does not wait until the Jobs are added.
+     * <p>
+     * The result is the same as calling {@link #addJobInBackground(Job)} for each Job in the order
+     * of the collection but it is much cheaper when adding many Jobs at once since persistent Jobs
+     * are written to the disk in a single transaction.
+     *
+     * @param jobs The Jobs to be added
+     *
+     * @see #addJobsInBackground(Collection, AsyncAddCallback)
+     * @see #addJobs(Collection)
+     */
+    public void addJobsInBackground(Collection<? extends Job> jobs) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        AddJobsMessage message = messageFactory.obtain(AddJobsMessage.class);
+        message.setJobs(new ArrayList<Job>(jobs));
+        messageQueue.post(message);
+    }
+
     /**
      * Cancels the Jobs that match the given criteria. If a Job that matches the criteria is
      * currently running, JobManager waits until it finishes its {@link Job#onRun()} method before
@@ -349,6 +406,89 @@ public class JobManager {
         addJobInBackground(job);
     }
 
+    /**
+     * Adds the given Jobs to the JobManager in a single batch and waits until all of them are
+     * added.
+     * <p>
+     * You cannot call this method on the main thread because it may potentially block it for a long
+     * time.
+     *
+     * @param jobs The Jobs to be added
+     *
+     * @see #addJobsInBackground(Collection)
+     * @see #addJobsInBackground(Collection, AsyncAddCallback)
+     */
+    public void addJobs(Collection<? extends Job> jobs) {
+        assertNotInMainThread("Cannot call this method on main thread. Use addJobsInBackground "
+                + "instead.");
+        assertNotInJobManagerThread("Cannot call sync methods in JobManager's callback thread." +
+                "Use addJobsInBackground instead");
+        if (jobs.isEmpty()) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        addJobsInBackground(jobs, new AsyncAddCallback() {
+            @Override
+            public void onAdded() {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {
+
+        }
+    }
+
+    /**
+     * Adds the given Jobs in a background thread and calls the provided callback once all of them
+     * are added to the JobManager.
+     * <p>
+     * Jobs that are rejected by their queue (see {@link CancelReason#REJECTED_BY_QUEUE}) are not
+     * added but they are handled once they are cancelled, so the callback is still called.
+     *
+     * @param jobs The Jobs to be added
+     * @param callback The callback to be invoked once all Jobs are saved in the JobManager's queues
+     */
+    public void addJobsInBackground(Collection<? extends Job> jobs,
+            final AsyncAddCallback callback) {
+        if (callback == null) {
+            addJobsInBackground(jobs);
+            return;
+        }
+        if (jobs.isEmpty()) {
+            callback.onAdded();
+            return;
+        }
+        final Set<String> remaining = new HashSet<>(jobs.size());
+        for (Job job : jobs) {
+            remaining.add(job.getId());
+        }
+        addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                onHandled(job);
+            }
+
+            @Override
+            public void onDone(@NonNull Job job) {
+                // rejected jobs are done without being added
+                onHandled(job);
+            }
+
+            private void onHandled(Job job) {
+                if (remaining.remove(job.getId()) && remaining.isEmpty()) {
+                    try {
+                        callback.onAdded();
+                    } finally {
+                        removeCallback(this);
+                    }
+                }
+            }
+        });
+        addJobsInBackground(jobs);
+    }
+
     /**
      * Cancels jobs that match the given criteria. This method blocks until the cancellation is
      * handled, which might be a long time if a Job that matches the given criteria is currently
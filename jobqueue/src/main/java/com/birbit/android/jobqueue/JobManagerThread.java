@@ -10,8 +10,10 @@ import com.birbit.android.jobqueue.log.JqLog;
 import com.birbit.android.jobqueue.messaging.Message;
 import com.birbit.android.jobqueue.messaging.MessageFactory;
 import com.birbit.android.jobqueue.messaging.MessageQueueConsumer;
-import com.birbit.android.jobqueue.messaging.PriorityMessageQueue;
+import com.birbit.android.jobqueue.messaging.MessageQueue;
+import com.birbit.android.jobqueue.messaging.Type;
 import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.AddJobsMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelMessage;
 import com.birbit.android.jobqueue.messaging.message.CommandMessage;
 import com.birbit.android.jobqueue.messaging.message.ConstraintChangeMessage;
@@ -27,8 +29,12 @@ import com.birbit.android.jobqueue.timer.Timer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -36,6 +42,8 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     public static final long NS_PER_MS = 1000000;
     public static final long NOT_RUNNING_SESSION_ID = Long.MIN_VALUE;
     public static final long NOT_DELAYED_JOB_DELAY = Long.MIN_VALUE;
+    // delayed wake ups of the same kind this close to each other are coalesced into the earliest
+    static final long WAKE_UP_WINDOW_NS = TimeUnit.MILLISECONDS.toNanos(10);
 
 
     final Timer timer;
@@ -62,11 +70,11 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
      */
     private boolean shouldCancelAllScheduledWhenEmpty = false;
 
-    final PriorityMessageQueue messageQueue;
+    final MessageQueue messageQueue;
     @Nullable
     Scheduler scheduler;
 
-    JobManagerThread(Configuration config, PriorityMessageQueue messageQueue,
+    JobManagerThread(Configuration config, MessageQueue messageQueue,
             MessageFactory messageFactory) {
         this.messageQueue = messageQueue;
         if(config.getCustomLogger() != null) {
@@ -110,25 +118,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         Job job = message.getJob();
         //noinspection deprecation
         long now = timer.nanoTime();
-        long delayUntilNs = job.getDelayInMs() > 0
-                ? now + job.getDelayInMs() * NS_PER_MS
-                : NOT_DELAYED_JOB_DELAY;
-        long deadline = job.getDeadlineInMs() > 0
-                ? now + job.getDeadlineInMs() * NS_PER_MS
-                : Params.FOREVER;
-        JobHolder jobHolder = new JobHolder.Builder()
-                .priority(job.getPriority())
-                .job(job)
-                .groupId(job.getRunGroupId())
-                .createdNs(now)
-                .delayUntilNs(delayUntilNs)
-                .id(job.getId())
-                .tags(job.getTags())
-                .persistent(job.isPersistent())
-                .runCount(0)
-                .deadline(deadline, job.shouldCancelOnDeadline())
-                .requiredNetworkType(job.requiredNetworkType)
-                .runningSessionId(NOT_RUNNING_SESSION_ID).build();
+        JobHolder jobHolder = createJobHolder(job, now);
 
         JobHolder oldJob = findJobBySingleId(job.getSingleInstanceId());
         final boolean insert = oldJob == null || consumerManager.isJobRunning(oldJob.getId());
@@ -140,36 +130,219 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
             } else {
                 queue.insert(jobHolder);
             }
-            if (JqLog.isDebugEnabled()) {
-                JqLog.d("added job class: %s priority: %d delay: %d group : %s persistent: %s"
-                        , job.getClass().getSimpleName(), job.getPriority(), job.getDelayInMs()
-                        , job.getRunGroupId(), job.isPersistent());
-            }
+            logAddedJob(job);
         } else {
             JqLog.d("another job with same singleId: %s was already queued", job.getSingleInstanceId());
         }
-        if(dependencyInjector != null) {
-            //inject members b4 calling onAdded
-            dependencyInjector.inject(job);
-        }
-        jobHolder.setApplicationContext(appContext);
-        jobHolder.getJob().onAdded();
-        callbackManager.notifyOnAdded(jobHolder.getJob());
+        dispatchOnAdded(jobHolder, insert);
         if (insert) {
             consumerManager.onJobAdded();
             if (job.isPersistent()) {
                 scheduleWakeUpFor(jobHolder, now);
             }
-        } else {
+        }
+    }
+
+    /**
+     * Handles a batch of jobs added via {@link JobManager#addJobs(Collection)}.
+     * <p>
+     * Behaves as if each job was added via its own {@link AddJobMessage}, in order, except that
+     * single instance jobs are looked up in one query, new jobs are inserted into each queue in one
+     * batch, identical scheduler requests are sent once and consumers are notified once.
+     */
+    private void handleAddJobs(AddJobsMessage message) {
+        final List<Job> jobs = message.getJobs();
+        final long now = timer.nanoTime();
+        final Map<String, JobHolder> singleIdJobs = findJobsBySingleIds(jobs);
+        final List<JobHolder> holders = new ArrayList<>(jobs.size());
+        final boolean[] inserted = new boolean[jobs.size()];
+        // jobs that were not single id duplicates but the queue did not save
+        final boolean[] rejected = new boolean[jobs.size()];
+        final List<JobHolder> persistentInserts = new ArrayList<>();
+        final List<JobHolder> nonPersistentInserts = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            final Job job = jobs.get(i);
+            final JobHolder jobHolder = createJobHolder(job, now);
+            holders.add(jobHolder);
+            final String singleId = job.getSingleInstanceId();
+            final JobHolder oldJob = singleId == null ? null : singleIdJobs.get(singleId);
+            final boolean insert = oldJob == null || consumerManager.isJobRunning(oldJob.getId());
+            inserted[i] = insert;
+            if (!insert) {
+                JqLog.d("another job with same singleId: %s was already queued", singleId);
+                continue;
+            }
+            if (oldJob != null) { //the other job was running, will be cancelled if it fails
+                consumerManager.markJobsCancelledSingleId(TagConstraint.ANY, new String[]{singleId});
+                JobQueue queue = job.isPersistent() ? persistentJobQueue : nonPersistentJobQueue;
+                queue.substitute(jobHolder, oldJob);
+            } else if (job.isPersistent()) {
+                persistentInserts.add(jobHolder);
+            } else {
+                nonPersistentInserts.add(jobHolder);
+            }
+            if (singleId != null) {
+                // following jobs in this batch with the same single id will see this one queued
+                singleIdJobs.put(singleId, jobHolder);
+            }
+            logAddedJob(job);
+        }
+        if (!persistentInserts.isEmpty() && !persistentJobQueue.insertAll(persistentInserts)) {
+            markRejected(holders, rejected, persistentInserts);
+        }
+        if (!nonPersistentInserts.isEmpty()
+                && !nonPersistentJobQueue.insertAll(nonPersistentInserts)) {
+            markRejected(holders, rejected, nonPersistentInserts);
+        }
+        boolean anyInserted = false;
+        List<SchedulerConstraint> wakeUps = null;
+        for (int i = 0; i < holders.size(); i++) {
+            final JobHolder jobHolder = holders.get(i);
+            if (rejected[i]) {
+                dispatchRejected(jobHolder);
+                continue;
+            }
+            dispatchOnAdded(jobHolder, inserted[i]);
+            if (!inserted[i]) {
+                continue;
+            }
+            anyInserted = true;
+            if (jobHolder.persistent) {
+                SchedulerConstraint wakeUp = createWakeUpConstraint(jobHolder, now);
+                if (wakeUp != null) {
+                    if (wakeUps == null) {
+                        wakeUps = new ArrayList<>();
+                    }
+                    addIfNotCovered(wakeUps, wakeUp);
+                }
+            }
+        }
+        if (anyInserted) {
+            consumerManager.onJobsAdded();
+        }
+        if (wakeUps != null && scheduler != null) {
+            for (SchedulerConstraint wakeUp : wakeUps) {
+                scheduler.request(wakeUp);
+            }
+            shouldCancelAllScheduledWhenEmpty = true;
+        }
+    }
+
+    /**
+     * A queue rejects a batch as a whole so none of its holders are reported as added. The batch
+     * keeps the order of the holders, which lets us find them in one pass.
+     */
+    private static void markRejected(List<JobHolder> holders, boolean[] rejected,
+            List<JobHolder> batch) {
+        int next = 0;
+        for (int i = 0; i < holders.size() && next < batch.size(); i++) {
+            if (holders.get(i) == batch.get(next)) {
+                rejected[i] = true;
+                next++;
+            }
+        }
+    }
+
+    /**
+     * Jobs in a batch share the same creation time so most of them end up with identical
+     * scheduler requests. We only keep one of each.
+     */
+    private static void addIfNotCovered(List<SchedulerConstraint> wakeUps,
+            SchedulerConstraint constraint) {
+        for (SchedulerConstraint existing : wakeUps) {
+            if (existing.getNetworkStatus() == constraint.getNetworkStatus()
+                    && existing.getDelayInMs() == constraint.getDelayInMs()
+                    && (existing.getOverrideDeadlineInMs() == null
+                    ? constraint.getOverrideDeadlineInMs() == null
+                    : existing.getOverrideDeadlineInMs().equals(
+                            constraint.getOverrideDeadlineInMs()))) {
+                return;
+            }
+        }
+        wakeUps.add(constraint);
+    }
+
+    private void logAddedJob(Job job) {
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("added job class: %s priority: %d delay: %d group : %s persistent: %s"
+                    , job.getClass().getSimpleName(), job.getPriority(), job.getDelayInMs()
+                    , job.getRunGroupId(), job.isPersistent());
+        }
+    }
+
+    private void dispatchOnAdded(JobHolder jobHolder, boolean inserted) {
+        Job job = jobHolder.getJob();
+        if(dependencyInjector != null) {
+            //inject members b4 calling onAdded
+            dependencyInjector.inject(job);
+        }
+        jobHolder.setApplicationContext(appContext);
+        job.onAdded();
+        callbackManager.notifyOnAdded(job);
+        if (!inserted) {
             cancelSafely(jobHolder, CancelReason.SINGLE_INSTANCE_ID_QUEUED);
-            callbackManager.notifyOnDone(jobHolder.getJob());
+            callbackManager.notifyOnDone(job);
+        }
+    }
+
+    /**
+     * Reports a job that its queue did not save. Unlike a single instance duplicate, the job was
+     * never added so its onAdded is not called.
+     */
+    private void dispatchRejected(JobHolder jobHolder) {
+        Job job = jobHolder.getJob();
+        if(dependencyInjector != null) {
+            dependencyInjector.inject(job);
         }
+        jobHolder.setApplicationContext(appContext);
+        cancelSafely(jobHolder, CancelReason.REJECTED_BY_QUEUE);
+        callbackManager.notifyOnDone(job);
+    }
+
+    private JobHolder createJobHolder(Job job, long now) {
+        long delayUntilNs = job.getDelayInMs() > 0
+                ? now + job.getDelayInMs() * NS_PER_MS
+                : NOT_DELAYED_JOB_DELAY;
+        long deadline = job.getDeadlineInMs() > 0
+                ? now + job.getDeadlineInMs() * NS_PER_MS
+                : Params.FOREVER;
+        JobHolder jobHolder = new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .createdNs(now)
+                .delayUntilNs(delayUntilNs)
+                .id(job.getId())
+                .tags(job.getTags())
+                .persistent(job.isPersistent())
+                .runCount(0)
+                .deadline(deadline, job.shouldCancelOnDeadline())
+                .requiredNetworkType(job.requiredNetworkType)
+                .runningSessionId(NOT_RUNNING_SESSION_ID).build();
+        return jobHolder;
     }
 
     private void scheduleWakeUpFor(JobHolder holder, long now) {
         if (scheduler == null) {
             return;
         }
+        SchedulerConstraint constraint = createWakeUpConstraint(holder, now);
+        if (constraint == null) {
+            return;
+        }
+        scheduler.request(constraint);
+        shouldCancelAllScheduledWhenEmpty = true;
+    }
+
+    /**
+     * Creates the scheduler request that will wake up the app for the given job or null if the job
+     * does not need one.
+     */
+    @Nullable
+    private SchedulerConstraint createWakeUpConstraint(JobHolder holder, long now) {
+        if (scheduler == null) {
+            return null;
+        }
         int requiredNetwork = holder.requiredNetworkType;
         long delayUntilNs = holder.getDelayUntilNs();
         long deadlineNs = holder.getDeadlineNs();
@@ -180,15 +353,14 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         boolean hasLargeDelay = delayUntilNs > now && delay >= JobManager.MIN_DELAY_TO_USE_SCHEDULER_IN_MS;
         boolean hasLargeDeadline = deadline != null && deadline >= JobManager.MIN_DELAY_TO_USE_SCHEDULER_IN_MS;
         if (requiredNetwork == NetworkUtil.DISCONNECTED && !hasLargeDelay && !hasLargeDeadline) {
-            return;
+            return null;
         }
 
         SchedulerConstraint constraint = new SchedulerConstraint(UUID.randomUUID().toString());
         constraint.setNetworkStatus(requiredNetwork);
         constraint.setDelayInMs(delay);
         constraint.setOverrideDeadlineInMs(deadline);
-        scheduler.request(constraint);
-        shouldCancelAllScheduledWhenEmpty = true;
+        return constraint;
     }
 
     /**
@@ -215,6 +387,53 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         return null;
     }
 
+    /**
+     * Batch version of {@link #findJobBySingleId(String)}. Finds queued jobs for all single ids in
+     * the given list with one query per queue.
+     *
+     * @return A mutable map from single id to the queued job that should be used for it.
+     */
+    private Map<String, JobHolder> findJobsBySingleIds(List<Job> jobs) {
+        final Map<String, JobHolder> result = new HashMap<>();
+        Set<String> singleIds = null;
+        for (Job job : jobs) {
+            String singleId = job.getSingleInstanceId();
+            if (singleId != null) {
+                if (singleIds == null) {
+                    singleIds = new HashSet<>();
+                }
+                singleIds.add(singleId);
+            }
+        }
+        if (singleIds == null) {
+            return result;
+        }
+        queryConstraint.clear();
+        queryConstraint.setTags(singleIds.toArray(new String[singleIds.size()]));
+        queryConstraint.setTagConstraint(TagConstraint.ANY);
+        queryConstraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        Set<JobHolder> matches = nonPersistentJobQueue.findJobs(queryConstraint);
+        matches.addAll(persistentJobQueue.findJobs(queryConstraint));
+        for (JobHolder holder : matches) {
+            final Set<String> tags = holder.getTags();
+            if (tags == null) {
+                continue;
+            }
+            for (String tag : tags) {
+                if (!singleIds.contains(tag)) {
+                    continue;
+                }
+                JobHolder existing = result.get(tag);
+                // prefer non-running jobs, same as findJobBySingleId
+                if (existing == null || (consumerManager.isJobRunning(existing.getId())
+                        && !consumerManager.isJobRunning(holder.getId()))) {
+                    result.put(tag, holder);
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public void run() {
         messageQueue.consume(new MessageQueueConsumer() {
@@ -224,6 +443,9 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                     case ADD_JOB:
                         handleAddJob((AddJobMessage) message);
                         break;
+                    case ADD_JOBS:
+                        handleAddJobs((AddJobsMessage) message);
+                        break;
                     case JOB_CONSUMER_IDLE:
                         boolean busy = consumerManager.handleIdle((JobConsumerIdleMessage) message);
                         if (!busy) {
@@ -254,6 +476,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
             @Override
             public void onIdle() {
                 JqLog.d("joq idle. running:? %s", running);
+                persistentJobQueue.flush();
                 if (!running) {
                     return;
                 }
@@ -264,7 +487,10 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                 if (nextJobTimeNs != null) {
                     ConstraintChangeMessage constraintMessage =
                             messageFactory.obtain(ConstraintChangeMessage.class);
-                    messageQueue.postAt(constraintMessage, nextJobTimeNs);
+                    // the wake up re-runs onIdle, which posts the next one, so one per window is
+                    // enough
+                    messageQueue.postAtUnique(constraintMessage, nextJobTimeNs,
+                            Type.CONSTRAINT_CHANGE, WAKE_UP_WINDOW_NS);
                 } else if (scheduler != null) {
                     // if we have a scheduler but the queue is empty, just clean them all.
                     if (shouldCancelAllScheduledWhenEmpty && persistentJobQueue.count() == 0) {
@@ -355,6 +581,9 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
 
     private void handleCommand(CommandMessage message) {
         if (message.getWhat() == CommandMessage.QUIT) {
+            // there may not be an idle call before the thread stops, commit deferred writes now
+            persistentJobQueue.close();
+            nonPersistentJobQueue.close();
             messageQueue.stop();
             messageQueue.clear();
         }
@@ -533,18 +762,26 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
 
     private void reAddJob(JobHolder jobHolder) {
         if (!jobHolder.isCancelled()) {
-            if (jobHolder.getJob().isPersistent()) {
+            if (jobHolder.persistent) {
                 persistentJobQueue.insertOrReplace(jobHolder);
             } else {
                 nonPersistentJobQueue.insertOrReplace(jobHolder);
             }
         } else {
-            JqLog.d("not re-adding cancelled job " + jobHolder);
+            JqLog.d("not re-adding cancelled job %s", jobHolder);
         }
     }
 
+    /**
+     * Puts back a job that was returned by {@link #getNextJobs(Collection, int)} but did not run.
+     */
+    void releaseJob(JobHolder jobHolder) {
+        jobHolder.setRunCount(jobHolder.getRunCount() - 1);
+        reAddJob(jobHolder);
+    }
+
     private void removeJob(JobHolder jobHolder) {
-        if (jobHolder.getJob().isPersistent()) {
+        if (jobHolder.persistent) {
             persistentJobQueue.remove(jobHolder);
         } else {
             nonPersistentJobQueue.remove(jobHolder);
@@ -670,4 +907,60 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         }
         return jobHolder;
     }
+
+    /**
+     * Returns up to {@code max} jobs to run at the same time, in the order repeated calls to
+     * {@link #getNextJob(Collection)} would return them. No two of them are in the same group.
+     */
+    List<JobHolder> getNextJobs(Collection<String> runningJobGroups, int max) {
+        List<JobHolder> result = new ArrayList<>(max);
+        if (!running || max <= 0) {
+            return result;
+        }
+        final Set<String> excludeGroups = new TreeSet<>();
+        if (runningJobGroups != null) {
+            excludeGroups.addAll(runningJobGroups);
+        }
+        while (result.size() < max) {
+            final int networkStatus = getNetworkStatus();
+            boolean persistent = false;
+            JqLog.v("looking for next %d jobs", max - result.size());
+            queryConstraint.clear();
+            long now = timer.nanoTime();
+            queryConstraint.setNowInNs(now);
+            queryConstraint.setMaxNetworkType(networkStatus);
+            queryConstraint.setExcludeGroups(excludeGroups);
+            queryConstraint.setExcludeRunning(true);
+            queryConstraint.setTimeLimit(now);
+            List<JobHolder> jobHolders = nonPersistentJobQueue.nextJobsAndIncRunCount(
+                    queryConstraint, max - result.size());
+            if (jobHolders.isEmpty()) {
+                //go to disk, there aren't any non-persistent jobs
+                jobHolders = persistentJobQueue.nextJobsAndIncRunCount(queryConstraint,
+                        max - result.size());
+                persistent = true;
+            }
+            if (jobHolders.isEmpty()) {
+                break;
+            }
+            for (JobHolder jobHolder : jobHolders) {
+                if (persistent && dependencyInjector != null) {
+                    dependencyInjector.inject(jobHolder.getJob());
+                }
+                jobHolder.setApplicationContext(appContext);
+                jobHolder.setDeadlineIsReached(jobHolder.getDeadlineNs() <= now);
+                if (jobHolder.getDeadlineNs() <= now
+                        && jobHolder.shouldCancelOnDeadline()) {
+                    cancelSafely(jobHolder, CancelReason.REACHED_DEADLINE);
+                    removeJob(jobHolder);
+                    continue;
+                }
+                result.add(jobHolder);
+                if (jobHolder.getGroupId() != null) {
+                    excludeGroups.add(jobHolder.getGroupId());
+                }
+            }
+        }
+        return result;
+    }
 }
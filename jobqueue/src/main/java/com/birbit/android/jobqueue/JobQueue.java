@@ -3,6 +3,7 @@ package com.birbit.android.jobqueue;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -19,6 +20,17 @@ public interface JobQueue {
      */
     boolean insert(@NonNull JobHolder jobHolder);
 
+    /**
+     * Inserts all of the given JobHolders. Implementations are free to insert them in a single
+     * batch (e.g. in one transaction), and should do so if it is cheaper than inserting them one
+     * by one.
+     *
+     * @param jobHolders The JobHolders to be inserted
+     *
+     * @return True if all jobs are added, false otherwise
+     */
+    boolean insertAll(@NonNull List<JobHolder> jobHolders);
+
     /**
      * Does the same thing with insert but the only difference is that
      * if job has an insertion ID, it should replace the existing one
@@ -75,6 +87,21 @@ public interface JobQueue {
     @Nullable
     JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint);
 
+    /**
+     * Returns up to {@code max} available jobs, in the order repeated calls to
+     * {@link #nextJobAndIncRunCount(Constraint)} would return them.
+     * Like {@link #nextJobAndIncRunCount(Constraint)}, it should assign the sessionId as the
+     * RunningSessionId and persist that data if necessary.
+     * At most one job is returned per group because jobs in the same group cannot run at the same
+     * time.
+     *
+     * @param constraint The constraint to match the jobs.
+     * @param max The maximum number of jobs to return
+     * @return The jobs to be run that match the constraint, empty if there are no such jobs
+     */
+    @NonNull
+    List<JobHolder> nextJobsAndIncRunCount(@NonNull Constraint constraint, int max);
+
     /**
      * Returns when the next job should run (in nanoseconds), should return null if there are no
      * jobs to run.
@@ -118,4 +145,21 @@ public interface JobQueue {
      * @param holder The JobHolder that is being cancelled
      */
     void onJobCancelled(JobHolder holder);
+
+    /**
+     * Called by the JobManager when it does not have any more messages to process for now.
+     * <p>
+     * Queues that defer their writes (e.g. {@link
+     * com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue} with group commit)
+     * should persist them. Other queues can ignore it.
+     */
+    void flush();
+
+    /**
+     * Called by the JobManager when it quits. The queue is not used afterwards.
+     * <p>
+     * Queues should persist the writes they deferred and release the resources they hold, such as
+     * threads.
+     */
+    void close();
 }
@@ -0,0 +1,280 @@
+package com.birbit.android.jobqueue;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the number of ready jobs in a {@link JobQueue} up to date as jobs are added and removed so
+ * that {@link JobQueue#countReadyJobs(Constraint)} can be answered without visiting the jobs.
+ * <p>
+ * Ready jobs are counted by the network type they require. A group is counted once, by the
+ * smallest network type among its ready jobs. Jobs whose delay has not passed are kept aside and
+ * counted once a count is requested with a time limit after their delay.
+ * <p>
+ * Only the counts JobManager uses to decide on the number of consumers can be answered: a time
+ * limit, no tags and no excluded job ids. For other constraints, {@link #count(Constraint)}
+ * returns {@link #UNKNOWN} and the queue should count the jobs itself.
+ * <p>
+ * A job queue adds a job when it becomes available to run and removes it when it is fetched to
+ * run, cancelled or removed.
+ */
+public class ReadyJobCounter {
+    /**
+     * Returned by {@link #count(Constraint)} when the count cannot be answered by the counter.
+     */
+    public static final int UNKNOWN = -1;
+    private static final int NETWORK_TYPE_COUNT = NetworkUtil.UNMETERED + 1;
+
+    private static final Comparator<Entry> DELAY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            int cmp = compareLong(entry1.delayUntilNs, entry2.delayUntilNs);
+            return cmp != 0 ? cmp : compareLong(entry1.sequence, entry2.sequence);
+        }
+    };
+
+    private static final Comparator<Entry> DEADLINE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            int cmp = compareLong(entry1.deadlineNs, entry2.deadlineNs);
+            return cmp != 0 ? cmp : compareLong(entry1.sequence, entry2.sequence);
+        }
+    };
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    // jobs whose delay is after readyUntilNs
+    private final TreeSet<Entry> delayed = new TreeSet<>(DELAY_COMPARATOR);
+    private final TreeSet<Entry> withDeadline = new TreeSet<>(DEADLINE_COMPARATOR);
+    // number of ready jobs w/o a group, per network type
+    private final int[] ungroupedByNetworkType = new int[NETWORK_TYPE_COUNT];
+    // number of ready jobs of each group, per network type
+    private final Map<String, int[]> readyGroups = new HashMap<>();
+    // number of groups by the smallest network type their ready jobs require
+    private final int[] groupsByNetworkType = new int[NETWORK_TYPE_COUNT];
+    // the largest time limit jobs were counted as ready for
+    private long readyUntilNs = JobManager.NOT_DELAYED_JOB_DELAY;
+    private long sequence = 0;
+    private final Set<String> reusedGroupSet = new HashSet<>();
+
+    /**
+     * Adds the given job to the counts, replacing the previous values if it was already added.
+     */
+    public void add(@NonNull JobHolder holder) {
+        add(holder.getId(), holder.getGroupId(), holder.getRequiredNetworkType(),
+                holder.getDelayUntilNs(), holder.getDeadlineNs());
+    }
+
+    /**
+     * Adds a job to the counts, replacing the previous values if it was already added.
+     *
+     * @param id The id of the job
+     * @param groupId The group of the job or null if it is not grouped
+     * @param networkType The network type the job requires
+     * @param delayUntilNs The delay of the job or {@link JobManager#NOT_DELAYED_JOB_DELAY}
+     * @param deadlineNs The deadline of the job or {@link Params#FOREVER}
+     */
+    public void add(@NonNull String id, @Nullable String groupId, int networkType,
+            long delayUntilNs, long deadlineNs) {
+        remove(id);
+        Entry entry = new Entry(id, groupId,
+                Math.max(0, Math.min(NETWORK_TYPE_COUNT - 1, networkType)), delayUntilNs,
+                deadlineNs, sequence++);
+        entries.put(id, entry);
+        if (isReady(entry)) {
+            addReady(entry);
+        } else {
+            delayed.add(entry);
+        }
+        if (deadlineNs != Params.FOREVER) {
+            withDeadline.add(entry);
+        }
+    }
+
+    /**
+     * Removes the job with the given id from the counts. Does nothing if it is not counted.
+     */
+    public void remove(@NonNull String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        if (isReady(entry)) {
+            removeReady(entry);
+        } else {
+            delayed.remove(entry);
+        }
+        if (entry.deadlineNs != Params.FOREVER) {
+            withDeadline.remove(entry);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        delayed.clear();
+        withDeadline.clear();
+        readyGroups.clear();
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            ungroupedByNetworkType[i] = 0;
+            groupsByNetworkType[i] = 0;
+        }
+        readyUntilNs = JobManager.NOT_DELAYED_JOB_DELAY;
+    }
+
+    /**
+     * Counts the jobs that match the given constraint the same way
+     * {@link JobQueue#countReadyJobs(Constraint)} does: jobs of the same group are counted once.
+     * <p>
+     * Does not visit the jobs except the ones that hit their deadline but require a better
+     * network than the constraint allows.
+     *
+     * @param constraint The constraint to match
+     * @return The number of ready jobs or {@link #UNKNOWN} if the constraint has tags, excludes
+     * job ids, has no time limit or has a time limit before the one of a previous count.
+     */
+    public int count(@NonNull Constraint constraint) {
+        final Long timeLimit = constraint.getTimeLimit();
+        if (timeLimit == null || timeLimit < readyUntilNs
+                || constraint.getTagConstraint() != null
+                || !constraint.getExcludeJobIds().isEmpty()) {
+            return UNKNOWN;
+        }
+        moveToReady(timeLimit);
+        // every ready job matches except the ones in excluded groups and the ones that require
+        // a better network
+        final int maxNetworkType = Math.max(0, Math.min(NETWORK_TYPE_COUNT - 1,
+                constraint.getMaxNetworkType()));
+        int count = 0;
+        for (int i = 0; i <= maxNetworkType; i++) {
+            count += ungroupedByNetworkType[i] + groupsByNetworkType[i];
+        }
+        reusedGroupSet.clear();
+        for (String groupId : constraint.getExcludeGroups()) {
+            if (reusedGroupSet.add(groupId) && minReadyNetworkType(groupId) <= maxNetworkType) {
+                count--;
+            }
+        }
+        // jobs that hit their deadline are ready regardless of the network
+        for (Entry entry : withDeadline) {
+            if (entry.deadlineNs > constraint.getNowInNs()) {
+                break;
+            }
+            if (entry.networkType <= maxNetworkType || !isReady(entry)) {
+                continue;
+            }
+            if (entry.groupId == null) {
+                count++;
+            } else if (reusedGroupSet.add(entry.groupId)
+                    && minReadyNetworkType(entry.groupId) > maxNetworkType) {
+                count++;
+            }
+        }
+        reusedGroupSet.clear();
+        return count;
+    }
+
+    private boolean isReady(Entry entry) {
+        return entry.delayUntilNs <= readyUntilNs;
+    }
+
+    private void moveToReady(long timeLimit) {
+        if (timeLimit <= readyUntilNs) {
+            return;
+        }
+        readyUntilNs = timeLimit;
+        while (!delayed.isEmpty() && delayed.first().delayUntilNs <= readyUntilNs) {
+            addReady(delayed.pollFirst());
+        }
+    }
+
+    private void addReady(Entry entry) {
+        if (entry.groupId == null) {
+            ungroupedByNetworkType[entry.networkType]++;
+            return;
+        }
+        int[] counts = readyGroups.get(entry.groupId);
+        final int oldMin;
+        if (counts == null) {
+            counts = new int[NETWORK_TYPE_COUNT];
+            readyGroups.put(entry.groupId, counts);
+            oldMin = -1;
+        } else {
+            oldMin = minNetworkType(counts);
+        }
+        counts[entry.networkType]++;
+        final int newMin = minNetworkType(counts);
+        if (newMin != oldMin) {
+            if (oldMin >= 0) {
+                groupsByNetworkType[oldMin]--;
+            }
+            groupsByNetworkType[newMin]++;
+        }
+    }
+
+    private void removeReady(Entry entry) {
+        if (entry.groupId == null) {
+            ungroupedByNetworkType[entry.networkType]--;
+            return;
+        }
+        int[] counts = readyGroups.get(entry.groupId);
+        if (counts == null) {
+            return;
+        }
+        final int oldMin = minNetworkType(counts);
+        counts[entry.networkType]--;
+        final int newMin = minNetworkType(counts);
+        if (newMin != oldMin) {
+            groupsByNetworkType[oldMin]--;
+            if (newMin < NETWORK_TYPE_COUNT) {
+                groupsByNetworkType[newMin]++;
+            } else {
+                readyGroups.remove(entry.groupId);
+            }
+        }
+    }
+
+    private int minReadyNetworkType(String groupId) {
+        int[] counts = readyGroups.get(groupId);
+        return counts == null ? NETWORK_TYPE_COUNT : minNetworkType(counts);
+    }
+
+    private static int minNetworkType(int[] counts) {
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return NETWORK_TYPE_COUNT;
+    }
+
+    private static int compareLong(long l1, long l2) {
+        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+
+    private static class Entry {
+        final String id;
+        final String groupId;
+        final int networkType;
+        final long delayUntilNs;
+        final long deadlineNs;
+        final long sequence;
+
+        Entry(String id, String groupId, int networkType, long delayUntilNs, long deadlineNs,
+                long sequence) {
+            this.id = id;
+            this.groupId = groupId;
+            this.networkType = networkType;
+            this.delayUntilNs = delayUntilNs;
+            this.deadlineNs = deadlineNs;
+            this.sequence = sequence;
+        }
+    }
+}
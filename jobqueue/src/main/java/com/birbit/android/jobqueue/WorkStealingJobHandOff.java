@@ -0,0 +1,222 @@
+package com.birbit.android.jobqueue;
+
+import com.birbit.android.jobqueue.timer.Timer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link JobHandOff} that keeps a queue of jobs for each consumer so that consumers can start
+ * their next job without waiting for the {@link JobManagerThread}.
+ * <p>
+ * {@link ConsumerManager} claims jobs in batches and pushes them into the queues of the consumers,
+ * up to {@code localJobLimit} jobs per consumer. A consumer runs the jobs in its own queue first
+ * and takes jobs from the queues of the other consumers when it runs out. Only when all queues are
+ * empty does it report as idle and wait for the JobManager. Consumers take the oldest job of a
+ * queue, including when they take it from another consumer, so jobs start roughly in the order
+ * they were claimed.
+ * <p>
+ * Jobs of the same group are never queued at the same time because a batch contains at most one
+ * job per group and the group stays excluded until that job's result is handled. As a result,
+ * taking jobs from other consumers does not change the order jobs of a group run in.
+ * <p>
+ * A consumer runs jobs without holding the lock of this class. It takes the lock only when it
+ * goes idle or leaves the idle state, so that it is never retired while it has a job.
+ */
+class WorkStealingJobHandOff extends JobHandOff {
+    private final int localJobLimit;
+    // replaced when a consumer is added or removed so that consumers can read it w/o the lock
+    private volatile ConsumerManager.Consumer[] workers = new ConsumerManager.Consumer[0];
+    // the number of jobs in the local queues of all consumers
+    private final AtomicInteger queuedCount = new AtomicInteger(0);
+    // the consumer that receives the next offered job
+    private int nextWorker = 0;
+
+    WorkStealingJobHandOff(Timer timer, int localJobLimit) {
+        super(timer);
+        this.localJobLimit = localJobLimit;
+    }
+
+    @Override
+    synchronized void register(ConsumerManager.Consumer consumer) {
+        final ConsumerManager.Consumer[] current = workers;
+        final ConsumerManager.Consumer[] updated = new ConsumerManager.Consumer[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = consumer;
+        workers = updated;
+    }
+
+    @Override
+    synchronized void unregister(ConsumerManager.Consumer consumer) {
+        final ConsumerManager.Consumer[] current = workers;
+        final int index = indexOf(current, consumer);
+        if (index < 0) {
+            return;
+        }
+        final ConsumerManager.Consumer[] updated = new ConsumerManager.Consumer[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        workers = updated;
+    }
+
+    @Override
+    void onJobFinished(ConsumerManager.Consumer consumer) {
+        // the consumer looks for another job before it goes idle
+    }
+
+    @Override
+    JobHolder take(ConsumerManager.Consumer consumer) {
+        if (consumer.handOffBusy) {
+            JobHolder jobHolder = pollOrSteal(consumer);
+            if (jobHolder != null) {
+                return jobHolder;
+            }
+            consumer.handOffBusy = false;
+            markIdle(consumer);
+            // let the JobManager know that this consumer needs jobs
+            return null;
+        }
+        synchronized (this) {
+            while (true) {
+                if (consumer.handOffQuit) {
+                    return null;
+                }
+                if (queuedCount.get() > 0) {
+                    // leave the idle state first so that the consumer is not retired with a job
+                    setIdle(consumer, false);
+                    JobHolder jobHolder = pollOrSteal(consumer);
+                    if (jobHolder != null) {
+                        consumer.handOffBusy = true;
+                        return jobHolder;
+                    }
+                    setIdle(consumer, true);
+                }
+                if (!await(consumer)) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private JobHolder pollOrSteal(ConsumerManager.Consumer consumer) {
+        JobHolder jobHolder = poll(consumer);
+        if (jobHolder != null) {
+            return jobHolder;
+        }
+        final ConsumerManager.Consumer[] current = workers;
+        // start after this consumer so that consumers don't all steal from the same one
+        final int start = indexOf(current, consumer) + 1;
+        for (int i = 0; i < current.length; i++) {
+            final ConsumerManager.Consumer peer = current[(start + i) % current.length];
+            if (peer != consumer) {
+                jobHolder = poll(peer);
+                if (jobHolder != null) {
+                    return jobHolder;
+                }
+            }
+        }
+        return null;
+    }
+
+    private JobHolder poll(ConsumerManager.Consumer consumer) {
+        final JobHolder jobHolder;
+        synchronized (consumer.localJobs) {
+            jobHolder = consumer.localJobs.pollFirst();
+        }
+        if (jobHolder != null) {
+            queuedCount.decrementAndGet();
+        }
+        return jobHolder;
+    }
+
+    /**
+     * @return The number of jobs the local queues have room for
+     */
+    @Override
+    int getNeededJobCount() {
+        return Math.max(0, workers.length * localJobLimit - queuedCount.get());
+    }
+
+    /**
+     * Spreads the jobs over the local queues of the consumers, skipping the queues that are full.
+     */
+    @Override
+    synchronized void offerAll(Collection<JobHolder> jobHolders) {
+        final ConsumerManager.Consumer[] current = workers;
+        if (current.length == 0) {
+            throw new IllegalStateException("there are no consumers to queue jobs for");
+        }
+        for (JobHolder jobHolder : jobHolders) {
+            ConsumerManager.Consumer worker = null;
+            for (int i = 0; i < current.length && worker == null; i++) {
+                final ConsumerManager.Consumer candidate = current[nextWorker++ % current.length];
+                synchronized (candidate.localJobs) {
+                    if (candidate.localJobs.size() < localJobLimit) {
+                        worker = candidate;
+                    }
+                }
+            }
+            if (worker == null) {
+                worker = current[nextWorker++ % current.length];
+            }
+            // counted first so that the count never goes below zero when it is taken right away
+            queuedCount.incrementAndGet();
+            synchronized (worker.localJobs) {
+                worker.localJobs.addLast(jobHolder);
+            }
+        }
+        nextWorker %= current.length;
+        timer.notifyObject(this);
+    }
+
+    @Override
+    synchronized List<JobHolder> drainJobs() {
+        final List<JobHolder> drained = new ArrayList<>();
+        for (ConsumerManager.Consumer worker : workers) {
+            synchronized (worker.localJobs) {
+                Iterator<JobHolder> iterator = worker.localJobs.iterator();
+                while (iterator.hasNext()) {
+                    JobHolder jobHolder = iterator.next();
+                    if (!jobHolder.isCancelled()) {
+                        iterator.remove();
+                        queuedCount.decrementAndGet();
+                        drained.add(jobHolder);
+                    }
+                }
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Consumers are not retired while there are queued jobs since idle consumers will take them.
+     */
+    @Override
+    synchronized boolean retire(ConsumerManager.Consumer consumer) {
+        if (queuedCount.get() > 0 || !super.retire(consumer)) {
+            return false;
+        }
+        unregister(consumer);
+        return true;
+    }
+
+    @Override
+    boolean hasJobs() {
+        return queuedCount.get() > 0;
+    }
+
+    private static int indexOf(ConsumerManager.Consumer[] consumers,
+            ConsumerManager.Consumer consumer) {
+        for (int i = 0; i < consumers.length; i++) {
+            if (consumers[i] == consumer) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -5,19 +5,46 @@ import android.support.annotation.Nullable;
 
 import com.birbit.android.jobqueue.Constraint;
 import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.JobQueue;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * a class that implements {@link JobQueue} interface, wraps another {@link JobQueue} and caches
  * results to avoid unnecessary queries to wrapped JobQueue.
- * does very basic caching but should be sufficient for most of the repeated cases
- * element
+ * <p>
+ * Besides the count, results are cached per constraint shape (network type, excluded groups) for
+ * the queries JobManager repeats when consumers become idle:
+ * <ul>
+ *     <li>{@link #getNextJobDelayUntilNs(Constraint)} is kept until a job that may be the next one
+ *     is added or removed.</li>
+ *     <li>When {@link #nextJobAndIncRunCount(Constraint)} does not find a job, the queue is known
+ *     to have no ready jobs for that shape until a job is added or the time reaches the cached
+ *     next delay.</li>
+ * </ul>
+ * Only constraints that exclude running jobs and have no tags or excluded job ids are cached.
  */
 public class CachedJobQueue implements JobQueue {
+    private static final int MAX_CACHED_SHAPES = 8;
     private JobQueue delegate;
     private Integer cachedCount;
+    private final Map<ShapeKey, ShapeCache> shapes =
+            new LinkedHashMap<ShapeKey, ShapeCache>(MAX_CACHED_SHAPES, .75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ShapeKey, ShapeCache> eldest) {
+                    return size() > MAX_CACHED_SHAPES;
+                }
+            };
+    private final ShapeKey reusedKey = new ShapeKey();
+    // jobs returned by nextJobAndIncRunCount that were not re-inserted or removed yet. They do not
+    // match any cached shape since those exclude running jobs.
+    private final Set<String> fetchedJobIds = new HashSet<>();
 
     public CachedJobQueue(JobQueue delegate) {
         this.delegate = delegate;
@@ -26,9 +53,19 @@ public class CachedJobQueue implements JobQueue {
     @Override
     public boolean insert(@NonNull JobHolder jobHolder) {
         invalidateCache();
+        onJobAdded(jobHolder);
         return delegate.insert(jobHolder);
     }
 
+    @Override
+    public boolean insertAll(@NonNull List<JobHolder> jobHolders) {
+        invalidateCache();
+        for (JobHolder jobHolder : jobHolders) {
+            onJobAdded(jobHolder);
+        }
+        return delegate.insertAll(jobHolders);
+    }
+
     private void invalidateCache() {
         cachedCount = null;
     }
@@ -36,18 +73,27 @@ public class CachedJobQueue implements JobQueue {
     @Override
     public boolean insertOrReplace(@NonNull JobHolder jobHolder) {
         invalidateCache();
+        if (fetchedJobIds.remove(jobHolder.getId())) {
+            onJobAdded(jobHolder);
+        } else {
+            // replaces a job we don't know the values of
+            shapes.clear();
+        }
         return delegate.insertOrReplace(jobHolder);
     }
 
     @Override
     public void substitute(@NonNull JobHolder newJob, @NonNull JobHolder oldJob) {
         invalidateCache();
+        onJobRemoved(oldJob);
+        onJobAdded(newJob);
         delegate.substitute(newJob, oldJob);
     }
 
     @Override
     public void remove(@NonNull JobHolder jobHolder) {
         invalidateCache();
+        onJobRemoved(jobHolder);
         delegate.remove(jobHolder);
     }
 
@@ -76,21 +122,65 @@ public class CachedJobQueue implements JobQueue {
         if(isEmpty()) {
             return null;//we know we are empty, no need for querying
         }
+        final ShapeCache shape = constraint.getTimeLimit() == null ? null : getShape(constraint);
+        if (shape != null && shape.hasNoReadyJob(constraint.getNowInNs())) {
+            return null;
+        }
         JobHolder holder = delegate.nextJobAndIncRunCount(constraint);
         if (holder != null && cachedCount != null) {
             cachedCount -= 1;
         }
+        if (holder != null) {
+            onJobRemoved(holder);
+            fetchedJobIds.add(holder.getId());
+        } else if (shape != null) {
+            shape.noReadyJob = true;
+        }
         return holder;
     }
 
+    @NonNull
+    @Override
+    public List<JobHolder> nextJobsAndIncRunCount(@NonNull Constraint constraint, int max) {
+        if (isEmpty() || max <= 0) {
+            return new ArrayList<>(0);
+        }
+        final ShapeCache shape = constraint.getTimeLimit() == null ? null : getShape(constraint);
+        if (shape != null && shape.hasNoReadyJob(constraint.getNowInNs())) {
+            return new ArrayList<>(0);
+        }
+        List<JobHolder> holders = delegate.nextJobsAndIncRunCount(constraint, max);
+        if (cachedCount != null) {
+            cachedCount -= holders.size();
+        }
+        for (JobHolder holder : holders) {
+            onJobRemoved(holder);
+            fetchedJobIds.add(holder.getId());
+        }
+        if (holders.isEmpty() && shape != null) {
+            shape.noReadyJob = true;
+        }
+        return holders;
+    }
+
     @Override
     public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
-        return delegate.getNextJobDelayUntilNs(constraint);
+        final ShapeCache shape = constraint.getTimeLimit() == null ? getShape(constraint) : null;
+        if (shape == null) {
+            return delegate.getNextJobDelayUntilNs(constraint);
+        }
+        if (!shape.hasNextDelay(constraint.getNowInNs())) {
+            shape.nextDelay = delegate.getNextJobDelayUntilNs(constraint);
+            shape.hasNextDelay = true;
+        }
+        return shape.nextDelay;
     }
 
     @Override
     public void clear() {
         invalidateCache();
+        shapes.clear();
+        fetchedJobIds.clear();
         delegate.clear();
     }
 
@@ -103,12 +193,121 @@ public class CachedJobQueue implements JobQueue {
     @Override
     public void onJobCancelled(@NonNull JobHolder holder) {
         invalidateCache();
+        onJobRemoved(holder);
         delegate.onJobCancelled(holder);
     }
 
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
     @Override
     @Nullable
     public JobHolder findJobById(@NonNull String id) {
         return delegate.findJobById(id);
     }
+
+    /**
+     * Returns the cache for the shape of the given constraint or null if the constraint is not
+     * cacheable.
+     */
+    @Nullable
+    private ShapeCache getShape(Constraint constraint) {
+        if (!constraint.excludeRunning() || constraint.getTagConstraint() != null
+                || !constraint.getExcludeJobIds().isEmpty()) {
+            return null;
+        }
+        reusedKey.set(constraint.getMaxNetworkType(), constraint.getExcludeGroups());
+        ShapeCache shape = shapes.get(reusedKey);
+        if (shape == null) {
+            shape = new ShapeCache();
+            shapes.put(reusedKey.copy(), shape);
+        }
+        return shape;
+    }
+
+    /**
+     * A job may become ready or the next one to run. The next delay of a job is never before
+     * the smaller of its delay and deadline so cached next delays before that are still valid.
+     */
+    private void onJobAdded(JobHolder holder) {
+        final long earliest = Math.min(holder.getDelayUntilNs(), holder.getDeadlineNs());
+        for (ShapeCache shape : shapes.values()) {
+            shape.noReadyJob = false;
+            if (shape.hasNextDelay && (shape.nextDelay == null || earliest < shape.nextDelay)) {
+                shape.hasNextDelay = false;
+            }
+        }
+    }
+
+    /**
+     * Removing a job cannot make another one ready but the next delay may have been computed
+     * from it, unless it was running.
+     */
+    private void onJobRemoved(JobHolder holder) {
+        if (fetchedJobIds.remove(holder.getId())) {
+            return;
+        }
+        final long earliest = Math.min(holder.getDelayUntilNs(), holder.getDeadlineNs());
+        for (ShapeCache shape : shapes.values()) {
+            if (shape.hasNextDelay && shape.nextDelay != null && earliest <= shape.nextDelay) {
+                shape.hasNextDelay = false;
+            }
+        }
+    }
+
+    private static class ShapeCache {
+        boolean hasNextDelay;
+        Long nextDelay;
+        boolean noReadyJob;
+
+        boolean hasNextDelay(long nowInNs) {
+            // once its time comes, a job may be counted by an earlier value (e.g. its delay
+            // instead of its deadline) so the cached one is re-computed.
+            return hasNextDelay && (nextDelay == null
+                    || nextDelay == JobManager.NOT_DELAYED_JOB_DELAY || nowInNs < nextDelay);
+        }
+
+        boolean hasNoReadyJob(long nowInNs) {
+            // no job can become ready before the next delay
+            return noReadyJob && hasNextDelay && (nextDelay == null || nowInNs < nextDelay);
+        }
+    }
+
+    private static class ShapeKey {
+        int maxNetworkType;
+        final List<String> excludeGroups = new ArrayList<>();
+
+        void set(int maxNetworkType, List<String> excludeGroups) {
+            this.maxNetworkType = maxNetworkType;
+            this.excludeGroups.clear();
+            this.excludeGroups.addAll(excludeGroups);
+        }
+
+        ShapeKey copy() {
+            ShapeKey copy = new ShapeKey();
+            copy.set(maxNetworkType, excludeGroups);
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ShapeKey shapeKey = (ShapeKey) o;
+            return maxNetworkType == shapeKey.maxNetworkType
+                    && excludeGroups.equals(shapeKey.excludeGroups);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * maxNetworkType + excludeGroups.hashCode();
+        }
+    }
 }
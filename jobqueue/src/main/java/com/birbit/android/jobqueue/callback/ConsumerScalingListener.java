@@ -0,0 +1,31 @@
+package com.birbit.android.jobqueue.callback;
+
+/**
+ * A listener that you can attach to the JobManager via
+ * {@link com.birbit.android.jobqueue.config.Configuration.Builder#consumerScalingListener(ConsumerScalingListener)}
+ * to get notified when adaptive consumer scaling changes the number of consumers JobManager
+ * aims for.
+ * <p>
+ * It is called on JobManager's thread so it should return quickly.
+ *
+ * @see com.birbit.android.jobqueue.config.Configuration.Builder#adaptiveConsumerScaling(long)
+ */
+public interface ConsumerScalingListener {
+    /**
+     * Called when JobManager decides to run a different number of consumers. The measurements
+     * are for the window that led to the decision.
+     * <p>
+     * Consumers are not added or removed right away. New consumers are created if there are
+     * enough Jobs to run and extra consumers quit when they finish their current Job.
+     *
+     * @param previousTarget The number of consumers JobManager aimed for before this decision
+     * @param newTarget The number of consumers JobManager aims for now
+     * @param jobsPerSecond The number of Jobs that completed per second in the window
+     * @param medianRunTimeNs The median time it took to run a Job in the window
+     * @param p90RunTimeNs The 90th percentile of the time it took to run a Job in the window
+     * @param backlog The number of ready Jobs that were waiting for a consumer at the end of
+     *                the window
+     */
+    void onConsumerTargetChanged(int previousTarget, int newTarget, double jobsPerSecond,
+            long medianRunTimeNs, long p90RunTimeNs, int backlog);
+}
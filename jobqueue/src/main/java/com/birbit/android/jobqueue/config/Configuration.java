@@ -8,9 +8,11 @@ import android.support.annotation.Nullable;
 import com.birbit.android.jobqueue.DefaultQueueFactory;
 import com.birbit.android.jobqueue.JobQueue;
 import com.birbit.android.jobqueue.QueueFactory;
+import com.birbit.android.jobqueue.callback.ConsumerScalingListener;
 import com.birbit.android.jobqueue.di.DependencyInjector;
 import com.birbit.android.jobqueue.log.CustomLogger;
 import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.messaging.MessageFactory;
 import com.birbit.android.jobqueue.network.NetworkUtil;
 import com.birbit.android.jobqueue.network.NetworkUtilImpl;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
@@ -18,6 +20,7 @@ import com.birbit.android.jobqueue.scheduling.Scheduler;
 import com.birbit.android.jobqueue.timer.SystemTimer;
 import com.birbit.android.jobqueue.timer.Timer;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -50,6 +53,22 @@ public class Configuration {
      * The default priority for new job consumers ({@code Thread.NORM_PRIORITY}).
      */
     public static final int DEFAULT_THREAD_PRIORITY = Thread.NORM_PRIORITY;
+    /**
+     * Keeps the synchronous setting of the platform. See {@link Builder#sqliteSynchronous(int)}
+     */
+    public static final int SQLITE_SYNCHRONOUS_DEFAULT = -1;
+    /**
+     * {@code PRAGMA synchronous = OFF}. See {@link Builder#sqliteSynchronous(int)}
+     */
+    public static final int SQLITE_SYNCHRONOUS_OFF = 0;
+    /**
+     * {@code PRAGMA synchronous = NORMAL}. See {@link Builder#sqliteSynchronous(int)}
+     */
+    public static final int SQLITE_SYNCHRONOUS_NORMAL = 1;
+    /**
+     * {@code PRAGMA synchronous = FULL}. See {@link Builder#sqliteSynchronous(int)}
+     */
+    public static final int SQLITE_SYNCHRONOUS_FULL = 2;
 
     String id = DEFAULT_ID;
     int maxConsumerCount = MAX_CONSUMER_COUNT;
@@ -65,9 +84,28 @@ public class Configuration {
     Scheduler scheduler;
     boolean inTestMode = false;
     boolean resetDelaysOnRestart = false;
+    boolean inlineJobPayloads = false;
+    boolean sqliteWriteAheadLogging = false;
+    int sqliteSynchronous = SQLITE_SYNCHRONOUS_DEFAULT;
+    int sqliteCacheSizeKb = 0;
+    long sqliteMmapSize = -1;
+    long sqliteGroupCommitWindowMs = 0;
+    boolean sqliteWriteBehind = false;
+    boolean lockFreeMessageQueue = false;
+    boolean batchMessageDrain = false;
+    boolean directJobHandOff = false;
+    int workStealingQueueSize = 0;
+    long adaptiveScalingWindowMs = 0;
+    ConsumerScalingListener consumerScalingListener = null;
+    int messagePoolSize = MessageFactory.DEFAULT_POOL_SIZE;
+    int messagePoolStripes = 1;
     int threadPriority = DEFAULT_THREAD_PRIORITY;
     boolean batchSchedulerRequests = true;
     ThreadFactory threadFactory = null;
+    ExecutorService consumerExecutor = null;
+    int consumerPoolCoreSize = 0;
+    int consumerPoolMaxSize = 0;
+    int consumerPoolQueueSize = 0;
 
     private Configuration(){
         //use builder instead
@@ -136,6 +174,67 @@ public class Configuration {
         return resetDelaysOnRestart;
     }
 
+    public boolean inlineJobPayloads() {
+        return inlineJobPayloads;
+    }
+
+    public boolean sqliteWriteAheadLogging() {
+        return sqliteWriteAheadLogging;
+    }
+
+    public int getSqliteSynchronous() {
+        return sqliteSynchronous;
+    }
+
+    public int getSqliteCacheSizeKb() {
+        return sqliteCacheSizeKb;
+    }
+
+    public long getSqliteMmapSize() {
+        return sqliteMmapSize;
+    }
+
+    public long getSqliteGroupCommitWindowMs() {
+        return sqliteGroupCommitWindowMs;
+    }
+
+    public boolean sqliteWriteBehind() {
+        return sqliteWriteBehind;
+    }
+
+    public boolean lockFreeMessageQueue() {
+        return lockFreeMessageQueue;
+    }
+
+    public boolean batchMessageDrain() {
+        return batchMessageDrain;
+    }
+
+    public boolean directJobHandOff() {
+        return directJobHandOff;
+    }
+
+    public int getWorkStealingQueueSize() {
+        return workStealingQueueSize;
+    }
+
+    public long getAdaptiveScalingWindowMs() {
+        return adaptiveScalingWindowMs;
+    }
+
+    @Nullable
+    public ConsumerScalingListener getConsumerScalingListener() {
+        return consumerScalingListener;
+    }
+
+    public int getMessagePoolSize() {
+        return messagePoolSize;
+    }
+
+    public int getMessagePoolStripes() {
+        return messagePoolStripes;
+    }
+
     @Nullable
     public Scheduler getScheduler() {
         return scheduler;
@@ -150,6 +249,30 @@ public class Configuration {
         return threadFactory;
     }
 
+    @Nullable
+    public ExecutorService getConsumerExecutor() {
+        return consumerExecutor;
+    }
+
+    /**
+     * @return True if consumers run on a thread pool created by JobManager
+     */
+    public boolean hasConsumerThreadPool() {
+        return consumerPoolMaxSize > 0;
+    }
+
+    public int getConsumerPoolCoreSize() {
+        return consumerPoolCoreSize;
+    }
+
+    public int getConsumerPoolMaxSize() {
+        return consumerPoolMaxSize;
+    }
+
+    public int getConsumerPoolQueueSize() {
+        return consumerPoolQueueSize;
+    }
+
     @SuppressWarnings("unused")
     public static final class Builder {
         private Configuration configuration;
@@ -208,10 +331,351 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * By default, {@link SqliteJobQueue} keeps the serialized form of each persistent Job in
+         * its own file and only keeps the Job's metadata in the database. This means every insert
+         * and every load of a persistent Job hits the file system in addition to the database.
+         * <p>
+         * When this option is enabled, serialized Jobs are kept in the database, next to their
+         * metadata, and are written in the same transaction. Existing Jobs that were saved to
+         * files by a previous version are moved into the database the first time the queue is
+         * created with this option.
+         * <p>
+         * This option is only used by {@link SqliteJobQueue}.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder inlineJobPayloads() {
+            configuration.inlineJobPayloads = true;
+            return this;
+        }
+
+        /**
+         * Enables write-ahead logging (WAL) for the database of {@link SqliteJobQueue}.
+         * <p>
+         * By default, the database uses a rollback journal which syncs both the journal and the
+         * database file on every commit. In WAL mode, a commit only appends to the log which is
+         * much cheaper for the small, frequent writes JobManager does (insert, run count update
+         * and delete of each Job). Readers do not block the writer either.
+         * <p>
+         * WAL does not make the database any less safe by itself but it is usually combined with
+         * {@link #sqliteSynchronous(int)} {@link #SQLITE_SYNCHRONOUS_NORMAL} (which is also the
+         * platform default for WAL on most devices). See that method for the durability
+         * trade-off.
+         * <p>
+         * WAL requires API 11, the option is ignored on older devices and for in memory databases.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder sqliteWriteAheadLogging() {
+            configuration.sqliteWriteAheadLogging = true;
+            return this;
+        }
+
+        /**
+         * Sets the {@code synchronous} pragma of the database of {@link SqliteJobQueue}. Defaults
+         * to {@link #SQLITE_SYNCHRONOUS_DEFAULT} which keeps the setting of the platform.
+         * <ul>
+         * <li>{@link #SQLITE_SYNCHRONOUS_FULL}: A committed Job is never lost.</li>
+         * <li>{@link #SQLITE_SYNCHRONOUS_NORMAL}: With {@link #sqliteWriteAheadLogging()}, the
+         * database cannot be corrupted but Jobs committed right before a power loss or an OS
+         * crash may be lost (or may come back after they were removed). An application crash
+         * does not lose any data. Without WAL, a power loss may corrupt the database in rare
+         * cases.</li>
+         * <li>{@link #SQLITE_SYNCHRONOUS_OFF}: The database is never synced, a power loss or an
+         * OS crash may corrupt the database, in which case all persistent Jobs are lost.</li>
+         * </ul>
+         *
+         * @param synchronous One of {@link #SQLITE_SYNCHRONOUS_DEFAULT},
+         *                    {@link #SQLITE_SYNCHRONOUS_OFF}, {@link #SQLITE_SYNCHRONOUS_NORMAL} or
+         *                    {@link #SQLITE_SYNCHRONOUS_FULL}
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder sqliteSynchronous(int synchronous) {
+            if (synchronous < SQLITE_SYNCHRONOUS_DEFAULT || synchronous > SQLITE_SYNCHRONOUS_FULL) {
+                throw new IllegalArgumentException("unknown synchronous value " + synchronous);
+            }
+            configuration.sqliteSynchronous = synchronous;
+            return this;
+        }
+
+        /**
+         * Sets the page cache size of the database of {@link SqliteJobQueue}, in kilobytes. A
+         * bigger cache avoids reading the job table and its indices from the disk while looking
+         * for the next job when there are many jobs in the queue. Defaults to 0 which keeps the
+         * setting of the platform.
+         *
+         * @param kilobytes The cache size in kilobytes
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder sqliteCacheSizeKb(int kilobytes) {
+            if (kilobytes < 0) {
+                throw new IllegalArgumentException("cache size cannot be negative");
+            }
+            configuration.sqliteCacheSizeKb = kilobytes;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of bytes of the database file of {@link SqliteJobQueue} that can
+         * be accessed via memory mapped I/O. Pass 0 to disable it. Defaults to -1 which keeps the
+         * setting of the platform.
+         * <p>
+         * Memory mapped I/O is only available on devices that ship SQLite 3.7.17 or newer, the
+         * value is ignored by older versions.
+         *
+         * @param bytes The maximum number of bytes to map
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder sqliteMmapSize(long bytes) {
+            configuration.sqliteMmapSize = bytes < 0 ? -1 : bytes;
+            return this;
+        }
+
+        /**
+         * Enables group commit for the database of {@link SqliteJobQueue}.
+         * <p>
+         * By default, every state change of a persistent Job is committed on its own: marking it
+         * as running when it is fetched, re-inserting it when it fails and deleting it when it
+         * is finished. When group commit is enabled, these changes are kept in a single open
+         * transaction and committed together when JobManager has no more messages to process or
+         * when the oldest change is older than the given window, whichever comes first.
+         * <p>
+         * New Jobs are never deferred. Adding a Job commits the pending changes and the Job
+         * right away, so a Job reported as added is never lost.
+         * <p>
+         * If the application process dies before the pending changes are committed, they are
+         * rolled back. After a restart, finished Jobs whose delete was not committed run again,
+         * and the run count of Jobs fetched during that window is not incremented. Jobs are
+         * therefore run <b>at least once</b>, so they should be idempotent when this option is
+         * enabled.
+         *
+         * @param windowMs The maximum time a state change can stay uncommitted while JobManager
+         *                 is busy, in milliseconds. 0 disables group commit.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder sqliteGroupCommit(long windowMs) {
+            if (windowMs < 0) {
+                throw new IllegalArgumentException("group commit window cannot be negative");
+            }
+            configuration.sqliteGroupCommitWindowMs = windowMs;
+            return this;
+        }
+
+        /**
+         * Makes the default persistent queue keep all persistent Jobs in memory and write to the
+         * database in the background, using a
+         * {@link com.birbit.android.jobqueue.persistentQueue.sqlite.WriteBehindJobQueue}.
+         * <p>
+         * By default, every query JobManager makes (finding the next Job, counting ready Jobs,
+         * finding the next wake up time, getting the status of a Job) runs against the database.
+         * When this option is enabled, the metadata of all persistent Jobs is loaded when the
+         * queue is created and the queries are answered from memory. Serialized Jobs are still
+         * loaded from the database when they are first needed.
+         * <p>
+         * Changes are written to the database on a separate thread, in the order they are made.
+         * If the application process dies before they are written, they are lost: a Job that was
+         * reported as added may not exist after a restart and a finished Job may run again.
+         * <p>
+         * This option is only used by {@link com.birbit.android.jobqueue.DefaultQueueFactory}.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder sqliteWriteBehind() {
+            configuration.sqliteWriteBehind = true;
+            return this;
+        }
+
+        /**
+         * Makes JobManager use a {@link com.birbit.android.jobqueue.messaging.LockFreeMessageQueue}
+         * for the messages of its own thread.
+         * <p>
+         * By default, every thread that talks to JobManager (the threads that add Jobs, the
+         * consumers reporting results or going idle) takes the same lock to post its message and
+         * wakes JobManager's thread up, even when it is busy. With this option, messages are
+         * posted without a lock and JobManager's thread is only woken up when it is waiting for
+         * messages. This helps when many threads add Jobs at the same time or when there are many
+         * consumers.
+         * <p>
+         * Messages are processed in the same order either way.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder lockFreeMessageQueue() {
+            configuration.lockFreeMessageQueue = true;
+            return this;
+        }
+
+        /**
+         * Makes JobManager's thread and the consumers take all messages posted to them at once.
+         * <p>
+         * By default, a thread that processes messages takes the lock of its message queue once
+         * per message. With this option, it takes every waiting message with one lock acquisition
+         * and processes them without taking the lock again until a message that must go first is
+         * posted. This helps when many messages are posted in bursts, e.g. when many Jobs are
+         * added at once.
+         * <p>
+         * Messages are processed in the same order either way. The
+         * {@link #lockFreeMessageQueue() lock free message queue} already takes all messages at
+         * once so this option only affects the consumers when it is used.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder batchMessageDrain() {
+            configuration.batchMessageDrain = true;
+            return this;
+        }
+
+        /**
+         * Makes JobManager hand Jobs to idle consumers directly instead of sending them messages.
+         * <p>
+         * By default, a consumer that finishes a Job posts its result and then an idle message to
+         * JobManager, which replies with the next Job on the consumer's own message queue. With
+         * this option, idle consumers wait on a queue shared by all consumers and JobManager puts
+         * the next Jobs there as soon as it handles the result, so a Job is dispatched with two
+         * thread hand-offs instead of four.
+         * <p>
+         * Jobs are picked in the same order and the consumer count follows the same rules either
+         * way.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder directJobHandOff() {
+            configuration.directJobHandOff = true;
+            return this;
+        }
+
+        /**
+         * Makes JobManager queue Jobs for each consumer ahead of time so that consumers do not wait
+         * for JobManager between Jobs. Useful when many short Jobs are added, since picking Jobs
+         * one at a time on JobManager's thread becomes the bottleneck.
+         * <p>
+         * JobManager picks ready Jobs in batches and pushes them into a queue per consumer, up to
+         * {@code queueSize} Jobs each. A consumer runs the Jobs in its own queue first and takes
+         * Jobs from the queues of other consumers when it runs out, before it asks JobManager.
+         * Jobs in the same group still run one at a time and in order since a batch has at most
+         * one Job per group. Queued Jobs are considered running, e.g. by cancel requests, and are
+         * put back into the job queue when JobManager is stopped.
+         * <p>
+         * Enables {@link #directJobHandOff()}.
+         *
+         * @param queueSize The maximum number of Jobs JobManager queues for each consumer
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder workStealing(int queueSize) {
+            if (queueSize < 1) {
+                throw new IllegalArgumentException("queue size must be at least 1");
+            }
+            configuration.directJobHandOff = true;
+            configuration.workStealingQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Makes JobManager pick the number of consumers between {@link #minConsumerCount(int)} and
+         * {@link #maxConsumerCount(int)} by measuring how many Jobs complete per second, instead
+         * of always allowing up to the max consumer count. Useful when the Jobs are sometimes
+         * CPU bound and sometimes wait for I/O, since the right number of consumers differs.
+         * <p>
+         * JobManager starts at the max consumer count and adds or removes one consumer at a time.
+         * It measures the throughput in windows of {@code windowMs} and keeps a change if it
+         * completes more Jobs per second or, when removing a consumer, about the same number.
+         * Otherwise the change is undone and the count is kept for a while before it is tried
+         * again. Only windows in which every consumer had a Job waiting are measured. The load
+         * factor still decides whether there are enough Jobs for another consumer.
+         * <p>
+         * Extra consumers quit when they finish their current Job. In {@link #workStealing(int)}
+         * mode, they quit once the Jobs queued for the consumers are done.
+         *
+         * @param windowMs How long to measure the throughput before each decision. It should be
+         *                 long enough for several Jobs to complete.
+         *
+         * @return This Configuration for easy chaining
+         *
+         * @see #consumerScalingListener(ConsumerScalingListener)
+         */
+        @NonNull
+        public Builder adaptiveConsumerScaling(long windowMs) {
+            if (windowMs < 1) {
+                throw new IllegalArgumentException("window must be at least 1ms");
+            }
+            configuration.adaptiveScalingWindowMs = windowMs;
+            return this;
+        }
+
+        /**
+         * Sets a listener that is notified when {@link #adaptiveConsumerScaling(long)} changes the
+         * number of consumers JobManager aims for.
+         *
+         * @param listener The listener to be notified or null to remove it
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder consumerScalingListener(@Nullable ConsumerScalingListener listener) {
+            configuration.consumerScalingListener = listener;
+            return this;
+        }
+
+        /**
+         * Sets how many messages of each type JobManager keeps for reuse in each stripe of its
+         * {@link MessageFactory}. Defaults to {@link MessageFactory#DEFAULT_POOL_SIZE}. A bigger
+         * pool avoids allocating messages when many Jobs are added in bursts.
+         *
+         * @param size The number of messages of each type kept in each stripe
+         *
+         * @return This Configuration for easy chaining
+         * @see #messagePoolStripes(int)
+         */
+        @NonNull
+        public Builder messagePoolSize(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("pool size cannot be negative");
+            }
+            configuration.messagePoolSize = size;
+            return this;
+        }
+
+        /**
+         * Splits the pool of messages JobManager reuses into the given number of stripes, each
+         * with its own lock. Each thread takes messages from its own stripe first so that many
+         * threads adding Jobs or many consumers do not wait for each other to get a message.
+         * Defaults to 1. The number is rounded up to a power of two.
+         *
+         * @param stripes The number of stripes
+         *
+         * @return This Configuration for easy chaining
+         * @see #messagePoolSize(int)
+         */
+        @NonNull
+        public Builder messagePoolStripes(int stripes) {
+            if (stripes < 1) {
+                throw new IllegalArgumentException("there should be at least one stripe");
+            }
+            configuration.messagePoolStripes = stripes;
+            return this;
+        }
+
         /**
          * JobManager needs one persistent and one non-persistent {@link JobQueue} to function.
          * By default, it will use {@link SqliteJobQueue} and
-         * {@link com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue}
+         * {@link com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue}
          * You can provide your own implementation if they don't fit your needs. Make sure it passes all tests in
          * {@code JobQueueTestBase} to ensure it will work fine.
          * @param queueFactory your custom queue factory.
@@ -443,6 +907,67 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * Runs consumers on the given {@link ExecutorService} instead of creating a new
+         * {@link Thread} for each of them. The same executor can be shared by several
+         * JobManagers.
+         * <p>
+         * A consumer keeps its thread while it runs Jobs and while it waits for new ones, until it
+         * is stopped because of the {@link #consumerKeepAlive(int) keep alive} timeout. The load
+         * factor, min and max consumer counts apply as usual so the executor should be able to run
+         * at least {@link #maxConsumerCount(int) max consumer count} tasks at the same time (for
+         * each JobManager that shares it). A consumer that waits in the queue of the executor
+         * does not run Jobs until it gets a thread. If the executor rejects a consumer, it is
+         * dropped and JobManager tries again when it needs more consumers.
+         * <p>
+         * JobManager does not shut the executor down. If both this and
+         * {@link #consumerThreadPool(int, int, int)} are set, this executor is used.
+         *
+         * @param executor The executor that runs the consumers, or null to create a thread for
+         *                 each consumer
+         *
+         * @return This Configuration.Builder for easy chaining
+         */
+        @NonNull
+        public Builder consumerExecutor(@Nullable ExecutorService executor) {
+            configuration.consumerExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Runs consumers on a thread pool that JobManager creates, so that threads are reused
+         * when Jobs arrive in bursts instead of being created for each new consumer.
+         * <p>
+         * The threads of the pool are created with the {@link #threadFactory(ThreadFactory)
+         * thread factory} if there is one. Idle threads, including core ones, are stopped after
+         * the {@link #consumerKeepAlive(int) keep alive} timeout. See
+         * {@link #consumerExecutor(ExecutorService)} for how consumers use the threads; in
+         * particular, maxSize should not be smaller than the
+         * {@link #maxConsumerCount(int) max consumer count}.
+         *
+         * @param coreSize The number of threads the pool keeps before it starts queueing
+         *                 consumers
+         * @param maxSize The maximum number of threads of the pool
+         * @param queueSize How many consumers can wait for a thread once coreSize threads are
+         *                  busy. If 0, new threads are created up to maxSize instead.
+         *
+         * @return This Configuration.Builder for easy chaining
+         */
+        @NonNull
+        public Builder consumerThreadPool(int coreSize, int maxSize, int queueSize) {
+            if (coreSize < 0 || queueSize < 0) {
+                throw new IllegalArgumentException("core size and queue size cannot be negative");
+            }
+            if (maxSize < 1 || maxSize < coreSize) {
+                throw new IllegalArgumentException("max size should be at least 1 and not less"
+                        + " than the core size");
+            }
+            configuration.consumerPoolCoreSize = coreSize;
+            configuration.consumerPoolMaxSize = maxSize;
+            configuration.consumerPoolQueueSize = queueSize;
+            return this;
+        }
+
         @NonNull
         public Configuration build() {
             if(configuration.queueFactory == null) {
@@ -0,0 +1,42 @@
+package com.birbit.android.jobqueue.inMemoryQueue;
+
+import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.JobHolder;
+
+/**
+ * Decides whether a job in one of the in memory queues matches a {@link Constraint}.
+ */
+class ConstraintMatcher {
+    private ConstraintMatcher() {
+    }
+
+    /**
+     * @param acceptAnyDeadline If true, jobs with a deadline are accepted regardless of the
+     *                          network type they require, as if their deadline was hit.
+     */
+    static boolean matches(JobHolder holder, Constraint constraint, boolean acceptAnyDeadline) {
+        boolean hitDeadline = constraint.getNowInNs() >= holder.getDeadlineNs()
+                || (acceptAnyDeadline && holder.hasDeadline());
+        if (!hitDeadline) {
+            if (constraint.getMaxNetworkType() < holder.getRequiredNetworkType()) {
+                return false;
+            }
+        }
+        if (constraint.getTimeLimit() != null && holder.getDelayUntilNs() > constraint.getTimeLimit()) {
+            return false;
+        }
+        if (holder.getGroupId() != null && constraint.getExcludeGroups().contains(holder.getGroupId())) {
+            return false;
+        }
+        if (constraint.getExcludeJobIds().contains(holder.getId())) {
+            return false;
+        }
+        //noinspection RedundantIfStatement
+        if (constraint.getTagConstraint() != null &&
+                (holder.getTags() == null || constraint.getTags().isEmpty() ||
+                        !constraint.getTagConstraint().matches(constraint.getTags(), holder.getTags()))) {
+            return false;
+        }
+        return true;
+    }
+}
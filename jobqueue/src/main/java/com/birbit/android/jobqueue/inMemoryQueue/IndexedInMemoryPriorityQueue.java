@@ -0,0 +1,607 @@
+package com.birbit.android.jobqueue.inMemoryQueue;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.ReadyJobCounter;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in memory {@link JobQueue} that keeps its jobs in several indices so that finding the next
+ * job, counting ready jobs and finding the next wake up time do not visit every job in the queue.
+ * <ul>
+ *     <li>Jobs whose delay has not passed are kept in a set ordered by delay. They are moved to
+ *     the ready sets when a query is made with a time limit after their delay.</li>
+ *     <li>Ready jobs are kept in one set per required network type. Grouped jobs are represented
+ *     by the first job of their group so jobs of the groups that are excluded from a query
+ *     (because one of their jobs is running) are skipped without being visited.</li>
+ *     <li>Jobs with a delay are also kept in a set ordered by delay per network type and jobs
+ *     with a deadline are kept in a set ordered by deadline to find the next wake up time.</li>
+ *     <li>Jobs are indexed by tag for queries by tag.</li>
+ *     <li>Ready jobs are counted by a {@link ReadyJobCounter}.</li>
+ * </ul>
+ * Behaves the same as {@link SimpleInMemoryPriorityQueue}.
+ */
+public class IndexedInMemoryPriorityQueue implements JobQueue {
+    private static final int NETWORK_TYPE_COUNT = NetworkUtil.UNMETERED + 1;
+
+    private static final Comparator<Entry> PRIORITY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            if (entry1 == entry2) {
+                return 0;
+            }
+            // higher priority first
+            int cmp = compareLong(entry2.priority, entry1.priority);
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = compareLong(entry1.createdNs, entry2.createdNs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = compareLong(entry1.insertionOrder, entry2.insertionOrder);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return entry1.id.compareTo(entry2.id);
+        }
+    };
+
+    private static final Comparator<Entry> DELAY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            if (entry1 == entry2) {
+                return 0;
+            }
+            int cmp = compareLong(entry1.delayUntilNs, entry2.delayUntilNs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = compareLong(entry1.insertionOrder, entry2.insertionOrder);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return entry1.id.compareTo(entry2.id);
+        }
+    };
+
+    private static final Comparator<Entry> DEADLINE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            if (entry1 == entry2) {
+                return 0;
+            }
+            int cmp = compareLong(entry1.deadlineNs, entry2.deadlineNs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = compareLong(entry1.insertionOrder, entry2.insertionOrder);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return entry1.id.compareTo(entry2.id);
+        }
+    };
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    // jobs whose delay is after readyUntilNs
+    private final TreeSet<Entry> delayed = new TreeSet<>(DELAY_COMPARATOR);
+    private final NetworkIndex[] networkIndices = new NetworkIndex[NETWORK_TYPE_COUNT];
+    private final TreeSet<Entry> withDeadline = new TreeSet<>(DEADLINE_COMPARATOR);
+    private final Map<String, Set<Entry>> tagIndex = new HashMap<>();
+    private final ReadyJobCounter readyJobCounter = new ReadyJobCounter();
+    // the largest time limit jobs were moved to the ready sets for
+    private long readyUntilNs = JobManager.NOT_DELAYED_JOB_DELAY;
+
+    private final AtomicLong insertionOrderCounter = new AtomicLong(0);
+    private final Set<String> reusedGroupSet = new HashSet<>();
+    private final long sessionId;
+
+    public IndexedInMemoryPriorityQueue(
+            @SuppressWarnings("UnusedParameters") Configuration configuration, long sessionId) {
+        this.sessionId = sessionId;
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            networkIndices[i] = new NetworkIndex();
+        }
+    }
+
+    @Override
+    public boolean insert(@NonNull JobHolder jobHolder) {
+        if (entries.containsKey(jobHolder.getId())) {
+            throw new IllegalArgumentException("cannot add a job with the same id twice");
+        }
+        jobHolder.setInsertionOrder(insertionOrderCounter.incrementAndGet());
+        add(jobHolder);
+        return true;
+    }
+
+    @Override
+    public boolean insertAll(@NonNull List<JobHolder> jobHolders) {
+        boolean result = true;
+        for (JobHolder jobHolder : jobHolders) {
+            result &= insert(jobHolder);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean insertOrReplace(@NonNull JobHolder jobHolder) {
+        if (jobHolder.getInsertionOrder() == null) {
+            return insert(jobHolder);
+        }
+        Entry existing = entries.get(jobHolder.getId());
+        if (existing != null) {
+            removeEntry(existing);
+        }
+        add(jobHolder);
+        return true;
+    }
+
+    @Override
+    public void substitute(@NonNull JobHolder newJob, @NonNull JobHolder oldJob) {
+        remove(oldJob);
+        insert(newJob);
+    }
+
+    @Override
+    public void remove(@NonNull JobHolder jobHolder) {
+        Entry entry = entries.get(jobHolder.getId());
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public int count() {
+        return entries.size();
+    }
+
+    @Override
+    public int countReadyJobs(@NonNull Constraint constraint) {
+        final int count = readyJobCounter.count(constraint);
+        return count == ReadyJobCounter.UNKNOWN ? countMatchingJobs(constraint) : count;
+    }
+
+    private int countMatchingJobs(Constraint constraint) {
+        int count = 0;
+        reusedGroupSet.clear();
+        for (Entry entry : entries.values()) {
+            if (ConstraintMatcher.matches(entry.holder, constraint, false)
+                    && (entry.groupId == null || reusedGroupSet.add(entry.groupId))) {
+                count++;
+            }
+        }
+        reusedGroupSet.clear();
+        return count;
+    }
+
+    @Override
+    public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
+        return nextJobAndIncRunCount(constraint, Collections.<String>emptySet());
+    }
+
+    /**
+     * Same as {@link #nextJobAndIncRunCount(Constraint)} but the jobs of the given groups are
+     * excluded as well.
+     */
+    private JobHolder nextJobAndIncRunCount(Constraint constraint, Set<String> claimedGroups) {
+        moveToReady(constraint.getTimeLimit());
+        final int maxNetworkType = maxNetworkType(constraint);
+        Entry next = null;
+        for (int i = 0; i <= maxNetworkType; i++) {
+            next = first(next, networkIndices[i].findFirst(constraint, false, claimedGroups));
+        }
+        // jobs that hit their deadline can run regardless of the network
+        for (Entry entry : withDeadline) {
+            if (entry.deadlineNs > constraint.getNowInNs()) {
+                break;
+            }
+            if (entry.networkType > maxNetworkType && isReady(entry)
+                    && !isClaimed(entry, claimedGroups)
+                    && ConstraintMatcher.matches(entry.holder, constraint, false)) {
+                next = first(next, entry);
+            }
+        }
+        if (constraint.getTimeLimit() == null) {
+            for (Entry entry : delayed) {
+                if (!isClaimed(entry, claimedGroups)
+                        && ConstraintMatcher.matches(entry.holder, constraint, false)) {
+                    next = first(next, entry);
+                }
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        removeEntry(next);
+        JobHolder holder = next.holder;
+        holder.setRunCount(holder.getRunCount() + 1);
+        holder.setRunningSessionId(sessionId);
+        return holder;
+    }
+
+    @NonNull
+    @Override
+    public List<JobHolder> nextJobsAndIncRunCount(@NonNull Constraint constraint, int max) {
+        List<JobHolder> result = new ArrayList<>(Math.max(max, 0));
+        // the groups of the claimed jobs are excluded for the rest of the query
+        final Set<String> claimedGroups = new HashSet<>();
+        while (result.size() < max) {
+            JobHolder holder = nextJobAndIncRunCount(constraint, claimedGroups);
+            if (holder == null) {
+                break;
+            }
+            result.add(holder);
+            if (holder.getGroupId() != null) {
+                claimedGroups.add(holder.getGroupId());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
+        final int maxNetworkType = maxNetworkType(constraint);
+        // a job w/o a delay or deadline is the earliest possible result
+        for (int i = 0; i <= maxNetworkType; i++) {
+            if (networkIndices[i].findFirst(constraint, true, Collections.<String>emptySet())
+                    != null) {
+                return JobManager.NOT_DELAYED_JOB_DELAY;
+            }
+        }
+        Long minDelay = null;
+        for (int i = 0; i <= maxNetworkType; i++) {
+            for (Entry entry : networkIndices[i].withDelay) {
+                if (minDelay != null && entry.delayUntilNs >= minDelay) {
+                    break;
+                }
+                minDelay = minDelay(minDelay, entry.holder, constraint);
+            }
+        }
+        for (Entry entry : withDeadline) {
+            // network is ignored for jobs that hit their deadline so their delay may count too
+            if (minDelay != null && entry.deadlineNs >= minDelay
+                    && entry.deadlineNs > constraint.getNowInNs()) {
+                break;
+            }
+            minDelay = minDelay(minDelay, entry.holder, constraint);
+        }
+        return minDelay;
+    }
+
+    private static Long minDelay(Long minDelay, JobHolder holder, Constraint constraint) {
+        if (!ConstraintMatcher.matches(holder, constraint, true)) {
+            return minDelay;
+        }
+        final boolean hasDelay = holder.hasDelay()
+                && ConstraintMatcher.matches(holder, constraint, false);
+        final boolean hasDeadline = holder.hasDeadline();
+        final long delay;
+        if (hasDeadline == hasDelay) {
+            delay = Math.min(holder.getDeadlineNs(), holder.getDelayUntilNs());
+        } else if (hasDeadline) {
+            delay = holder.getDeadlineNs();
+        } else {
+            delay = holder.getDelayUntilNs();
+        }
+        return minDelay == null || delay < minDelay ? delay : minDelay;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        delayed.clear();
+        for (NetworkIndex networkIndex : networkIndices) {
+            networkIndex.clear();
+        }
+        withDeadline.clear();
+        tagIndex.clear();
+        readyJobCounter.clear();
+        readyUntilNs = JobManager.NOT_DELAYED_JOB_DELAY;
+    }
+
+    @Override
+    public JobHolder findJobById(@NonNull String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.holder;
+    }
+
+    @NonNull
+    @Override
+    public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
+        Set<JobHolder> result = new HashSet<>();
+        final TagConstraint tagConstraint = constraint.getTagConstraint();
+        if (tagConstraint == null) {
+            addMatching(result, entries.values(), constraint);
+        } else if (tagConstraint == TagConstraint.ANY) {
+            for (String tag : constraint.getTags()) {
+                Set<Entry> tagged = tagIndex.get(tag);
+                if (tagged != null) {
+                    addMatching(result, tagged, constraint);
+                }
+            }
+        } else {
+            // only the jobs with the least common tag need to be checked
+            Set<Entry> smallest = null;
+            for (String tag : constraint.getTags()) {
+                Set<Entry> tagged = tagIndex.get(tag);
+                if (tagged == null) {
+                    return result;
+                }
+                if (smallest == null || tagged.size() < smallest.size()) {
+                    smallest = tagged;
+                }
+            }
+            if (smallest != null) {
+                addMatching(result, smallest, constraint);
+            }
+        }
+        return result;
+    }
+
+    private static void addMatching(Set<JobHolder> result, Collection<Entry> candidates,
+            Constraint constraint) {
+        for (Entry entry : candidates) {
+            if (ConstraintMatcher.matches(entry.holder, constraint, false)) {
+                result.add(entry.holder);
+            }
+        }
+    }
+
+    @Override
+    public void onJobCancelled(JobHolder holder) {
+        remove(holder);
+    }
+
+    @Override
+    public void flush() {
+        // nothing is deferred
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private void add(JobHolder holder) {
+        Entry entry = new Entry(holder);
+        entries.put(entry.id, entry);
+        if (isReady(entry)) {
+            networkIndices[entry.networkType].addReady(entry);
+        } else {
+            delayed.add(entry);
+        }
+        readyJobCounter.add(entry.id, entry.groupId, entry.networkType, entry.delayUntilNs,
+                entry.deadlineNs);
+        if (holder.hasDelay()) {
+            networkIndices[entry.networkType].withDelay.add(entry);
+        }
+        if (holder.hasDeadline()) {
+            withDeadline.add(entry);
+        }
+        final Set<String> tags = holder.getTags();
+        if (tags != null) {
+            for (String tag : tags) {
+                Set<Entry> tagged = tagIndex.get(tag);
+                if (tagged == null) {
+                    tagged = new HashSet<>();
+                    tagIndex.put(tag, tagged);
+                }
+                tagged.add(entry);
+            }
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        entries.remove(entry.id);
+        if (isReady(entry)) {
+            networkIndices[entry.networkType].removeReady(entry);
+        } else {
+            delayed.remove(entry);
+        }
+        readyJobCounter.remove(entry.id);
+        networkIndices[entry.networkType].withDelay.remove(entry);
+        withDeadline.remove(entry);
+        final Set<String> tags = entry.holder.getTags();
+        if (tags != null) {
+            for (String tag : tags) {
+                Set<Entry> tagged = tagIndex.get(tag);
+                if (tagged != null && tagged.remove(entry) && tagged.isEmpty()) {
+                    tagIndex.remove(tag);
+                }
+            }
+        }
+    }
+
+    private boolean isReady(Entry entry) {
+        return entry.delayUntilNs <= readyUntilNs;
+    }
+
+    /**
+     * Moves the jobs whose delay is before the given time limit to the ready sets.
+     */
+    private void moveToReady(Long timeLimit) {
+        if (timeLimit == null || timeLimit <= readyUntilNs) {
+            return;
+        }
+        readyUntilNs = timeLimit;
+        while (!delayed.isEmpty() && delayed.first().delayUntilNs <= readyUntilNs) {
+            final Entry entry = delayed.pollFirst();
+            networkIndices[entry.networkType].addReady(entry);
+        }
+    }
+
+    private static int maxNetworkType(Constraint constraint) {
+        return Math.max(0, Math.min(NETWORK_TYPE_COUNT - 1, constraint.getMaxNetworkType()));
+    }
+
+    private static Entry first(Entry entry1, Entry entry2) {
+        if (entry1 == null) {
+            return entry2;
+        }
+        if (entry2 == null) {
+            return entry1;
+        }
+        return PRIORITY_COMPARATOR.compare(entry1, entry2) <= 0 ? entry1 : entry2;
+    }
+
+    private static int compareLong(long l1, long l2) {
+        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+
+    private static boolean isClaimed(Entry entry, Set<String> claimedGroups) {
+        return entry.groupId != null && claimedGroups.contains(entry.groupId);
+    }
+
+    /**
+     * The values a job is indexed by. They are copied when the job is inserted so that the job
+     * can be found in the indices even if the holder is modified while it is in the queue.
+     */
+    private static class Entry {
+        final JobHolder holder;
+        final String id;
+        final String groupId;
+        final int priority;
+        final long createdNs;
+        final long insertionOrder;
+        final long delayUntilNs;
+        final long deadlineNs;
+        final int networkType;
+
+        Entry(JobHolder holder) {
+            this.holder = holder;
+            id = holder.getId();
+            groupId = holder.getGroupId();
+            priority = holder.getPriority();
+            createdNs = holder.getCreatedNs();
+            //noinspection ConstantConditions
+            insertionOrder = holder.getInsertionOrder();
+            delayUntilNs = holder.getDelayUntilNs();
+            deadlineNs = holder.getDeadlineNs();
+            networkType = Math.max(0, Math.min(NETWORK_TYPE_COUNT - 1,
+                    holder.getRequiredNetworkType()));
+        }
+    }
+
+    /**
+     * Ready jobs that require the same network type.
+     */
+    private static class NetworkIndex {
+        final TreeSet<Entry> ungrouped = new TreeSet<>(PRIORITY_COMPARATOR);
+        final Map<String, TreeSet<Entry>> groups = new HashMap<>();
+        // the first job of each group in groups
+        final TreeSet<Entry> groupHeads = new TreeSet<>(PRIORITY_COMPARATOR);
+        // all jobs that have a delay, not only the ready ones
+        final TreeSet<Entry> withDelay = new TreeSet<>(DELAY_COMPARATOR);
+
+        void addReady(Entry entry) {
+            if (entry.groupId == null) {
+                ungrouped.add(entry);
+                return;
+            }
+            TreeSet<Entry> group = groups.get(entry.groupId);
+            if (group == null) {
+                group = new TreeSet<>(PRIORITY_COMPARATOR);
+                groups.put(entry.groupId, group);
+            }
+            final Entry head = group.isEmpty() ? null : group.first();
+            group.add(entry);
+            if (head == null || PRIORITY_COMPARATOR.compare(entry, head) < 0) {
+                if (head != null) {
+                    groupHeads.remove(head);
+                }
+                groupHeads.add(entry);
+            }
+        }
+
+        void removeReady(Entry entry) {
+            if (entry.groupId == null) {
+                ungrouped.remove(entry);
+                return;
+            }
+            TreeSet<Entry> group = groups.get(entry.groupId);
+            if (group == null || !group.remove(entry)) {
+                return;
+            }
+            if (groupHeads.remove(entry)) {
+                if (group.isEmpty()) {
+                    groups.remove(entry.groupId);
+                } else {
+                    groupHeads.add(group.first());
+                }
+            }
+        }
+
+        /**
+         * Finds the ready job with the highest priority that matches the constraint.
+         *
+         * @param withoutDelayOrDeadline If true, only jobs that have neither a delay nor a
+         *                               deadline are accepted
+         * @param claimedGroups Groups to exclude in addition to the ones of the constraint
+         */
+        Entry findFirst(Constraint constraint, boolean withoutDelayOrDeadline,
+                Set<String> claimedGroups) {
+            Entry result = null;
+            for (Entry entry : ungrouped) {
+                if (accept(entry, constraint, withoutDelayOrDeadline)) {
+                    result = entry;
+                    break;
+                }
+            }
+            final List<String> excludeGroups = constraint.getExcludeGroups();
+            for (Entry head : groupHeads) {
+                if (result != null && PRIORITY_COMPARATOR.compare(head, result) >= 0) {
+                    break;
+                }
+                if (claimedGroups.contains(head.groupId)
+                        || excludeGroups.contains(head.groupId)) {
+                    continue;
+                }
+                for (Entry entry : groups.get(head.groupId)) {
+                    if (result != null && PRIORITY_COMPARATOR.compare(entry, result) >= 0) {
+                        break;
+                    }
+                    if (accept(entry, constraint, withoutDelayOrDeadline)) {
+                        result = entry;
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static boolean accept(Entry entry, Constraint constraint,
+                boolean withoutDelayOrDeadline) {
+            if (withoutDelayOrDeadline
+                    && (entry.holder.hasDelay() || entry.holder.hasDeadline())) {
+                return false;
+            }
+            return ConstraintMatcher.matches(entry.holder, constraint, false);
+        }
+
+        void clear() {
+            ungrouped.clear();
+            groups.clear();
+            groupHeads.clear();
+            withDelay.clear();
+        }
+    }
+}
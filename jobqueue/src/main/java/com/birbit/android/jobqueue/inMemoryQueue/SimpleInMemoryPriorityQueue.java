@@ -84,6 +84,15 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         return true;
     }
 
+    @Override
+    public boolean insertAll(@NonNull List<JobHolder> jobHolders) {
+        boolean result = true;
+        for (JobHolder jobHolder : jobHolders) {
+            result &= insert(jobHolder);
+        }
+        return result;
+    }
+
     @Override
     public boolean insertOrReplace(@NonNull JobHolder jobHolder) {
         if (jobHolder.getInsertionOrder() == null) {
@@ -121,7 +130,8 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         reusedList.clear();
         for (JobHolder holder : jobs) {
             String groupId = holder.getGroupId();
-            if ((groupId == null || !reusedList.contains(groupId)) && matches(holder, constraint, false)) {
+            if ((groupId == null || !reusedList.contains(groupId))
+                    && ConstraintMatcher.matches(holder, constraint, false)) {
                 count++;
                 if (groupId != null) {
                     reusedList.add(groupId);
@@ -135,7 +145,7 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
     @Override
     public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
         for (JobHolder holder : jobs) {
-            if (matches(holder, constraint, false)) {
+            if (ConstraintMatcher.matches(holder, constraint, false)) {
                 remove(holder);
                 holder.setRunCount(holder.getRunCount() + 1);
                 holder.setRunningSessionId(sessionId);
@@ -145,12 +155,44 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         return null;
     }
 
+    @NonNull
+    @Override
+    public List<JobHolder> nextJobsAndIncRunCount(@NonNull Constraint constraint, int max) {
+        List<JobHolder> result = new ArrayList<>(Math.max(max, 0));
+        Set<String> groups = null;
+        for (JobHolder holder : jobs) {
+            if (result.size() >= max) {
+                break;
+            }
+            if (!ConstraintMatcher.matches(holder, constraint, false)) {
+                continue;
+            }
+            final String groupId = holder.getGroupId();
+            if (groupId != null) {
+                if (groups == null) {
+                    groups = new HashSet<>();
+                }
+                if (!groups.add(groupId)) {
+                    continue;
+                }
+            }
+            result.add(holder);
+        }
+        for (JobHolder holder : result) {
+            remove(holder);
+            holder.setRunCount(holder.getRunCount() + 1);
+            holder.setRunningSessionId(sessionId);
+        }
+        return result;
+    }
+
     @Override
     public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
         Long minDelay = null;
         for (JobHolder holder : jobs) {
-            if (matches(holder, constraint, true)) {
-                final boolean hasDelay = holder.hasDelay() && matches(holder, constraint, false);
+            if (ConstraintMatcher.matches(holder, constraint, true)) {
+                final boolean hasDelay = holder.hasDelay()
+                        && ConstraintMatcher.matches(holder, constraint, false);
                 final boolean hasDeadline = holder.hasDeadline();
                 final long delay;
                 if (hasDeadline == hasDelay) {
@@ -186,7 +228,7 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
     public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
         Set<JobHolder> result = new HashSet<>();
         for (JobHolder holder : jobs) {
-            if (matches(holder, constraint, false)) {
+            if (ConstraintMatcher.matches(holder, constraint, false)) {
                 result.add(holder);
             }
         }
@@ -198,29 +240,13 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         remove(holder);
     }
 
-    private static boolean matches(JobHolder holder, Constraint constraint, boolean acceptAnyDeadline) {
-        boolean hitDeadline = constraint.getNowInNs() >= holder.getDeadlineNs()
-                || (acceptAnyDeadline && holder.hasDeadline());
-        if (!hitDeadline) {
-            if (constraint.getMaxNetworkType() < holder.getRequiredNetworkType()) {
-                return false;
-            }
-        }
-        if (constraint.getTimeLimit() != null && holder.getDelayUntilNs() > constraint.getTimeLimit()) {
-            return false;
-        }
-        if (holder.getGroupId() != null && constraint.getExcludeGroups().contains(holder.getGroupId())) {
-            return false;
-        }
-        if (constraint.getExcludeJobIds().contains(holder.getId())) {
-            return false;
-        }
-        //noinspection RedundantIfStatement
-        if (constraint.getTagConstraint() != null &&
-                (holder.getTags() == null || constraint.getTags().isEmpty() ||
-                        !constraint.getTagConstraint().matches(constraint.getTags(), holder.getTags()))) {
-            return false;
-        }
-        return true;
+    @Override
+    public void flush() {
+        // nothing is deferred
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
     }
 }
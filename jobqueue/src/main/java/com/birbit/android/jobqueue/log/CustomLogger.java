@@ -7,6 +7,9 @@ package com.birbit.android.jobqueue.log;
 public interface CustomLogger {
     /**
      * JobManager may call this before logging something that is (relatively) expensive to calculate
+     * <p>
+     * The value is read once when the logger is set. Debug and verbose logs are not passed to a
+     * logger that returns false.
      * @return True if debug logs are enabled
      */
     boolean isDebugEnabled();
@@ -4,9 +4,16 @@ import android.util.Log;
 
 /**
  * Wrapper around {@link CustomLogger}. by default, logs to nowhere
+ * <p>
+ * Debug and verbose logs are only passed to the logger if its {@link CustomLogger#isDebugEnabled()}
+ * returned true when it was set. The overloads with up to three arguments do not allocate an
+ * argument array unless the log is passed to the logger. Callers that log primitives in hot
+ * paths should check {@link #isDebugEnabled()} first to avoid boxing them.
  */
 public class JqLog {
     private static CustomLogger customLogger;
+    // read on every debug log, so it is cached instead of asking the logger each time
+    private static volatile boolean debugEnabled;
     static {
         clearLogger();
     }
@@ -42,14 +49,41 @@ public class JqLog {
 
     public static void setCustomLogger(CustomLogger customLogger) {
         JqLog.customLogger = customLogger;
+        debugEnabled = customLogger.isDebugEnabled();
     }
 
     public static boolean isDebugEnabled() {
-        return customLogger.isDebugEnabled();
+        return debugEnabled;
+    }
+
+    public static void d(String text) {
+        if (debugEnabled) {
+            customLogger.d(text);
+        }
+    }
+
+    public static void d(String text, Object arg1) {
+        if (debugEnabled) {
+            customLogger.d(text, arg1);
+        }
+    }
+
+    public static void d(String text, Object arg1, Object arg2) {
+        if (debugEnabled) {
+            customLogger.d(text, arg1, arg2);
+        }
+    }
+
+    public static void d(String text, Object arg1, Object arg2, Object arg3) {
+        if (debugEnabled) {
+            customLogger.d(text, arg1, arg2, arg3);
+        }
     }
 
     public static void d(String text, Object... args) {
-        customLogger.d(text, args);
+        if (debugEnabled) {
+            customLogger.d(text, args);
+        }
     }
 
     public static void e(Throwable t, String text, Object... args) {
@@ -60,8 +94,22 @@ public class JqLog {
         customLogger.e(text, args);
     }
 
+    public static void v(String text) {
+        if (debugEnabled) {
+            customLogger.v(text);
+        }
+    }
+
+    public static void v(String text, Object arg1) {
+        if (debugEnabled) {
+            customLogger.v(text, arg1);
+        }
+    }
+
     public static void v(String text, Object... args) {
-        customLogger.v(text, args);
+        if (debugEnabled) {
+            customLogger.v(text, args);
+        }
     }
 
     public static class ErrorLogger implements CustomLogger {
@@ -2,8 +2,37 @@ package com.birbit.android.jobqueue.messaging;
 
 import com.birbit.android.jobqueue.log.JqLog;
 
+import java.util.Arrays;
+
+/**
+ * Keeps delayed messages in a binary heap ordered by their ready time. Messages with the same
+ * ready time are flushed in the order they are added.
+ * <p>
+ * Adding and flushing a message are O(log n). Removing messages visits each message once and
+ * rebuilds the heap in O(n).
+ */
 class DelayedMessageBag {
-    Message queue = null;
+    /**
+     * Returned by {@link #addUnique(Message, long, Object, long)} when the message is added.
+     */
+    static final int UNIQUE_ADDED = 0;
+    /**
+     * Returned by {@link #addUnique(Message, long, Object, long)} when the message is coalesced
+     * and the next ready time of the bag did not change.
+     */
+    static final int UNIQUE_COALESCED = 1;
+    /**
+     * Returned by {@link #addUnique(Message, long, Object, long)} when the message is coalesced
+     * into an existing message that moved to an earlier time and became the next one to be ready.
+     */
+    static final int UNIQUE_COALESCED_NEW_HEAD = 2;
+    private static final int INITIAL_CAPACITY = 16;
+    private Message[] heap = new Message[INITIAL_CAPACITY];
+    // the order in which messages were added, to break ties between equal ready times
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private long sequence = 0;
+    private long coalescedCount = 0;
     final MessageFactory factory;
 
     DelayedMessageBag(MessageFactory factory) {
@@ -11,67 +40,161 @@ class DelayedMessageBag {
     }
 
     Long flushReadyMessages(long now, MessageQueue addInto) {
-        JqLog.d("flushing messages at time %s", now);
-        while (queue != null && queue.readyNs <= now) {
-            Message msg = queue;
-            queue = msg.next;
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("flushing messages at time %s", now);
+        }
+        while (size > 0 && heap[0].readyNs <= now) {
+            Message msg = poll();
             msg.next = null;
             addInto.post(msg);
         }
-        if (queue != null) {
-            JqLog.d("returning next ready at %d ns", (queue.readyNs - now));
-            return queue.readyNs;
+        if (size > 0) {
+            if (JqLog.isDebugEnabled()) {
+                JqLog.d("returning next ready at %d ns", (heap[0].readyNs - now));
+            }
+            return heap[0].readyNs;
         }
         return null;
     }
+
     void add(Message message, long readyNs) {
-        JqLog.d("add delayed message %s at time %s", message, readyNs);
-        message.readyNs = readyNs;
-        if (queue == null) {
-            queue = message;
-            return;
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("add delayed message %s at time %s", message, readyNs);
         }
-        Message prev = null;
-        Message curr = queue;
-        while (curr != null && curr.readyNs <= readyNs) {
-            prev = curr;
-            curr = curr.next;
+        message.readyNs = readyNs;
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            sequences = Arrays.copyOf(sequences, size * 2);
         }
-        if (prev == null) {
-            message.next = queue;
-            queue = message;
-        } else {
-            prev.next = message;
-            message.next = curr;
+        heap[size] = message;
+        sequences[size] = sequence++;
+        siftUp(size);
+        size++;
+    }
+
+    /**
+     * Adds the message unless a message with the same key is ready within windowNs of readyNs.
+     * Finding such a message visits each message once.
+     *
+     * @return {@link #UNIQUE_ADDED}, {@link #UNIQUE_COALESCED} or
+     * {@link #UNIQUE_COALESCED_NEW_HEAD}
+     */
+    int addUnique(Message message, long readyNs, Object key, long windowNs) {
+        for (int i = 0; i < size; i++) {
+            Message existing = heap[i];
+            if (key.equals(existing.uniqueKey) && existing.readyNs >= readyNs - windowNs
+                    && existing.readyNs <= readyNs + windowNs) {
+                if (JqLog.isDebugEnabled()) {
+                    JqLog.d("coalesce delayed message %s at time %s into %s", message, readyNs,
+                            existing);
+                }
+                boolean newHead = false;
+                if (readyNs < existing.readyNs) {
+                    existing.readyNs = readyNs;
+                    siftUp(i);
+                    newHead = heap[0] == existing;
+                }
+                factory.release(message);
+                coalescedCount++;
+                return newHead ? UNIQUE_COALESCED_NEW_HEAD : UNIQUE_COALESCED;
+            }
         }
+        message.uniqueKey = key;
+        add(message, readyNs);
+        return UNIQUE_ADDED;
+    }
+
+    long getCoalescedCount() {
+        return coalescedCount;
     }
 
     public void clear() {
-        while (queue != null) {
-            Message curr = queue;
-            queue = curr.next;
+        for (int i = 0; i < size; i++) {
+            Message curr = heap[i];
+            heap[i] = null;
             factory.release(curr);
         }
-        queue = null;
+        size = 0;
     }
 
     public void removeMessages(MessagePredicate predicate) {
-        Message prev = null;
-        Message curr = queue;
-        while (curr != null) {
-            final boolean remove = predicate.onMessage(curr);
-            final Message next = curr.next;
-            if (remove) {
-                if (prev == null) {
-                    queue = curr.next;
-                } else {
-                    prev.next = curr.next;
-                }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Message curr = heap[i];
+            if (predicate.onMessage(curr)) {
                 factory.release(curr);
             } else {
-                prev = curr;
+                heap[kept] = curr;
+                sequences[kept] = sequences[i];
+                kept++;
+            }
+        }
+        if (kept == size) {
+            return;
+        }
+        for (int i = kept; i < size; i++) {
+            heap[i] = null;
+        }
+        size = kept;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private Message poll() {
+        Message first = heap[0];
+        size--;
+        heap[0] = heap[size];
+        sequences[0] = sequences[size];
+        heap[size] = null;
+        if (size > 0) {
+            siftDown(0);
+        }
+        return first;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isBefore(index, parent)) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && isBefore(left, smallest)) {
+                smallest = left;
+            }
+            if (right < size && isBefore(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
             }
-            curr = next;
+            swap(index, smallest);
+            index = smallest;
         }
     }
+
+    private boolean isBefore(int i, int j) {
+        final long readyI = heap[i].readyNs;
+        final long readyJ = heap[j].readyNs;
+        return readyI < readyJ || (readyI == readyJ && sequences[i] < sequences[j]);
+    }
+
+    private void swap(int i, int j) {
+        Message message = heap[i];
+        heap[i] = heap[j];
+        heap[j] = message;
+        long seq = sequences[i];
+        sequences[i] = sequences[j];
+        sequences[j] = seq;
+    }
 }
@@ -0,0 +1,265 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link MessageQueue} that orders messages the same way {@link PriorityMessageQueue} does but
+ * does not make producers wait for each other or for the consumer.
+ * <p>
+ * Each priority has an inbox that producers push messages into with a compare-and-set. The
+ * consumer takes the whole inbox at once and moves it, in posting order, into its own queue for
+ * that priority. Delayed messages go through another inbox into a {@link DelayedMessageBag}.
+ * <p>
+ * Producers only take the lock to wake the consumer up, and only when it is waiting for messages.
+ * The consumer holds the lock while it takes messages so {@link #cancelMessages(MessagePredicate)}
+ * and {@link #clear()} can still be called from any thread.
+ */
+public class LockFreeMessageQueue implements MessageQueue {
+    private final Object LOCK = new Object();
+    // messages posted to each priority, newest first
+    private final AtomicReferenceArray<Message> inboxes =
+            new AtomicReferenceArray<>(Type.MAX_PRIORITY + 1);
+    // messages posted with postAt, newest first
+    private final AtomicReference<Message> delayedInbox = new AtomicReference<>();
+    // guarded by LOCK
+    private final UnsafeMessageQueue[] queues;
+    // guarded by LOCK
+    private final DelayedMessageBag delayedBag;
+    private final Timer timer;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    // set while the consumer waits on LOCK, producers only notify it when set
+    private volatile boolean sleeping = false;
+    private final MessageFactory factory;
+    private static final String LOG_TAG = "lock_free_mq";
+
+    public LockFreeMessageQueue(Timer timer, MessageFactory factory) {
+        delayedBag = new DelayedMessageBag(factory);
+        this.factory = factory;
+        queues = new UnsafeMessageQueue[Type.MAX_PRIORITY + 1];
+        this.timer = timer;
+    }
+
+    @Override
+    public void consume(MessageQueueConsumer consumer) {
+        if(running.getAndSet(true)) {
+            throw new IllegalStateException("only 1 consumer per MQ");
+        }
+        while (running.get()) {
+            Message message = next(consumer);
+            if (message != null) {
+                JqLog.d("[%s] consuming message of type %s", LOG_TAG, message.type);
+                consumer.handleMessage(message);
+                factory.release(message);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (LOCK) {
+            drainInboxes();
+            for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+                UnsafeMessageQueue mq = queues[i];
+                if (mq == null) {
+                    continue;
+                }
+                mq.clear();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running.set(false);
+        synchronized (LOCK) {
+            timer.notifyObject(LOCK);
+        }
+    }
+
+    public Message next(MessageQueueConsumer consumer) {
+        boolean calledOnIdle = false;
+        while (running.get()) {
+            final Long nextDelayedReadyAt;
+            synchronized (LOCK) {
+                final long now = timer.nanoTime();
+                drainInboxes();
+                nextDelayedReadyAt = delayedBag.flushReadyMessages(now, this);
+                drainInboxes();
+                for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+                    UnsafeMessageQueue mq = queues[i];
+                    if (mq == null) {
+                        continue;
+                    }
+                    Message message = mq.next();
+                    if (message != null) {
+                        return message;
+                    }
+                }
+            }
+            if (!calledOnIdle) {
+                consumer.onIdle();
+                calledOnIdle = true;
+                // callback may add new messages
+                continue;
+            }
+            synchronized (LOCK) {
+                sleeping = true;
+                try {
+                    // a producer that did not see the flag posted before it was set
+                    if (running.get() && !hasMessages()) {
+                        if (nextDelayedReadyAt == null) {
+                            timer.waitOnObject(LOCK);
+                        } else {
+                            timer.waitOnObjectUntilNs(LOCK, nextDelayedReadyAt);
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    sleeping = false;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void post(Message message) {
+        final int index = message.type.priority;
+        Message head;
+        do {
+            head = inboxes.get(index);
+            message.next = head;
+        } while (!inboxes.compareAndSet(index, head, message));
+        wakeUpConsumer();
+    }
+
+    @Override
+    public void postAt(Message message, long readyNs) {
+        message.readyNs = readyNs;
+        Message head;
+        do {
+            head = delayedInbox.get();
+            message.next = head;
+        } while (!delayedInbox.compareAndSet(head, message));
+        wakeUpConsumer();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unlike {@link #postAt(Message, long)}, this takes the lock to look for a waiting message
+     * with the same key.
+     */
+    @Override
+    public boolean postAtUnique(Message message, long readyNs, Object key, long windowNs) {
+        synchronized (LOCK) {
+            drainInboxes();
+            final int result = delayedBag.addUnique(message, readyNs, key, windowNs);
+            if (result == DelayedMessageBag.UNIQUE_COALESCED) {
+                return false;
+            }
+            // added or moved a waiting message earlier, the consumer may be waiting for later
+            timer.notifyObject(LOCK);
+            return result == DelayedMessageBag.UNIQUE_ADDED;
+        }
+    }
+
+    @Override
+    public long getCoalescedMessageCount() {
+        synchronized (LOCK) {
+            return delayedBag.getCoalescedCount();
+        }
+    }
+
+    @Override
+    public void cancelMessages(MessagePredicate predicate) {
+        synchronized (LOCK) {
+            drainInboxes();
+            for (int i = 0; i <= Type.MAX_PRIORITY; i++) {
+                UnsafeMessageQueue mq = queues[i];
+                if (mq == null) {
+                    continue;
+                }
+                mq.removeMessages(predicate);
+            }
+            delayedBag.removeMessages(predicate);
+        }
+    }
+
+    private void wakeUpConsumer() {
+        if (sleeping) {
+            synchronized (LOCK) {
+                timer.notifyObject(LOCK);
+            }
+        }
+    }
+
+    /**
+     * Moves the posted messages into the queues of the consumer. Must be called while holding
+     * LOCK.
+     */
+    private void drainInboxes() {
+        for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+            Message message = takeInOrder(inboxes.get(i) == null ? null
+                    : inboxes.getAndSet(i, null));
+            if (message == null) {
+                continue;
+            }
+            if (queues[i] == null) {
+                queues[i] = new UnsafeMessageQueue(factory, "queue_" + message.type.name());
+            }
+            while (message != null) {
+                final Message next = message.next;
+                message.next = null;
+                queues[i].post(message);
+                message = next;
+            }
+        }
+        Message delayed = takeInOrder(delayedInbox.get() == null ? null
+                : delayedInbox.getAndSet(null));
+        while (delayed != null) {
+            final Message next = delayed.next;
+            delayed.next = null;
+            delayedBag.add(delayed, delayed.readyNs);
+            delayed = next;
+        }
+    }
+
+    /**
+     * Must be called while holding LOCK.
+     */
+    private boolean hasMessages() {
+        if (delayedInbox.get() != null) {
+            return true;
+        }
+        for (int i = 0; i <= Type.MAX_PRIORITY; i++) {
+            if (inboxes.get(i) != null) {
+                return true;
+            }
+            // another thread may have drained the inboxes while cancelling messages
+            if (queues[i] != null && queues[i].hasMessages()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reverses the given inbox so that the first posted message is first.
+     */
+    private static Message takeInOrder(Message newestFirst) {
+        Message oldestFirst = null;
+        while (newestFirst != null) {
+            final Message next = newestFirst.next;
+            newestFirst.next = oldestFirst;
+            oldestFirst = newestFirst;
+            newestFirst = next;
+        }
+        return oldestFirst;
+    }
+}
@@ -5,6 +5,10 @@ abstract public class Message {
     // used by the pool
     Message next;
     public long readyNs = Long.MIN_VALUE;
+    // set by postAtUnique
+    Object uniqueKey;
+    // the MessageFactory stripe this message goes back to, kept when recycled
+    int poolStripe;
 
     protected Message(Type type) {
         this.type = type;
@@ -15,6 +19,7 @@ abstract public class Message {
     final void recycle() {
         next = null;
         readyNs = Long.MIN_VALUE;
+        uniqueKey = null;
         onRecycled();
     }
 }
@@ -1,52 +1,126 @@
 package com.birbit.android.jobqueue.messaging;
 
-import com.birbit.android.jobqueue.log.JqLog;
-
-import java.util.Arrays;
-
+/**
+ * Pools messages so that they are not allocated for every post.
+ * <p>
+ * The pool is split into stripes, each with its own lock and a stack of messages per
+ * {@link Type}. A thread obtains messages from the stripe picked by its id and only looks at the
+ * other stripes when that one is empty. A message goes back to the stripe it was obtained from
+ * when it is released, usually by the thread that consumed it, so threads that post messages
+ * mostly find them in their own stripe.
+ */
 public class MessageFactory {
-    private static final int CACHE_LIMIT = 20;
-    Message[] pools = new Message[Type.values().length];
-    int[] counts = new int[pools.length];
+    public static final int DEFAULT_POOL_SIZE = 20;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int poolSize;
 
     public MessageFactory() {
-        Arrays.fill(counts, 0);
+        this(DEFAULT_POOL_SIZE, 1);
+    }
+
+    /**
+     * @param poolSize The maximum number of messages of each type kept in each stripe
+     * @param stripeCount The number of stripes, rounded up to a power of two
+     */
+    public MessageFactory(int poolSize, int stripeCount) {
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("pool size cannot be negative");
+        }
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("there should be at least one stripe");
+        }
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.poolSize = poolSize;
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe(i);
+        }
+        stripeMask = size - 1;
     }
 
     public <T extends Message> T obtain(Class<T> klass) {
         final Type type = Type.mapping.get(klass);
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (type) {
-            Message message = pools[type.ordinal()];
-            if (message != null) {
-                pools[type.ordinal()] = message.next;
-                counts[type.ordinal()] -= 1;
-                message.next = null;
-                //noinspection unchecked
-                return (T) message;
+        final int ordinal = type.ordinal();
+        final Stripe own = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        for (int i = 0; i < stripes.length; i++) {
+            final Stripe stripe = stripes[(own.index + i) & stripeMask];
+            // other stripes are checked without the lock first, the count may be stale
+            if (stripe != own && stripe.counts[ordinal] == 0) {
+                continue;
             }
-            try {
-                return klass.newInstance();
-            } catch (InstantiationException e) {
-                JqLog.e(e, "Cannot create an instance of " + klass + ". Make sure it has a empty" +
-                        " constructor.");
-            } catch (IllegalAccessException e) {
-                JqLog.e(e, "Cannot create an instance of " + klass + ". Make sure it has a public" +
-                        " empty constructor.");
+            synchronized (stripe) {
+                Message message = stripe.pools[ordinal];
+                if (message != null) {
+                    stripe.pools[ordinal] = message.next;
+                    stripe.counts[ordinal] -= 1;
+                    stripe.hits++;
+                    message.next = null;
+                    //noinspection unchecked
+                    return (T) message;
+                }
             }
         }
-        return null;
+        synchronized (own) {
+            own.misses++;
+        }
+        Message message = type.create();
+        message.poolStripe = own.index;
+        //noinspection unchecked
+        return (T) message;
     }
+
     public void release(Message message) {
-        final Type type = message.type;
+        final int ordinal = message.type.ordinal();
         message.recycle();
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (type) {
-            if (counts[type.ordinal()] < CACHE_LIMIT) {
-                message.next = pools[type.ordinal()];
-                pools[type.ordinal()] = message;
-                counts[type.ordinal()] += 1;
+        final Stripe stripe = stripes[message.poolStripe & stripeMask];
+        synchronized (stripe) {
+            if (stripe.counts[ordinal] < poolSize) {
+                message.next = stripe.pools[ordinal];
+                stripe.pools[ordinal] = message;
+                stripe.counts[ordinal] += 1;
+            }
+        }
+    }
+
+    /**
+     * @return The number of times {@link #obtain(Class)} returned a pooled message
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
             }
         }
+        return hits;
+    }
+
+    /**
+     * @return The number of times {@link #obtain(Class)} had to create a new message
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    private static class Stripe {
+        final int index;
+        final Message[] pools = new Message[Type.values().length];
+        final int[] counts = new int[pools.length];
+        long hits;
+        long misses;
+
+        Stripe(int index) {
+            this.index = index;
+        }
     }
 }
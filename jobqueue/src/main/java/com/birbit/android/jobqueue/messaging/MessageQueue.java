@@ -3,6 +3,26 @@ package com.birbit.android.jobqueue.messaging;
 public interface MessageQueue {
     void post(Message message);
     void postAt(Message message, long readyNs);
+
+    /**
+     * Posts the message at the given time unless a message posted with the same key is already
+     * waiting to be ready within {@code windowNs} of it. In that case, the waiting message is
+     * moved to the earlier of the two times and the given message is recycled.
+     *
+     * @param message The message to post
+     * @param readyNs When the message should be consumed
+     * @param key Messages posted with equal keys are coalesced
+     * @param windowNs How far apart two messages with the same key can be to be coalesced
+     *
+     * @return True if the message is posted, false if it is coalesced into a waiting message
+     */
+    boolean postAtUnique(Message message, long readyNs, Object key, long windowNs);
+
+    /**
+     * @return The number of messages that were not posted by
+     * {@link #postAtUnique(Message, long, Object, long)} because they were coalesced
+     */
+    long getCoalescedMessageCount();
     void cancelMessages(MessagePredicate predicate);
     void stop();
     void consume(MessageQueueConsumer consumer);
@@ -7,6 +7,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Uses multiple message queues to simulate priority.
+ * <p>
+ * In batch drain mode, the consumer moves every posted message into its own queues with a single
+ * lock acquisition and takes messages from them without the lock, as long as no message with a
+ * higher priority is posted and no delayed message becomes ready. Messages are processed in the
+ * same order either way.
  */
 public class PriorityMessageQueue implements MessageQueue {
     private final Object LOCK = new Object();
@@ -18,12 +23,25 @@ public class PriorityMessageQueue implements MessageQueue {
     private boolean postJobTick = false;
     private final MessageFactory factory;
     private static final String LOG_TAG = "priority_mq";
+    private static final int NO_PRIORITY = -1;
+    // null unless in batch drain mode. Messages taken by the consumer, guarded by itself so that
+    // cancelMessages and clear can reach them without making the consumer wait for producers.
+    private final UnsafeMessageQueue[] batch;
+    // guarded by batch, when the next delayed message is ready as of the last drain
+    private Long batchNextDelayedReadyAt;
+    // the highest priority posted since the last drain, written while holding LOCK
+    private volatile int pendingPriority = NO_PRIORITY;
 
     @SuppressWarnings("unused")
     public PriorityMessageQueue(Timer timer, MessageFactory factory) {
+        this(timer, factory, false);
+    }
+
+    public PriorityMessageQueue(Timer timer, MessageFactory factory, boolean batchDrain) {
         delayedBag = new DelayedMessageBag(factory);
         this.factory = factory;
         queues = new UnsafeMessageQueue[Type.MAX_PRIORITY + 1];
+        batch = batchDrain ? new UnsafeMessageQueue[Type.MAX_PRIORITY + 1] : null;
         this.timer = timer;
     }
 
@@ -52,6 +70,15 @@ public class PriorityMessageQueue implements MessageQueue {
                 }
                 mq.clear();
             }
+            if (batch != null) {
+                synchronized (batch) {
+                    for (UnsafeMessageQueue mq : batch) {
+                        if (mq != null) {
+                            mq.clear();
+                        }
+                    }
+                }
+            }
         }
     }
 
@@ -66,22 +93,37 @@ public class PriorityMessageQueue implements MessageQueue {
     public Message next(MessageQueueConsumer consumer) {
         boolean calledOnIdle = false;
         while (running.get()) {
+            if (batch != null) {
+                Message message = nextInBatch();
+                if (message != null) {
+                    return message;
+                }
+            }
             final Long nextDelayedReadyAt;
             final long now;
             synchronized (LOCK) {
                 now = timer.nanoTime();
-                JqLog.d("[%s] looking for next message at time %s", LOG_TAG, now);
+                if (JqLog.isDebugEnabled()) {
+                    JqLog.d("[%s] looking for next message at time %s", LOG_TAG, now);
+                }
                 nextDelayedReadyAt = delayedBag.flushReadyMessages(now, this);
                 JqLog.d("[%s] next delayed job %s", LOG_TAG, nextDelayedReadyAt);
-                for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
-                    UnsafeMessageQueue mq = queues[i];
-                    if (mq == null) {
-                        continue;
-                    }
-                    Message message = mq.next();
+                if (batch != null) {
+                    Message message = drainIntoBatch(nextDelayedReadyAt);
                     if (message != null) {
                         return message;
                     }
+                } else {
+                    for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+                        UnsafeMessageQueue mq = queues[i];
+                        if (mq == null) {
+                            continue;
+                        }
+                        Message message = mq.next();
+                        if (message != null) {
+                            return message;
+                        }
+                    }
                 }
                 postJobTick = false;
             }
@@ -113,11 +155,61 @@ public class PriorityMessageQueue implements MessageQueue {
         return null;
     }
 
+    /**
+     * Returns the next message of the batch if it is still the next message of the queue.
+     */
+    private Message nextInBatch() {
+        synchronized (batch) {
+            for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+                UnsafeMessageQueue mq = batch[i];
+                if (mq == null || !mq.hasMessages()) {
+                    continue;
+                }
+                if (pendingPriority > i || (batchNextDelayedReadyAt != null
+                        && batchNextDelayedReadyAt <= timer.nanoTime())) {
+                    // a message that may go first is waiting, the queues need to be drained
+                    return null;
+                }
+                return mq.next();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Moves all posted messages to the end of the batch and returns the first message of the
+     * batch. Must be called while holding LOCK.
+     */
+    private Message drainIntoBatch(Long nextDelayedReadyAt) {
+        synchronized (batch) {
+            pendingPriority = NO_PRIORITY;
+            batchNextDelayedReadyAt = nextDelayedReadyAt;
+            Message result = null;
+            for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+                UnsafeMessageQueue mq = queues[i];
+                if (mq == null) {
+                    continue;
+                }
+                if (batch[i] == null) {
+                    batch[i] = new UnsafeMessageQueue(factory, "batch_" + mq.logTag);
+                }
+                batch[i].takeAll(mq);
+                if (result == null) {
+                    result = batch[i].next();
+                }
+            }
+            return result;
+        }
+    }
+
     @Override
     public void post(Message message) {
         synchronized (LOCK) {
             postJobTick = true;
             int index = message.type.priority;
+            if (index > pendingPriority) {
+                pendingPriority = index;
+            }
             if (queues[index] == null) {
                 queues[index] = new UnsafeMessageQueue(factory, "queue_" + message.type.name());
             }
@@ -130,11 +222,35 @@ public class PriorityMessageQueue implements MessageQueue {
     public void postAt(Message message, long readyNs) {
         synchronized (LOCK) {
             postJobTick = true;
+            // it may be ready before the delayed messages the batch knows about
+            pendingPriority = Type.MAX_PRIORITY;
             delayedBag.add(message, readyNs);
             timer.notifyObject(LOCK);
         }
     }
 
+    @Override
+    public boolean postAtUnique(Message message, long readyNs, Object key, long windowNs) {
+        synchronized (LOCK) {
+            final int result = delayedBag.addUnique(message, readyNs, key, windowNs);
+            if (result == DelayedMessageBag.UNIQUE_COALESCED) {
+                return false;
+            }
+            // added or moved a waiting message earlier, the consumer may be waiting for later
+            postJobTick = true;
+            pendingPriority = Type.MAX_PRIORITY;
+            timer.notifyObject(LOCK);
+            return result == DelayedMessageBag.UNIQUE_ADDED;
+        }
+    }
+
+    @Override
+    public long getCoalescedMessageCount() {
+        synchronized (LOCK) {
+            return delayedBag.getCoalescedCount();
+        }
+    }
+
     @Override
     public void cancelMessages(MessagePredicate predicate) {
         synchronized (LOCK) {
@@ -146,6 +262,15 @@ public class PriorityMessageQueue implements MessageQueue {
                 mq.removeMessages(predicate);
             }
             delayedBag.removeMessages(predicate);
+            if (batch != null) {
+                synchronized (batch) {
+                    for (UnsafeMessageQueue mq : batch) {
+                        if (mq != null) {
+                            mq.removeMessages(predicate);
+                        }
+                    }
+                }
+            }
         }
     }
 }
@@ -5,6 +5,13 @@ import com.birbit.android.jobqueue.timer.Timer;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * A {@link MessageQueue} for a single consumer that processes messages in the order they are
+ * posted, except for {@link #postAtFront(Message)}.
+ * <p>
+ * In batch drain mode, the consumer moves every posted message into its own queue with a single
+ * lock acquisition and takes messages from it without the lock until it is empty.
+ */
 public class SafeMessageQueue extends UnsafeMessageQueue implements MessageQueue {
     private final Object LOCK = new Object();
     private final AtomicBoolean running = new AtomicBoolean(false);
@@ -13,11 +20,21 @@ public class SafeMessageQueue extends UnsafeMessageQueue implements MessageQueue
     // used to check if any new message is posted inside sync block
     private boolean postMessageTick = false;
     private final MessageFactory factory;
+    // null unless in batch drain mode. Messages taken by the consumer, guarded by itself so that
+    // cancelMessages and clear can reach them without making the consumer wait for producers.
+    private final UnsafeMessageQueue batch;
+
     public SafeMessageQueue(Timer timer, MessageFactory factory, String logTag) {
+        this(timer, factory, logTag, false);
+    }
+
+    public SafeMessageQueue(Timer timer, MessageFactory factory, String logTag,
+            boolean batchDrain) {
         super(factory, logTag);
         this.factory = factory;
         this.timer = timer;
         this.delayedBag = new DelayedMessageBag(factory);
+        this.batch = batchDrain ? new UnsafeMessageQueue(factory, "batch_" + logTag) : null;
     }
 
     public boolean isRunning() {
@@ -51,6 +68,11 @@ public class SafeMessageQueue extends UnsafeMessageQueue implements MessageQueue
     public void clear() {
         synchronized (LOCK) {
             super.clear();
+            if (batch != null) {
+                synchronized (batch) {
+                    batch.clear();
+                }
+            }
         }
     }
 
@@ -58,12 +80,29 @@ public class SafeMessageQueue extends UnsafeMessageQueue implements MessageQueue
         boolean calledIdle = false;
 
         while (running.get()) {
+            if (batch != null) {
+                // messages posted later go behind the batch anyway
+                synchronized (batch) {
+                    Message message = batch.next();
+                    if (message != null) {
+                        return message;
+                    }
+                }
+            }
             final Long nextDelayedReadyAt;
             final long now;
             synchronized (LOCK) {
                 now = timer.nanoTime();
                 nextDelayedReadyAt = delayedBag.flushReadyMessages(now, this);
-                Message message = super.next();
+                final Message message;
+                if (batch != null) {
+                    synchronized (batch) {
+                        batch.takeAll(this);
+                        message = batch.next();
+                    }
+                } else {
+                    message = super.next();
+                }
                 if (message != null) {
                     return message;
                 }
@@ -120,11 +159,37 @@ public class SafeMessageQueue extends UnsafeMessageQueue implements MessageQueue
         }
     }
 
+    @Override
+    public boolean postAtUnique(Message message, long readyNs, Object key, long windowNs) {
+        synchronized (LOCK) {
+            final int result = delayedBag.addUnique(message, readyNs, key, windowNs);
+            if (result == DelayedMessageBag.UNIQUE_COALESCED) {
+                return false;
+            }
+            // added or moved a waiting message earlier, the consumer may be waiting for later
+            postMessageTick = true;
+            timer.notifyObject(LOCK);
+            return result == DelayedMessageBag.UNIQUE_ADDED;
+        }
+    }
+
+    @Override
+    public long getCoalescedMessageCount() {
+        synchronized (LOCK) {
+            return delayedBag.getCoalescedCount();
+        }
+    }
+
     @Override
     public void cancelMessages(MessagePredicate predicate) {
         synchronized (LOCK) {
             super.removeMessages(predicate);
             delayedBag.removeMessages(predicate);
+            if (batch != null) {
+                synchronized (batch) {
+                    batch.removeMessages(predicate);
+                }
+            }
         }
     }
 
@@ -132,7 +197,14 @@ public class SafeMessageQueue extends UnsafeMessageQueue implements MessageQueue
     public void postAtFront(Message message) {
         synchronized (LOCK) {
             postMessageTick = true;
-            super.postAtFront(message);
+            if (batch != null) {
+                // goes in front of the messages the consumer has already taken
+                synchronized (batch) {
+                    batch.postAtFront(message);
+                }
+            } else {
+                super.postAtFront(message);
+            }
             timer.notifyObject(LOCK);
         }
     }
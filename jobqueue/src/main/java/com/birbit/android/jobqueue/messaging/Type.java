@@ -1,6 +1,7 @@
 package com.birbit.android.jobqueue.messaging;
 
 import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.AddJobsMessage;
 import com.birbit.android.jobqueue.messaging.message.CallbackMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelResultMessage;
@@ -19,17 +20,78 @@ import java.util.Map;
  * All message types
  */
 public enum Type {
-    CALLBACK(CallbackMessage.class, 0),
-    CANCEL_RESULT_CALLBACK(CancelResultMessage.class, 0),
-    RUN_JOB(RunJobMessage.class, 0),
-    COMMAND(CommandMessage.class, 0),
-    PUBLIC_QUERY(PublicQueryMessage.class, 0),
-    JOB_CONSUMER_IDLE(JobConsumerIdleMessage.class, 0), // MUST ARRIVE AFTER JOB RESULT
-    ADD_JOB(AddJobMessage.class, 1),
-    CANCEL(CancelMessage.class, 1),
-    CONSTRAINT_CHANGE(ConstraintChangeMessage.class, 2),
-    RUN_JOB_RESULT(RunJobResultMessage.class, 3),
-    SCHEDULER(SchedulerMessage.class, 4);
+    CALLBACK(CallbackMessage.class, 0) {
+        @Override
+        CallbackMessage create() {
+            return new CallbackMessage();
+        }
+    },
+    CANCEL_RESULT_CALLBACK(CancelResultMessage.class, 0) {
+        @Override
+        CancelResultMessage create() {
+            return new CancelResultMessage();
+        }
+    },
+    RUN_JOB(RunJobMessage.class, 0) {
+        @Override
+        RunJobMessage create() {
+            return new RunJobMessage();
+        }
+    },
+    COMMAND(CommandMessage.class, 0) {
+        @Override
+        CommandMessage create() {
+            return new CommandMessage();
+        }
+    },
+    PUBLIC_QUERY(PublicQueryMessage.class, 0) {
+        @Override
+        PublicQueryMessage create() {
+            return new PublicQueryMessage();
+        }
+    },
+    JOB_CONSUMER_IDLE(JobConsumerIdleMessage.class, 0) { // MUST ARRIVE AFTER JOB RESULT
+        @Override
+        JobConsumerIdleMessage create() {
+            return new JobConsumerIdleMessage();
+        }
+    },
+    ADD_JOB(AddJobMessage.class, 1) {
+        @Override
+        AddJobMessage create() {
+            return new AddJobMessage();
+        }
+    },
+    ADD_JOBS(AddJobsMessage.class, 1) {
+        @Override
+        AddJobsMessage create() {
+            return new AddJobsMessage();
+        }
+    },
+    CANCEL(CancelMessage.class, 1) {
+        @Override
+        CancelMessage create() {
+            return new CancelMessage();
+        }
+    },
+    CONSTRAINT_CHANGE(ConstraintChangeMessage.class, 2) {
+        @Override
+        ConstraintChangeMessage create() {
+            return new ConstraintChangeMessage();
+        }
+    },
+    RUN_JOB_RESULT(RunJobResultMessage.class, 3) {
+        @Override
+        RunJobResultMessage create() {
+            return new RunJobResultMessage();
+        }
+    },
+    SCHEDULER(SchedulerMessage.class, 4) {
+        @Override
+        SchedulerMessage create() {
+            return new SchedulerMessage();
+        }
+    };
     final Class<? extends Message> klass;
     final static Map<Class<? extends Message>, Type> mapping;
     final int priority; // higher is better
@@ -39,6 +101,12 @@ public enum Type {
         this.klass = klass;
         this.priority = priority;
     }
+
+    /**
+     * Creates a new message of this type, used by {@link MessageFactory} when its pool is empty.
+     */
+    abstract Message create();
+
     static {
         int maxPriority = 0;
         mapping = new HashMap<>();
@@ -28,6 +28,10 @@ class UnsafeMessageQueue {
         return result;
     }
 
+    boolean hasMessages() {
+        return queue != null;
+    }
+
     protected void post(Message message) {
         JqLog.d("[%s] post message %s", logTag, message);
         if (tail == null) {
@@ -39,6 +43,23 @@ class UnsafeMessageQueue {
         }
     }
 
+    /**
+     * Moves all messages of the given queue to the end of this one, keeping their order.
+     */
+    void takeAll(UnsafeMessageQueue other) {
+        if (other.queue == null) {
+            return;
+        }
+        if (tail == null) {
+            queue = other.queue;
+        } else {
+            tail.next = other.queue;
+        }
+        tail = other.tail;
+        other.queue = null;
+        other.tail = null;
+    }
+
     protected void postAtFront(Message message) {
         message.next = queue;
         if (tail == null) {
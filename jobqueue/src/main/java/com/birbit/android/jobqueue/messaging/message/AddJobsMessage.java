@@ -0,0 +1,27 @@
+package com.birbit.android.jobqueue.messaging.message;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.messaging.Message;
+import com.birbit.android.jobqueue.messaging.Type;
+
+import java.util.List;
+
+public class AddJobsMessage extends Message {
+    private List<Job> jobs;
+    public AddJobsMessage() {
+        super(Type.ADD_JOBS);
+    }
+
+    public List<Job> getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(List<Job> jobs) {
+        this.jobs = jobs;
+    }
+
+    @Override
+    protected void onRecycled() {
+        jobs = null;
+    }
+}
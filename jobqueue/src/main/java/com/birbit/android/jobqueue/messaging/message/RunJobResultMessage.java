@@ -8,6 +8,7 @@ public class RunJobResultMessage extends Message {
     private JobHolder jobHolder;
     private Object worker;
     private int result;
+    private long runTimeNs;
 
     public RunJobResultMessage() {
         super(Type.RUN_JOB_RESULT);
@@ -34,6 +35,17 @@ public class RunJobResultMessage extends Message {
         return result;
     }
 
+    /**
+     * @return How long it took the worker to run the job, in nanoseconds
+     */
+    public long getRunTimeNs() {
+        return runTimeNs;
+    }
+
+    public void setRunTimeNs(long runTimeNs) {
+        this.runTimeNs = runTimeNs;
+    }
+
     public Object getWorker() {
         return worker;
     }
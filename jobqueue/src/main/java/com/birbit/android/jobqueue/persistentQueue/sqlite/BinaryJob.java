@@ -0,0 +1,37 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import java.io.IOException;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * Interface for persistent Jobs that write their own state instead of relying on Java
+ * serialization. Used by {@link BinaryJobSerializer}.
+ * <p>
+ * Only the fields of your own Job need to be written. Id, priority, group, tags etc. are kept
+ * by the queue and restored by the JobManager when the Job is loaded.
+ * <p>
+ * {@link #readFrom(BufferedSource)} is called on the instance created by the factory that was
+ * registered for the Job's class and must read the fields in the same order
+ * {@link #writeTo(BufferedSink)} wrote them.
+ */
+public interface BinaryJob {
+    /**
+     * Writes the state of the Job into the given sink.
+     *
+     * @param sink The sink to write into. Do not close it.
+     *
+     * @throws IOException If the Job cannot be written
+     */
+    void writeTo(BufferedSink sink) throws IOException;
+
+    /**
+     * Reads the state of the Job from the given source.
+     *
+     * @param source The source to read from. Do not close it.
+     *
+     * @throws IOException If the Job cannot be read
+     */
+    void readFrom(BufferedSource source) throws IOException;
+}
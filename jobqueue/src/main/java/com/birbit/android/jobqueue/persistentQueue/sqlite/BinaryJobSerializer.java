@@ -0,0 +1,174 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.birbit.android.jobqueue.Job;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * A {@link SqliteJobQueue.JobSerializer} for Jobs that implement {@link BinaryJob}.
+ * <p>
+ * Each Job class is registered with a small integer id which is written instead of the class
+ * name, followed by whatever the Job writes in {@link BinaryJob#writeTo(okio.BufferedSink)}. Ids
+ * are persisted so they must not change between versions of your application.
+ * <pre>
+ * BinaryJobSerializer serializer = new BinaryJobSerializer()
+ *         .register(1, SyncJob.class, new BinaryJobSerializer.Factory&lt;SyncJob&gt;() {
+ *             public SyncJob create() {
+ *                 return new SyncJob();
+ *             }
+ *         });
+ * new Configuration.Builder(context).jobSerializer(serializer);
+ * </pre>
+ * Jobs that are not registered are serialized with the fallback serializer (a
+ * {@link SqliteJobQueue.JavaSerializer} by default). Payloads written by the fallback serializer,
+ * including the ones saved before switching to this serializer, are also read with it.
+ */
+public class BinaryJobSerializer implements BufferedJobSerializer {
+    // first byte of binary payloads. Java serialization streams start with 0xACED
+    static final byte MAGIC = (byte) 0xB1;
+
+    private final Map<Class<? extends Job>, Integer> classIds = new HashMap<>();
+    private final Map<Integer, Factory<? extends Job>> factories = new HashMap<>();
+    private final SqliteJobQueue.JobSerializer fallback;
+
+    public BinaryJobSerializer() {
+        this(new SqliteJobQueue.JavaSerializer());
+    }
+
+    /**
+     * @param fallback The serializer to be used for Jobs that are not registered. Can be null if
+     *                 all persistent Jobs are registered.
+     */
+    public BinaryJobSerializer(@Nullable SqliteJobQueue.JobSerializer fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Registers a Job class.
+     *
+     * @param classId The id that is written instead of the class name. Must be unique and must
+     *                not change once Jobs are persisted with it.
+     * @param klass The class of the Job
+     * @param factory Creates an empty instance of the Job to read the state into
+     *
+     * @return This serializer for easy chaining
+     */
+    @NonNull
+    public <T extends Job & BinaryJob> BinaryJobSerializer register(int classId,
+            @NonNull Class<T> klass, @NonNull Factory<T> factory) {
+        if (factories.containsKey(classId)) {
+            throw new IllegalArgumentException("class id " + classId + " is already registered");
+        }
+        if (classIds.containsKey(klass)) {
+            throw new IllegalArgumentException(klass + " is already registered");
+        }
+        classIds.put(klass, classId);
+        factories.put(classId, factory);
+        return this;
+    }
+
+    @Override
+    public byte[] serialize(Object object) throws IOException {
+        if (object == null) {
+            return null;
+        }
+        Integer classId = classIds.get(object.getClass());
+        if (classId == null) {
+            return serializeWithFallback(object);
+        }
+        Buffer buffer = new Buffer();
+        writeTo(buffer, classId, (BinaryJob) object);
+        return buffer.readByteArray();
+    }
+
+    @Override
+    public void serialize(@NonNull Job job, @NonNull BufferedSink sink) throws IOException {
+        Integer classId = classIds.get(job.getClass());
+        if (classId == null) {
+            byte[] bytes = serializeWithFallback(job);
+            if (bytes != null) {
+                sink.write(bytes);
+            }
+            return;
+        }
+        writeTo(sink, classId, (BinaryJob) job);
+    }
+
+    private static void writeTo(BufferedSink sink, int classId, BinaryJob job)
+            throws IOException {
+        sink.writeByte(MAGIC);
+        sink.writeInt(classId);
+        job.writeTo(sink);
+    }
+
+    private byte[] serializeWithFallback(Object object) throws IOException {
+        if (fallback == null) {
+            throw new IOException(object.getClass() + " is not registered");
+        }
+        return fallback.serialize(object);
+    }
+
+    @Override
+    public <T extends Job> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            if (fallback == null) {
+                throw new IOException("not a binary job payload");
+            }
+            return fallback.deserialize(bytes);
+        }
+        Buffer buffer = new Buffer();
+        buffer.write(bytes);
+        return readFrom(buffer);
+    }
+
+    @Override
+    public <T extends Job> T deserialize(@NonNull BufferedSource source)
+            throws IOException, ClassNotFoundException {
+        if (source.exhausted()) {
+            return null;
+        }
+        if (source.buffer().getByte(0) != MAGIC) {
+            if (fallback == null) {
+                throw new IOException("not a binary job payload");
+            }
+            return fallback.deserialize(source.readByteArray());
+        }
+        return readFrom(source);
+    }
+
+    private <T extends Job> T readFrom(BufferedSource source)
+            throws IOException, ClassNotFoundException {
+        source.readByte(); // MAGIC
+        int classId = source.readInt();
+        Factory<? extends Job> factory = factories.get(classId);
+        if (factory == null) {
+            throw new ClassNotFoundException("no job class is registered with id " + classId);
+        }
+        Job job = factory.create();
+        ((BinaryJob) job).readFrom(source);
+        //noinspection unchecked
+        return (T) job;
+    }
+
+    /**
+     * Creates empty instances of a {@link BinaryJob}.
+     *
+     * @param <T> The type of the Job
+     */
+    public interface Factory<T extends Job> {
+        @NonNull
+        T create();
+    }
+}
@@ -0,0 +1,50 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.birbit.android.jobqueue.Job;
+
+import java.io.IOException;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * A {@link SqliteJobQueue.JobSerializer} that can write into and read from okio streams.
+ * <p>
+ * {@link SqliteJobQueue} passes a buffer that it owns and re-uses for every Job, so a serializer
+ * that implements this interface does not need to allocate an intermediate {@code byte[]} when
+ * Jobs are saved to or loaded from files. The {@code byte[]} methods are still used when the
+ * payload is kept in the database (see
+ * {@link com.birbit.android.jobqueue.config.Configuration.Builder#inlineJobPayloads()}) since
+ * sqlite needs an array.
+ * <p>
+ * Serializers that only implement {@link SqliteJobQueue.JobSerializer} keep working, they are
+ * wrapped in an adapter that copies the arrays into the buffer.
+ */
+public interface BufferedJobSerializer extends SqliteJobQueue.JobSerializer {
+    /**
+     * Writes the given Job into the sink.
+     *
+     * @param job The Job to be written
+     * @param sink The sink to write into. Do not close it.
+     *
+     * @throws IOException If the Job cannot be written
+     */
+    void serialize(@NonNull Job job, @NonNull BufferedSink sink) throws IOException;
+
+    /**
+     * Reads a Job from the source. The source contains exactly one payload.
+     *
+     * @param source The source to read from. Do not close it.
+     *
+     * @return The Job or null if the payload is empty
+     *
+     * @throws IOException If the Job cannot be read
+     * @throws ClassNotFoundException If the class of the Job cannot be found
+     */
+    @Nullable
+    <T extends Job> T deserialize(@NonNull BufferedSource source)
+            throws IOException, ClassNotFoundException;
+}
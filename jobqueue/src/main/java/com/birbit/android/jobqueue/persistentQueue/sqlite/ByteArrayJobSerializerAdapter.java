@@ -0,0 +1,53 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+
+import java.io.IOException;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * Lets {@link SqliteJobQueue} use a {@link SqliteJobQueue.JobSerializer} that only works with
+ * arrays through the {@link BufferedJobSerializer} methods.
+ */
+class ByteArrayJobSerializerAdapter implements BufferedJobSerializer {
+    private final SqliteJobQueue.JobSerializer delegate;
+
+    ByteArrayJobSerializerAdapter(SqliteJobQueue.JobSerializer delegate) {
+        this.delegate = delegate;
+    }
+
+    static BufferedJobSerializer wrap(SqliteJobQueue.JobSerializer serializer) {
+        if (serializer instanceof BufferedJobSerializer) {
+            return (BufferedJobSerializer) serializer;
+        }
+        return new ByteArrayJobSerializerAdapter(serializer);
+    }
+
+    @Override
+    public void serialize(@NonNull Job job, @NonNull BufferedSink sink) throws IOException {
+        byte[] bytes = delegate.serialize(job);
+        if (bytes != null) {
+            sink.write(bytes);
+        }
+    }
+
+    @Override
+    public <T extends Job> T deserialize(@NonNull BufferedSource source)
+            throws IOException, ClassNotFoundException {
+        return delegate.deserialize(source.readByteArray());
+    }
+
+    @Override
+    public byte[] serialize(Object object) throws IOException {
+        return delegate.serialize(object);
+    }
+
+    @Override
+    public <T extends Job> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return delegate.deserialize(bytes);
+    }
+}
@@ -1,14 +1,19 @@
 package com.birbit.android.jobqueue.persistentQueue.sqlite;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.birbit.android.jobqueue.config.Configuration;
 
 /**
  * Helper class for {@link SqliteJobQueue} to handle database connection
  */
 public class DbOpenHelper extends SQLiteOpenHelper {
-    private static final int DB_VERSION = 11;
+    private static final int DB_VERSION = 13;
     /*package*/ static final String JOB_HOLDER_TABLE_NAME = "job_holder";
     /*package*/ static final String JOB_TAGS_TABLE_NAME = "job_holder_tags";
     /*package*/ static final SqlHelper.Property INSERTION_ORDER_COLUMN = new SqlHelper.Property("insertionOrder", "integer", 0);
@@ -22,6 +27,7 @@ public class DbOpenHelper extends SQLiteOpenHelper {
     /*package*/ static final SqlHelper.Property REQUIRED_NETWORK_TYPE_OLUMN = new SqlHelper.Property("network_type", "integer", 8);
     /*package*/ static final SqlHelper.Property DEADLINE_COLUMN = new SqlHelper.Property("deadline", "integer", 9);
     /*package*/ static final SqlHelper.Property CANCEL_ON_DEADLINE_COLUMN = new SqlHelper.Property("cancel_on_deadline", "integer", 10);
+    /*package*/ static final SqlHelper.Property PAYLOAD_COLUMN = new SqlHelper.Property("payload", "blob", 11);
 
     /*package*/ static final SqlHelper.Property TAGS_ID_COLUMN = new SqlHelper.Property("_id", "integer", 0);
     /*package*/ static final SqlHelper.Property TAGS_JOB_ID_COLUMN = new SqlHelper.Property("job_id", "text", 1, new SqlHelper.ForeignKey(JOB_HOLDER_TABLE_NAME, ID_COLUMN.columnName));
@@ -29,13 +35,81 @@ public class DbOpenHelper extends SQLiteOpenHelper {
 
 
 
-    /*package*/ static final int COLUMN_COUNT = 11;
+    /*package*/ static final int COLUMN_COUNT = 12;
     /*package*/ static final int TAGS_COLUMN_COUNT = 3;
 
     static final String TAG_INDEX_NAME = "TAG_NAME_INDEX";
+    static final String TAG_JOB_ID_INDEX_NAME = "TAG_JOB_ID_INDEX";
+    // matches the ORDER BY of the next job query and includes the columns used in its WHERE
+    // clause so that it can be answered without touching the table.
+    static final String NEXT_JOB_INDEX_NAME = "NEXT_JOB_INDEX";
+    static final String DELAY_UNTIL_INDEX_NAME = "DELAY_UNTIL_INDEX";
+    static final String DEADLINE_INDEX_NAME = "DEADLINE_INDEX";
+    // version that introduced indices on job_holder. Older versions can be upgraded
+    // incrementally, anything before 11 is dropped.
+    private static final int INCREMENTAL_UPGRADE_MIN_VERSION = 11;
+
+    private final boolean writeAheadLogging;
+    private final int synchronous;
+    private final int cacheSizeKb;
+    private final long mmapSize;
 
     public DbOpenHelper(Context context, String name) {
         super(context, name, null, DB_VERSION);
+        writeAheadLogging = false;
+        synchronous = Configuration.SQLITE_SYNCHRONOUS_DEFAULT;
+        cacheSizeKb = 0;
+        mmapSize = -1;
+    }
+
+    public DbOpenHelper(Context context, String name, Configuration configuration) {
+        super(context, name, null, DB_VERSION);
+        writeAheadLogging = configuration.sqliteWriteAheadLogging();
+        synchronous = configuration.getSqliteSynchronous();
+        cacheSizeKb = configuration.getSqliteCacheSizeKb();
+        mmapSize = configuration.getSqliteMmapSize();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // onConfigure is not called before API 16
+            configure(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void configure(SQLiteDatabase db) {
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.enableWriteAheadLogging();
+        }
+        // these only apply to the primary connection which is the one used for writes. In WAL
+        // mode, reads outside transactions may use other connections with platform defaults.
+        if (synchronous != Configuration.SQLITE_SYNCHRONOUS_DEFAULT) {
+            db.execSQL("PRAGMA synchronous = " + synchronous);
+        }
+        if (cacheSizeKb > 0) {
+            // negative values are in kilobytes instead of pages
+            db.execSQL("PRAGMA cache_size = -" + cacheSizeKb);
+        }
+        if (mmapSize >= 0) {
+            // returns the new value so it cannot be run via execSQL. Older versions of sqlite
+            // ignore unknown pragmas.
+            Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + mmapSize, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
     }
 
     @Override
@@ -51,7 +125,8 @@ public class DbOpenHelper extends SQLiteOpenHelper {
                 RUNNING_SESSION_ID_COLUMN,
                 REQUIRED_NETWORK_TYPE_OLUMN,
                 DEADLINE_COLUMN,
-                CANCEL_ON_DEADLINE_COLUMN
+                CANCEL_ON_DEADLINE_COLUMN,
+                PAYLOAD_COLUMN
         );
         sqLiteDatabase.execSQL(createQuery);
 
@@ -63,13 +138,49 @@ public class DbOpenHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + TAG_INDEX_NAME + " ON "
                 + JOB_TAGS_TABLE_NAME + "(" + DbOpenHelper.TAGS_NAME_COLUMN.columnName + ")");
+        createIndices(sqLiteDatabase);
+    }
+
+    private void createIndices(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(SqlHelper.createIndex(TAG_JOB_ID_INDEX_NAME, JOB_TAGS_TABLE_NAME,
+                TAGS_JOB_ID_COLUMN.columnName));
+        // partial indices would be smaller but they need sqlite 3.8.0 (API 21)
+        sqLiteDatabase.execSQL(SqlHelper.createIndex(NEXT_JOB_INDEX_NAME, JOB_HOLDER_TABLE_NAME,
+                PRIORITY_COLUMN.columnName + " DESC",
+                CREATED_NS_COLUMN.columnName,
+                INSERTION_ORDER_COLUMN.columnName,
+                RUNNING_SESSION_ID_COLUMN.columnName,
+                DELAY_UNTIL_NS_COLUMN.columnName,
+                REQUIRED_NETWORK_TYPE_OLUMN.columnName,
+                DEADLINE_COLUMN.columnName,
+                GROUP_ID_COLUMN.columnName,
+                ID_COLUMN.columnName));
+        sqLiteDatabase.execSQL(SqlHelper.createIndex(DELAY_UNTIL_INDEX_NAME, JOB_HOLDER_TABLE_NAME,
+                DELAY_UNTIL_NS_COLUMN.columnName));
+        sqLiteDatabase.execSQL(SqlHelper.createIndex(DEADLINE_INDEX_NAME, JOB_HOLDER_TABLE_NAME,
+                DEADLINE_COLUMN.columnName));
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion >= INCREMENTAL_UPGRADE_MIN_VERSION && oldVersion < newVersion) {
+            if (oldVersion < 12) {
+                // payloads used to live only in files. Keep the existing jobs, SqliteJobQueue
+                // will move their files into this column if it is configured to do so.
+                sqLiteDatabase.execSQL(SqlHelper.addColumn(JOB_HOLDER_TABLE_NAME, PAYLOAD_COLUMN));
+            }
+            if (oldVersion < 13) {
+                createIndices(sqLiteDatabase);
+            }
+            return;
+        }
         sqLiteDatabase.execSQL(SqlHelper.drop(JOB_HOLDER_TABLE_NAME));
         sqLiteDatabase.execSQL(SqlHelper.drop(JOB_TAGS_TABLE_NAME));
         sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + TAG_INDEX_NAME);
+        sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + TAG_JOB_ID_INDEX_NAME);
+        sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + NEXT_JOB_INDEX_NAME);
+        sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + DELAY_UNTIL_INDEX_NAME);
+        sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + DEADLINE_INDEX_NAME);
         onCreate(sqLiteDatabase);
     }
 
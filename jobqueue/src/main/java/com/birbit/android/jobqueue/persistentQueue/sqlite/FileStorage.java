@@ -11,9 +11,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Set;
 
+import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
+import okio.Sink;
+import okio.Source;
 
 /**
  * Provides a toFile based storage to keep jobs.
@@ -62,6 +65,41 @@ class FileStorage {
         }
     }
 
+    /**
+     * Reads the file of the given job into the buffer. Unlike {@link #load(String)}, this does
+     * not allocate an intermediate array or buffer.
+     *
+     * @return True if the file exists and is read, false otherwise
+     */
+    boolean load(String id, Buffer into) throws IOException {
+        final File file = toFile(id);
+        if (!file.exists() || !file.canRead()) {
+            return false;
+        }
+        Source source = Okio.source(file);
+        try {
+            into.writeAll(source);
+        } finally {
+            closeQuitely(source);
+        }
+        return true;
+    }
+
+    /**
+     * Writes all of the given buffer into the file of the job. The buffer is empty when this
+     * method returns.
+     */
+    void save(String id, Buffer data) throws IOException {
+        final File file = toFile(id);
+        Sink sink = Okio.sink(file);
+        try {
+            sink.write(data, data.size());
+            sink.flush();
+        } finally {
+            closeQuitely(sink);
+        }
+    }
+
     private static String filename(String id) {
         return id + EXT;
     }
@@ -14,6 +14,11 @@ public class SqlHelper {
     /**package**/ String FIND_BY_TAG_QUERY;
     /**package**/ String LOAD_ALL_IDS_QUERY;
     /**package**/ String LOAD_TAGS_QUERY;
+    /**package**/ String LOAD_IDS_WITHOUT_PAYLOAD_QUERY;
+    /**package**/ String LOAD_READY_COUNTS_QUERY;
+    /**package**/ String LOAD_ALL_METADATA_QUERY;
+    /**package**/ String LOAD_ALL_TAGS_QUERY;
+    /**package**/ String LOAD_PAYLOAD_QUERY;
 
     private SQLiteStatement insertStatement;
     private SQLiteStatement insertTagsStatement;
@@ -22,6 +27,7 @@ public class SqlHelper {
     private SQLiteStatement deleteJobTagsStatement;
     private SQLiteStatement onJobFetchedForRunningStatement;
     private SQLiteStatement countStatement;
+    private SQLiteStatement updatePayloadStatement;
     final StringBuilder reusedStringBuilder = new StringBuilder();
 
 
@@ -50,6 +56,36 @@ public class SqlHelper {
         LOAD_TAGS_QUERY = "SELECT " + DbOpenHelper.TAGS_NAME_COLUMN.columnName + " FROM "
                 + DbOpenHelper.JOB_TAGS_TABLE_NAME + " WHERE "
                 + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + " = ?";
+        LOAD_IDS_WITHOUT_PAYLOAD_QUERY = "SELECT " + DbOpenHelper.ID_COLUMN.columnName + " FROM "
+                + tableName + " WHERE " + DbOpenHelper.PAYLOAD_COLUMN.columnName + " IS NULL";
+        LOAD_READY_COUNTS_QUERY = "SELECT " + DbOpenHelper.ID_COLUMN.columnName + ", "
+                + DbOpenHelper.GROUP_ID_COLUMN.columnName + ", "
+                + DbOpenHelper.REQUIRED_NETWORK_TYPE_OLUMN.columnName + ", "
+                + DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnName + ", "
+                + DbOpenHelper.DEADLINE_COLUMN.columnName + " FROM " + tableName + " WHERE "
+                + DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnName + " != ?";
+        // every column except the payload, in the same order as the table
+        reusedStringBuilder.setLength(0);
+        reusedStringBuilder.append("SELECT ");
+        for (Property property : new Property[]{
+                DbOpenHelper.INSERTION_ORDER_COLUMN, DbOpenHelper.ID_COLUMN,
+                DbOpenHelper.PRIORITY_COLUMN, DbOpenHelper.GROUP_ID_COLUMN,
+                DbOpenHelper.RUN_COUNT_COLUMN, DbOpenHelper.CREATED_NS_COLUMN,
+                DbOpenHelper.DELAY_UNTIL_NS_COLUMN, DbOpenHelper.RUNNING_SESSION_ID_COLUMN,
+                DbOpenHelper.REQUIRED_NETWORK_TYPE_OLUMN, DbOpenHelper.DEADLINE_COLUMN,
+                DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN}) {
+            if (property.columnIndex > 0) {
+                reusedStringBuilder.append(", ");
+            }
+            reusedStringBuilder.append("`").append(property.columnName).append("`");
+        }
+        reusedStringBuilder.append(" FROM ").append(tableName).append(" ORDER BY ")
+                .append(DbOpenHelper.INSERTION_ORDER_COLUMN.columnName).append(" ASC");
+        LOAD_ALL_METADATA_QUERY = reusedStringBuilder.toString();
+        LOAD_ALL_TAGS_QUERY = "SELECT " + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + ", "
+                + DbOpenHelper.TAGS_NAME_COLUMN.columnName + " FROM " + tagsTableName;
+        LOAD_PAYLOAD_QUERY = "SELECT " + DbOpenHelper.PAYLOAD_COLUMN.columnName + " FROM "
+                + tableName + " WHERE " + DbOpenHelper.ID_COLUMN.columnName + " = ?";
     }
 
     public static String create(String tableName, Property primaryKey, Property... properties) {
@@ -77,6 +113,24 @@ public class SqlHelper {
         return builder.toString();
     }
 
+    public static String addColumn(String tableName, Property property) {
+        return "ALTER TABLE " + tableName + " ADD COLUMN `" + property.columnName + "` "
+                + property.type;
+    }
+
+    public static String createIndex(String indexName, String tableName, String... columns) {
+        StringBuilder builder = new StringBuilder("CREATE INDEX IF NOT EXISTS ");
+        builder.append(indexName).append(" ON ").append(tableName).append("(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(columns[i]);
+        }
+        builder.append(")");
+        return builder.toString();
+    }
+
     public static String drop(String tableName) {
         return "DROP TABLE IF EXISTS " + tableName;
     }
@@ -168,6 +222,60 @@ public class SqlHelper {
         return onJobFetchedForRunningStatement;
     }
 
+    /**
+     * Creates an UPDATE that sets the run count of {@code count} jobs and marks them as running in
+     * the given session. The arguments are the run count and the session id, followed by the job
+     * ids.
+     */
+    public String createMarkAsRunningQuery(int count) {
+        reusedStringBuilder.setLength(0);
+        reusedStringBuilder.append("UPDATE ").append(tableName).append(" SET ")
+                .append(DbOpenHelper.RUN_COUNT_COLUMN.columnName).append(" = ?, ")
+                .append(DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnName).append(" = ?")
+                .append(" WHERE ").append(primaryKeyColumnName).append(" IN (");
+        addPlaceholdersInto(reusedStringBuilder, count);
+        reusedStringBuilder.append(")");
+        return reusedStringBuilder.toString();
+    }
+
+    /**
+     * Creates a SELECT for the job ids and tag names of the tags of {@code count} jobs. The
+     * arguments are the job ids.
+     */
+    public String createLoadTagsQuery(int count) {
+        reusedStringBuilder.setLength(0);
+        reusedStringBuilder.append("SELECT ").append(DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName)
+                .append(", ").append(DbOpenHelper.TAGS_NAME_COLUMN.columnName)
+                .append(" FROM ").append(tagsTableName).append(" WHERE ")
+                .append(DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName).append(" IN (");
+        addPlaceholdersInto(reusedStringBuilder, count);
+        reusedStringBuilder.append(")");
+        return reusedStringBuilder.toString();
+    }
+
+    public SQLiteStatement getUpdatePayloadStatement() {
+        if (updatePayloadStatement == null) {
+            String sql = "UPDATE " + tableName + " SET "
+                    + DbOpenHelper.PAYLOAD_COLUMN.columnName + " = ? "
+                    + " WHERE " + primaryKeyColumnName + " = ? ";
+            updatePayloadStatement = db.compileStatement(sql);
+        }
+        return updatePayloadStatement;
+    }
+
+    public String createSelectTagsOfJobs(String where) {
+        reusedStringBuilder.setLength(0);
+        reusedStringBuilder.append("SELECT ")
+                .append(DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName).append(", ")
+                .append(DbOpenHelper.TAGS_NAME_COLUMN.columnName)
+                .append(" FROM ").append(DbOpenHelper.JOB_TAGS_TABLE_NAME)
+                .append(" WHERE ").append(DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName)
+                .append(" IN (SELECT ").append(primaryKeyColumnName)
+                .append(" FROM ").append(tableName)
+                .append(" WHERE ").append(where).append(")");
+        return reusedStringBuilder.toString();
+    }
+
     public String createSelect(String where, Integer limit, Order... orders) {
         reusedStringBuilder.setLength(0);
         reusedStringBuilder.append("SELECT * FROM ");
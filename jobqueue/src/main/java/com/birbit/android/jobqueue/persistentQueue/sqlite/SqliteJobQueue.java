@@ -6,14 +6,18 @@ import com.birbit.android.jobqueue.JobHolder;
 import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.JobQueue;
 import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.ReadyJobCounter;
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.timer.Timer;
 
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import java.io.ByteArrayInputStream;
@@ -22,46 +26,168 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
 
 /**
  * Persistent Job Queue that keeps its data in an sqlite database.
  */
 public class SqliteJobQueue implements JobQueue {
+    // stays below the default limit of 999 arguments per statement
+    private static final int MAX_IDS_PER_UPDATE = 500;
     @SuppressWarnings("FieldCanBeLocal")
     private DbOpenHelper dbOpenHelper;
     private final long sessionId;
     private SQLiteDatabase db;
     private SqlHelper sqlHelper;
     private JobSerializer jobSerializer;
+    // same as jobSerializer, wrapped if it does not support buffers
+    private final BufferedJobSerializer bufferedJobSerializer;
+    // re-used to serialize jobs into and to load them from files. Accessed only in the job
+    // manager thread like the rest of the queue.
+    private final Buffer payloadBuffer = new Buffer();
     // we keep a list of cancelled jobs in memory not to return them in subsequent find by tag
     // queries. Set is cleaned when item is removed
     private Set<String> pendingCancelations = new HashSet<>();
     private FileStorage jobStorage;
     private final StringBuilder reusedStringBuilder = new StringBuilder();
     private final WhereQueryCache whereQueryCache;
+    // when true, serialized jobs are kept in the payload column instead of the file storage
+    private final boolean inlinePayloads;
+    // when payloads are inlined, the jobs whose files could not be migrated. Their files are
+    // deleted with them.
+    private final Set<String> unmigratedJobIds = new HashSet<>();
+    private final Timer timer;
+    // when positive, state changes of existing jobs are committed together at most this late.
+    // see Configuration.Builder#sqliteGroupCommit
+    private final long groupCommitWindowNs;
+    private boolean inGroupTransaction = false;
+    private long groupStartNs;
+    // files of deleted jobs, removed after the group transaction is committed
+    private final List<String> pendingFileDeletes = new ArrayList<>();
+    // the jobs that are neither running nor cancelled, to count ready jobs w/o a query. Loaded
+    // on the first count that excludes running jobs so that the table is not scanned on start.
+    @Nullable
+    private ReadyJobCounter readyJobCounter;
 
     public SqliteJobQueue(Configuration configuration, long sessionId, JobSerializer serializer) {
         this.sessionId = sessionId;
         jobStorage = new FileStorage(configuration.getAppContext(), "jobs_" + configuration.getId());
         whereQueryCache = new WhereQueryCache(sessionId);
         dbOpenHelper = new DbOpenHelper(configuration.getAppContext(),
-                configuration.isInTestMode() ? null : ("db_" + configuration.getId()));
+                configuration.isInTestMode() ? null : ("db_" + configuration.getId()),
+                configuration);
         db = dbOpenHelper.getWritableDatabase();
         sqlHelper = new SqlHelper(db, DbOpenHelper.JOB_HOLDER_TABLE_NAME,
                 DbOpenHelper.ID_COLUMN.columnName, DbOpenHelper.COLUMN_COUNT,
                 DbOpenHelper.JOB_TAGS_TABLE_NAME, DbOpenHelper.TAGS_COLUMN_COUNT, sessionId);
         this.jobSerializer = serializer;
+        bufferedJobSerializer = ByteArrayJobSerializerAdapter.wrap(serializer);
+        inlinePayloads = configuration.inlineJobPayloads();
+        timer = configuration.getTimer();
+        groupCommitWindowNs = TimeUnit.MILLISECONDS.toNanos(
+                configuration.getSqliteGroupCommitWindowMs());
         if (configuration.resetDelaysOnRestart()) {
             sqlHelper.resetDelayTimesTo(JobManager.NOT_DELAYED_JOB_DELAY);
         }
+        if (inlinePayloads) {
+            migratePayloadsFromFiles();
+        }
         cleanupFiles();
     }
 
+    private ReadyJobCounter loadReadyJobCounts() {
+        final ReadyJobCounter counter = new ReadyJobCounter();
+        Cursor cursor = db.rawQuery(sqlHelper.LOAD_READY_COUNTS_QUERY,
+                new String[]{Long.toString(sessionId)});
+        try {
+            while (cursor.moveToNext()) {
+                final String id = cursor.getString(0);
+                if (pendingCancelations.contains(id)) {
+                    continue;
+                }
+                //noinspection WrongConstant
+                counter.add(id, cursor.getString(1), cursor.getInt(2), cursor.getLong(3),
+                        cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counter;
+    }
+
+    /**
+     * Moves the payloads of jobs that were saved into files by a previous version (or while
+     * {@link Configuration#inlineJobPayloads()} was disabled) into the payload column.
+     * <p>
+     * Files that cannot be read are left alone. Such jobs will fail to load and will be removed
+     * just like before.
+     */
+    private void migratePayloadsFromFiles() {
+        Cursor cursor = db.rawQuery(sqlHelper.LOAD_IDS_WITHOUT_PAYLOAD_QUERY, null);
+        Set<String> jobIds = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                jobIds.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (jobIds.isEmpty()) {
+            return;
+        }
+        final SQLiteStatement stmt = sqlHelper.getUpdatePayloadStatement();
+        final Set<String> unmigrated = new HashSet<>();
+        int migrated = 0;
+        db.beginTransaction();
+        try {
+            for (String id : jobIds) {
+                byte[] payload;
+                try {
+                    payload = jobStorage.load(id);
+                } catch (IOException e) {
+                    JqLog.e(e, "cannot migrate job %s from disk", id);
+                    unmigrated.add(id);
+                    continue;
+                }
+                if (payload == null) {
+                    unmigrated.add(id);
+                    continue;
+                }
+                stmt.clearBindings();
+                stmt.bindBlob(1, payload);
+                stmt.bindString(2, id);
+                stmt.execute();
+                migrated++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        unmigratedJobIds.addAll(unmigrated);
+        JqLog.d("migrated %d jobs from files into the database", migrated);
+    }
+
     private void cleanupFiles() {
-        Cursor cursor = db.rawQuery(sqlHelper.LOAD_ALL_IDS_QUERY, null);
+        if (inlinePayloads) {
+            // rows that could not be migrated keep their files so that they can still be loaded
+            // (or fail to load) the same way.
+            truncateFilesExcept(sqlHelper.LOAD_IDS_WITHOUT_PAYLOAD_QUERY);
+        } else {
+            truncateFilesExcept(sqlHelper.LOAD_ALL_IDS_QUERY);
+        }
+    }
+
+    private void truncateFilesExcept(String idsQuery) {
+        Cursor cursor = db.rawQuery(idsQuery, null);
         Set<String> jobIds = new HashSet<>();
         try {
             while (cursor.moveToNext()) {
@@ -83,46 +209,165 @@ public class SqliteJobQueue implements JobQueue {
      */
     @Override
     public boolean insert(@NonNull JobHolder jobHolder) {
-        persistJobToDisk(jobHolder);
+        return insert(jobHolder, null);
+    }
+
+    /**
+     * Same as {@link #insert(JobHolder)}. If serializedJob is not null, it is saved instead of
+     * serializing the Job of the holder.
+     */
+    boolean insert(@NonNull JobHolder jobHolder, @Nullable byte[] serializedJob) {
+        // new jobs are never deferred, the caller reports them as added
+        flush();
+        final byte[] payload = persistJob(jobHolder, serializedJob);
         if (jobHolder.hasTags()) {
-            return insertWithTags(jobHolder);
+            return insertWithTags(jobHolder, payload);
         }
         final SQLiteStatement stmt = sqlHelper.getInsertStatement();
         stmt.clearBindings();
-        bindValues(stmt, jobHolder);
+        bindValues(stmt, jobHolder, payload);
         long insertId = stmt.executeInsert();
         // insert id is a alias to row_id
         jobHolder.setInsertionOrder(insertId);
-        return insertId != -1;
+        if (insertId == -1) {
+            return false;
+        }
+        if (readyJobCounter != null) {
+            readyJobCounter.add(jobHolder);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All jobs and their tags are written in a single transaction. If any of them fails, none of
+     * them is added.
+     */
+    @Override
+    public boolean insertAll(@NonNull List<JobHolder> jobHolders) {
+        return insertAll(jobHolders, null);
+    }
+
+    /**
+     * Same as {@link #insertAll(List)}. If serializedJobs is not null, it has the serialized Job
+     * of each holder, in the same order, which are saved instead of serializing the Jobs.
+     */
+    boolean insertAll(@NonNull List<JobHolder> jobHolders, @Nullable List<byte[]> serializedJobs) {
+        flush();
+        final SQLiteStatement stmt = sqlHelper.getInsertStatement();
+        final SQLiteStatement tagsStmt = sqlHelper.getInsertTagsStatement();
+        // insertion orders are assigned only after the transaction succeeds so that holders of a
+        // rolled back batch are not left with ids of rows that do not exist.
+        final long[] insertIds = new long[jobHolders.size()];
+        // number of jobs whose payload may have been written to disk
+        int persisted = 0;
+        boolean success = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < jobHolders.size(); i++) {
+                final JobHolder jobHolder = jobHolders.get(i);
+                persisted = i + 1;
+                final byte[] payload = persistJob(jobHolder,
+                        serializedJobs == null ? null : serializedJobs.get(i));
+                stmt.clearBindings();
+                bindValues(stmt, jobHolder, payload);
+                long insertId;
+                try {
+                    insertId = stmt.executeInsert();
+                } catch (SQLiteConstraintException e) {
+                    JqLog.e(e, "cannot insert job %s, rejecting the batch", jobHolder.getId());
+                    insertId = -1;
+                }
+                if (insertId == -1) {
+                    return false;
+                }
+                insertIds[i] = insertId;
+                if (jobHolder.hasTags()) {
+                    for (String tag : jobHolder.getTags()) {
+                        tagsStmt.clearBindings();
+                        bindTag(tagsStmt, jobHolder.getId(), tag);
+                        tagsStmt.executeInsert();
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success && !inlinePayloads) {
+                for (int i = 0; i < persisted; i++) {
+                    jobStorage.delete(jobHolders.get(i).getId());
+                }
+            }
+        }
+        for (int i = 0; i < jobHolders.size(); i++) {
+            final JobHolder jobHolder = jobHolders.get(i);
+            jobHolder.setInsertionOrder(insertIds[i]);
+            if (readyJobCounter != null) {
+                readyJobCounter.add(jobHolder);
+            }
+        }
+        return true;
     }
 
-    private void persistJobToDisk(@NonNull JobHolder jobHolder) {
+    /**
+     * Serializes the job. If payloads are not inlined, it is also saved to disk.
+     *
+     * @param serializedJob The already serialized job or null if it should be serialized
+     * @return The payload to be saved into the database or null if it is saved into a file.
+     */
+    @Nullable
+    private byte[] persistJob(@NonNull JobHolder jobHolder, @Nullable byte[] serializedJob) {
         try {
-            jobStorage.save(jobHolder.getId(), jobSerializer.serialize(jobHolder.getJob()));
+            if (inlinePayloads) {
+                return serializedJob != null ? serializedJob
+                        : jobSerializer.serialize(jobHolder.getJob());
+            }
+            if (serializedJob != null) {
+                jobStorage.save(jobHolder.getId(), serializedJob);
+                return null;
+            }
+            payloadBuffer.clear();
+            bufferedJobSerializer.serialize(jobHolder.getJob(), payloadBuffer);
+            jobStorage.save(jobHolder.getId(), payloadBuffer);
+            return null;
         } catch (IOException e) {
             throw new RuntimeException("cannot save job to disk", e);
+        } finally {
+            payloadBuffer.clear();
         }
     }
 
     @Override
     public void substitute(@NonNull JobHolder newJob, @NonNull JobHolder oldJob) {
+        substitute(newJob, null, oldJob);
+    }
+
+    /**
+     * Same as {@link #substitute(JobHolder, JobHolder)}. If serializedNewJob is not null, it is
+     * saved instead of serializing the Job of the new holder.
+     */
+    void substitute(@NonNull JobHolder newJob, @Nullable byte[] serializedNewJob,
+            @NonNull JobHolder oldJob) {
+        flush();
         db.beginTransaction();
         try {
-            remove(oldJob);
-            insert(newJob);
+            delete(oldJob.getId(), false);
+            insert(newJob, serializedNewJob);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
     }
 
-    private boolean insertWithTags(JobHolder jobHolder) {
+    private boolean insertWithTags(JobHolder jobHolder, byte[] payload) {
         final SQLiteStatement stmt = sqlHelper.getInsertStatement();
         final SQLiteStatement tagsStmt = sqlHelper.getInsertTagsStatement();
         db.beginTransaction();
         try {
             stmt.clearBindings();
-            bindValues(stmt, jobHolder);
+            bindValues(stmt, jobHolder, payload);
             boolean insertResult = stmt.executeInsert() != -1;
             if (!insertResult) {
                 return false;
@@ -133,6 +378,9 @@ public class SqliteJobQueue implements JobQueue {
                 tagsStmt.executeInsert();
             }
             db.setTransactionSuccessful();
+            if (readyJobCounter != null) {
+                readyJobCounter.add(jobHolder);
+            }
             return true;
         } catch (Throwable t) {
             JqLog.e(t, "error while inserting job with tags");
@@ -148,7 +396,7 @@ public class SqliteJobQueue implements JobQueue {
         stmt.bindString(DbOpenHelper.TAGS_NAME_COLUMN.columnIndex + 1, tag);
     }
 
-    private void bindValues(SQLiteStatement stmt, JobHolder jobHolder) {
+    private void bindValues(SQLiteStatement stmt, JobHolder jobHolder, byte[] payload) {
         if (jobHolder.getInsertionOrder() != null) {
             stmt.bindLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex + 1, jobHolder.getInsertionOrder());
         }
@@ -168,6 +416,9 @@ public class SqliteJobQueue implements JobQueue {
                 jobHolder.getDeadlineNs());
         stmt.bindLong(DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN.columnIndex + 1,
                 jobHolder.shouldCancelOnDeadline() ? 1 : 0);
+        if (payload != null) {
+            stmt.bindBlob(DbOpenHelper.PAYLOAD_COLUMN.columnIndex + 1, payload);
+        }
     }
 
     /**
@@ -175,16 +426,30 @@ public class SqliteJobQueue implements JobQueue {
      */
     @Override
     public boolean insertOrReplace(@NonNull JobHolder jobHolder) {
+        return insertOrReplace(jobHolder, null);
+    }
+
+    /**
+     * Same as {@link #insertOrReplace(JobHolder)}. If serializedJob is not null, it is saved
+     * instead of serializing the Job of the holder.
+     */
+    boolean insertOrReplace(@NonNull JobHolder jobHolder, @Nullable byte[] serializedJob) {
         if (jobHolder.getInsertionOrder() == null) {
-            return insert(jobHolder);
+            return insert(jobHolder, serializedJob);
         }
-        persistJobToDisk(jobHolder);
+        final byte[] payload = persistJob(jobHolder, serializedJob);
         jobHolder.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
+        beginDeferredWrite();
         SQLiteStatement stmt = sqlHelper.getInsertOrReplaceStatement();
         stmt.clearBindings();
-        bindValues(stmt, jobHolder);
+        bindValues(stmt, jobHolder, payload);
         boolean result = stmt.executeInsert() != -1;
         JqLog.d("reinsert job result %s", result);
+        endDeferredWrite();
+        if (result && readyJobCounter != null
+                && !pendingCancelations.contains(jobHolder.getId())) {
+            readyJobCounter.add(jobHolder);
+        }
         return result;
     }
 
@@ -197,23 +462,107 @@ public class SqliteJobQueue implements JobQueue {
     }
 
     private void delete(String id) {
+        delete(id, groupCommitWindowNs > 0);
+    }
+
+    private void delete(String id, boolean deferred) {
         pendingCancelations.remove(id);
+        if (readyJobCounter != null) {
+            readyJobCounter.remove(id);
+        }
+        if (deferred) {
+            beginDeferredWrite();
+            deleteRows(id);
+            if (hasFile(id)) {
+                pendingFileDeletes.add(id);
+            }
+            endDeferredWrite();
+            return;
+        }
         db.beginTransaction();
         try {
-            SQLiteStatement stmt = sqlHelper.getDeleteStatement();
-            stmt.clearBindings();
-            stmt.bindString(1, id);
-            stmt.execute();
-            SQLiteStatement deleteTagsStmt = sqlHelper.getDeleteJobTagsStatement();
-            deleteTagsStmt.bindString(1, id);
-            deleteTagsStmt.execute();
+            deleteRows(id);
             db.setTransactionSuccessful();
-            jobStorage.delete(id);
+            if (hasFile(id)) {
+                jobStorage.delete(id);
+            }
         } finally {
             db.endTransaction();
         }
     }
 
+    /**
+     * @return True if the job was saved into a file, which should be deleted with it. Also
+     * forgets the job if it was not migrated from its file.
+     */
+    private boolean hasFile(String id) {
+        return !inlinePayloads || unmigratedJobIds.remove(id);
+    }
+
+    private void deleteRows(String id) {
+        SQLiteStatement stmt = sqlHelper.getDeleteStatement();
+        stmt.clearBindings();
+        stmt.bindString(1, id);
+        stmt.execute();
+        SQLiteStatement deleteTagsStmt = sqlHelper.getDeleteJobTagsStatement();
+        deleteTagsStmt.bindString(1, id);
+        deleteTagsStmt.execute();
+    }
+
+    /**
+     * Starts the group transaction if group commit is enabled and it is not started yet.
+     * Statements executed until {@link #flush()} are committed together.
+     */
+    private void beginDeferredWrite() {
+        if (groupCommitWindowNs <= 0 || inGroupTransaction) {
+            return;
+        }
+        db.beginTransaction();
+        inGroupTransaction = true;
+        groupStartNs = timer.nanoTime();
+    }
+
+    private void endDeferredWrite() {
+        if (inGroupTransaction && timer.nanoTime() - groupStartNs >= groupCommitWindowNs) {
+            flush();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Commits the state changes deferred by group commit, if any.
+     */
+    @Override
+    public void flush() {
+        if (!inGroupTransaction) {
+            return;
+        }
+        inGroupTransaction = false;
+        try {
+            try {
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            for (String id : pendingFileDeletes) {
+                jobStorage.delete(id);
+            }
+        } finally {
+            pendingFileDeletes.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Commits the state changes deferred by group commit, if any.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -225,8 +574,23 @@ public class SqliteJobQueue implements JobQueue {
         return (int) stmt.simpleQueryForLong();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts that exclude running jobs are answered from memory when possible, see
+     * {@link ReadyJobCounter}.
+     */
     @Override
     public int countReadyJobs(@NonNull Constraint constraint) {
+        if (constraint.excludeRunning()) {
+            if (readyJobCounter == null) {
+                readyJobCounter = loadReadyJobCounts();
+            }
+            final int count = readyJobCounter.count(constraint);
+            if (count != ReadyJobCounter.UNKNOWN) {
+                return count;
+            }
+        }
         final Where where = createWhere(constraint);
         final long result = where.countReady(db, reusedStringBuilder).simpleQueryForLong();
         return (int) result;
@@ -242,7 +606,7 @@ public class SqliteJobQueue implements JobQueue {
             if(!cursor.moveToFirst()) {
                 return null;
             }
-            return createJobHolderFromCursor(cursor);
+            return createJobHolderFromCursor(cursor, null, true);
         } catch (InvalidJobException e) {
             JqLog.e(e, "invalid job on findJobById");
             return null;
@@ -255,12 +619,18 @@ public class SqliteJobQueue implements JobQueue {
     @Override
     public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
         final Where where = createWhere(constraint);
+        // load tags of all matching jobs at once instead of querying them for each row
+        final Map<String, Set<String>> tags = loadTags(where);
         String selectQuery = where.findJobs(sqlHelper);
         Cursor cursor = db.rawQuery(selectQuery, where.args);
         Set<JobHolder> jobs = new HashSet<>();
         try {
             while (cursor.moveToNext()) {
-                jobs.add(createJobHolderFromCursor(cursor));
+                String jobId = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
+                Set<String> jobTags = tags.get(jobId);
+                //noinspection unchecked
+                jobs.add(createJobHolderFromCursor(cursor,
+                        jobTags == null ? Collections.EMPTY_SET : jobTags, true));
             }
         } catch (InvalidJobException e) {
             JqLog.e(e, "invalid job found by tags.");
@@ -283,12 +653,17 @@ public class SqliteJobQueue implements JobQueue {
     @Override
     public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
         final Where where = createWhere(constraint);
-        //we can even keep these prepared but not sure the cost of them in db layer
-        final String selectQuery = where.nextJob(sqlHelper);
         while (true) {
-            Cursor cursor = db.rawQuery(selectQuery, where.args);
+            final String jobId;
+            try {
+                jobId = where.nextJobId(db, sqlHelper).simpleQueryForString();
+            } catch (SQLiteDoneException empty) {
+                return null;
+            }
+            Cursor cursor = db.rawQuery(sqlHelper.FIND_BY_ID_QUERY, new String[]{jobId});
             try {
                 if (!cursor.moveToNext()) {
+                    // should not happen since we are the only writer
                     return null;
                 }
                 JobHolder holder = createJobHolderFromCursor(cursor);
@@ -296,16 +671,66 @@ public class SqliteJobQueue implements JobQueue {
                 return holder;
             } catch (InvalidJobException e) {
                 //delete
-                String jobId = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
-                if (jobId == null) {
-                    JqLog.e("cannot find job id on a retriewed job");
-                } else {
-                    delete(jobId);
+                delete(jobId);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The jobs are read with one query, unless jobs of the same group fill the first page of
+     * results, and they are marked as running with one UPDATE.
+     */
+    @NonNull
+    @Override
+    public List<JobHolder> nextJobsAndIncRunCount(@NonNull Constraint constraint, int max) {
+        final List<JobHolder> result = new ArrayList<>(Math.max(max, 0));
+        if (max <= 0) {
+            return result;
+        }
+        final Where where = createWhere(constraint);
+        final String query = where.nextJobs(sqlHelper);
+        final Set<String> groups = new HashSet<>();
+        int offset = 0;
+        boolean hasMoreRows = true;
+        while (hasMoreRows && result.size() < max) {
+            Cursor cursor = db.rawQuery(query + " LIMIT " + max + " OFFSET " + offset, where.args);
+            try {
+                hasMoreRows = cursor.getCount() == max;
+                final Map<String, Set<String>> tags = loadTagsOfPage(cursor);
+                while (result.size() < max && cursor.moveToNext()) {
+                    offset++;
+                    final String groupId = cursor.getString(
+                            DbOpenHelper.GROUP_ID_COLUMN.columnIndex);
+                    if (groupId != null && !groups.add(groupId)) {
+                        continue;
+                    }
+                    try {
+                        final Set<String> jobTags = tags.get(
+                                cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex));
+                        //noinspection unchecked
+                        result.add(createJobHolderFromCursor(cursor,
+                                jobTags == null ? Collections.EMPTY_SET : jobTags, false));
+                    } catch (InvalidJobException e) {
+                        //delete, the next job of its group can run instead
+                        delete(cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex));
+                        offset--;
+                        if (groupId != null) {
+                            groups.remove(groupId);
+                        }
+                    }
                 }
             } finally {
                 cursor.close();
             }
         }
+        if (!result.isEmpty()) {
+            markAllAsRunning(result);
+        }
+        return result;
     }
 
     private Where createWhere(Constraint constraint) {
@@ -331,7 +756,12 @@ public class SqliteJobQueue implements JobQueue {
      */
     @Override
     public void clear() {
+        flush();
         sqlHelper.truncate();
+        unmigratedJobIds.clear();
+        if (readyJobCounter != null) {
+            readyJobCounter.clear();
+        }
         cleanupFiles();
     }
 
@@ -344,14 +774,165 @@ public class SqliteJobQueue implements JobQueue {
      * @param jobHolder The job holder to update session id
      */
     private void setSessionIdOnJob(JobHolder jobHolder) {
-        SQLiteStatement stmt = sqlHelper.getOnJobFetchedForRunningStatement();
         jobHolder.setRunCount(jobHolder.getRunCount() + 1);
         jobHolder.setRunningSessionId(sessionId);
+        markAsRunning(jobHolder.getId(), jobHolder.getRunCount());
+    }
+
+    /**
+     * Marks the job with the given id as running in this session, the same way
+     * {@link #nextJobAndIncRunCount(Constraint)} does for the job it returns.
+     *
+     * @param id The id of the job
+     * @param runCount The new run count of the job
+     */
+    void markAsRunning(@NonNull String id, int runCount) {
+        beginDeferredWrite();
+        SQLiteStatement stmt = sqlHelper.getOnJobFetchedForRunningStatement();
+        if (readyJobCounter != null) {
+            readyJobCounter.remove(id);
+        }
         stmt.clearBindings();
-        stmt.bindLong(1, jobHolder.getRunCount());
+        stmt.bindLong(1, runCount);
         stmt.bindLong(2, sessionId);
-        stmt.bindString(3, jobHolder.getId());
+        stmt.bindString(3, id);
         stmt.execute();
+        endDeferredWrite();
+    }
+
+    /**
+     * Increments the run count of the given jobs and marks them as running in this session, see
+     * {@link #markAllAsRunning(String[], int[])}.
+     */
+    private void markAllAsRunning(List<JobHolder> holders) {
+        final String[] ids = new String[holders.size()];
+        final int[] runCounts = new int[holders.size()];
+        for (int i = 0; i < ids.length; i++) {
+            JobHolder holder = holders.get(i);
+            holder.setRunCount(holder.getRunCount() + 1);
+            holder.setRunningSessionId(sessionId);
+            ids[i] = holder.getId();
+            runCounts[i] = holder.getRunCount();
+        }
+        markAllAsRunning(ids, runCounts);
+    }
+
+    /**
+     * Marks the jobs with the given ids as running in this session, the same way
+     * {@link #markAsRunning(String, int)} does for each of them. Jobs that have the same new run
+     * count, usually all of them, are updated with one UPDATE per {@link #MAX_IDS_PER_UPDATE} jobs.
+     *
+     * @param ids The ids of the jobs
+     * @param runCounts The new run count of each job, in the same order
+     */
+    void markAllAsRunning(@NonNull String[] ids, @NonNull int[] runCounts) {
+        final Map<Integer, List<String>> idsByRunCount = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            List<String> sameRunCount = idsByRunCount.get(runCounts[i]);
+            if (sameRunCount == null) {
+                sameRunCount = new ArrayList<>();
+                idsByRunCount.put(runCounts[i], sameRunCount);
+            }
+            sameRunCount.add(ids[i]);
+            if (readyJobCounter != null) {
+                readyJobCounter.remove(ids[i]);
+            }
+        }
+        beginDeferredWrite();
+        for (Map.Entry<Integer, List<String>> entry : idsByRunCount.entrySet()) {
+            final List<String> sameRunCount = entry.getValue();
+            for (int start = 0; start < sameRunCount.size(); start += MAX_IDS_PER_UPDATE) {
+                final int count = Math.min(MAX_IDS_PER_UPDATE, sameRunCount.size() - start);
+                final Object[] args = new Object[count + 2];
+                args[0] = entry.getKey();
+                args[1] = sessionId;
+                for (int i = 0; i < count; i++) {
+                    args[i + 2] = sameRunCount.get(start + i);
+                }
+                db.execSQL(sqlHelper.createMarkAsRunningQuery(count), args);
+            }
+        }
+        endDeferredWrite();
+    }
+
+    /**
+     * Loads the metadata of all jobs in the database, ordered by insertion order. Jobs are not
+     * deserialized until {@link JobHolder#getJob()} is called, see {@link #loadJob(String)}.
+     */
+    @NonNull
+    List<JobHolder> loadJobsLazily() {
+        final Map<String, Set<String>> tags = new HashMap<>();
+        Cursor cursor = db.rawQuery(sqlHelper.LOAD_ALL_TAGS_QUERY, null);
+        try {
+            while (cursor.moveToNext()) {
+                String jobId = cursor.getString(0);
+                Set<String> jobTags = tags.get(jobId);
+                if (jobTags == null) {
+                    jobTags = new HashSet<>();
+                    tags.put(jobId, jobTags);
+                }
+                jobTags.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        final List<JobHolder> holders = new ArrayList<>();
+        cursor = db.rawQuery(sqlHelper.LOAD_ALL_METADATA_QUERY, null);
+        try {
+            while (cursor.moveToNext()) {
+                final String jobId = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
+                final Set<String> jobTags = tags.get(jobId);
+                //noinspection WrongConstant,unchecked
+                holders.add(new JobHolder.Builder()
+                        .insertionOrder(cursor.getLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex))
+                        .priority(cursor.getInt(DbOpenHelper.PRIORITY_COLUMN.columnIndex))
+                        .groupId(cursor.getString(DbOpenHelper.GROUP_ID_COLUMN.columnIndex))
+                        .runCount(cursor.getInt(DbOpenHelper.RUN_COUNT_COLUMN.columnIndex))
+                        .jobLoader(new StoredJobLoader(jobId))
+                        .id(jobId)
+                        .tags(jobTags == null ? Collections.EMPTY_SET : jobTags)
+                        .persistent(true)
+                        .deadline(cursor.getLong(DbOpenHelper.DEADLINE_COLUMN.columnIndex),
+                                cursor.getInt(DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN.columnIndex) == 1)
+                        .createdNs(cursor.getLong(DbOpenHelper.CREATED_NS_COLUMN.columnIndex))
+                        .delayUntilNs(cursor.getLong(DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnIndex))
+                        .runningSessionId(cursor.getLong(DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnIndex))
+                        .requiredNetworkType(cursor.getInt(DbOpenHelper.REQUIRED_NETWORK_TYPE_OLUMN.columnIndex))
+                        .build());
+            }
+        } finally {
+            cursor.close();
+        }
+        return holders;
+    }
+
+    /**
+     * Loads and deserializes the job with the given id. Unlike the rest of the queue, this method
+     * can be called from any thread.
+     *
+     * @return The job or null if it does not exist or cannot be deserialized
+     */
+    @Nullable
+    Job loadJob(@NonNull String id) {
+        byte[] payload;
+        Cursor cursor = db.rawQuery(sqlHelper.LOAD_PAYLOAD_QUERY, new String[]{id});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            payload = cursor.getBlob(0);
+        } finally {
+            cursor.close();
+        }
+        if (payload == null) {
+            try {
+                payload = jobStorage.load(id);
+            } catch (IOException e) {
+                JqLog.e(e, "cannot load job %s from disk", id);
+                return null;
+            }
+        }
+        return payload == null ? null : safeDeserialize(payload);
     }
 
     @SuppressWarnings("unused")
@@ -402,18 +983,47 @@ public class SqliteJobQueue implements JobQueue {
     }
 
     private JobHolder createJobHolderFromCursor(Cursor cursor) throws InvalidJobException {
+        return createJobHolderFromCursor(cursor, null, false);
+    }
+
+    /**
+     * @param tags The tags of the job or null if they should be loaded from the database
+     * @param lazy If true, the payload is read but the job is not deserialized until
+     *             {@link JobHolder#getJob()} is called. Used when callers usually need only the
+     *             metadata of the job.
+     */
+    private JobHolder createJobHolderFromCursor(Cursor cursor, Set<String> tags, boolean lazy)
+            throws InvalidJobException {
         String jobId = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
-        Job job;
+        Job job = null;
+        JobHolder.JobLoader jobLoader = null;
         try {
-            job = safeDeserialize(jobStorage.load(jobId));
+            byte[] payload = cursor.getBlob(DbOpenHelper.PAYLOAD_COLUMN.columnIndex);
+            if (lazy) {
+                if (payload == null) {
+                    payload = jobStorage.load(jobId);
+                }
+                if (payload != null) {
+                    jobLoader = new PayloadJobLoader(payload);
+                }
+            } else if (payload != null) {
+                job = safeDeserialize(payload);
+            } else {
+                payloadBuffer.clear();
+                job = jobStorage.load(jobId, payloadBuffer) ? safeDeserialize(payloadBuffer)
+                        : null;
+            }
         } catch (IOException e) {
             throw new InvalidJobException("cannot load job from disk", e);
+        } finally {
+            payloadBuffer.clear();
         }
-        if (job == null) {
+        if (job == null && jobLoader == null) {
             throw new InvalidJobException("null job");
         }
-        // load tags
-        Set<String> tags = loadTags(jobId);
+        if (tags == null) {
+            tags = loadTags(jobId);
+        }
         //noinspection WrongConstant,UnnecessaryLocalVariable
         JobHolder holder = new JobHolder.Builder()
                 .insertionOrder(cursor.getLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex))
@@ -421,6 +1031,7 @@ public class SqliteJobQueue implements JobQueue {
                 .groupId(cursor.getString(DbOpenHelper.GROUP_ID_COLUMN.columnIndex))
                 .runCount(cursor.getInt(DbOpenHelper.RUN_COUNT_COLUMN.columnIndex))
                 .job(job)
+                .jobLoader(jobLoader)
                 .id(jobId)
                 .tags(tags)
                 .persistent(true)
@@ -451,6 +1062,57 @@ public class SqliteJobQueue implements JobQueue {
         }
     }
 
+    private Map<String, Set<String>> loadTags(Where where) {
+        Cursor cursor = db.rawQuery(where.findJobTags(sqlHelper), where.args);
+        try {
+            final Map<String, Set<String>> tags = new HashMap<>();
+            while (cursor.moveToNext()) {
+                String jobId = cursor.getString(0);
+                Set<String> jobTags = tags.get(jobId);
+                if (jobTags == null) {
+                    jobTags = new HashSet<>();
+                    tags.put(jobId, jobTags);
+                }
+                jobTags.add(cursor.getString(1));
+            }
+            return tags;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Loads the tags of the jobs in the given page of job rows with one query per
+     * {@link #MAX_IDS_PER_UPDATE} jobs. The cursor is moved back before its first row.
+     */
+    private Map<String, Set<String>> loadTagsOfPage(Cursor page) {
+        final List<String> ids = new ArrayList<>(page.getCount());
+        while (page.moveToNext()) {
+            ids.add(page.getString(DbOpenHelper.ID_COLUMN.columnIndex));
+        }
+        page.moveToPosition(-1);
+        final Map<String, Set<String>> tags = new HashMap<>();
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_UPDATE) {
+            final int count = Math.min(MAX_IDS_PER_UPDATE, ids.size() - start);
+            final String[] args = ids.subList(start, start + count).toArray(new String[count]);
+            Cursor cursor = db.rawQuery(sqlHelper.createLoadTagsQuery(count), args);
+            try {
+                while (cursor.moveToNext()) {
+                    String jobId = cursor.getString(0);
+                    Set<String> jobTags = tags.get(jobId);
+                    if (jobTags == null) {
+                        jobTags = new HashSet<>();
+                        tags.put(jobId, jobTags);
+                    }
+                    jobTags.add(cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return tags;
+    }
+
     private Job safeDeserialize(byte[] bytes) {
         try {
             return jobSerializer.deserialize(bytes);
@@ -460,6 +1122,47 @@ public class SqliteJobQueue implements JobQueue {
         return null;
     }
 
+    private Job safeDeserialize(Buffer buffer) {
+        try {
+            return bufferedJobSerializer.deserialize(buffer);
+        } catch (Throwable t) {
+            JqLog.e(t, "error while deserializing job");
+        }
+        return null;
+    }
+
+    /**
+     * Deserializes the payload of a job when the job is first needed.
+     */
+    private class PayloadJobLoader implements JobHolder.JobLoader {
+        private final byte[] payload;
+
+        PayloadJobLoader(byte[] payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public Job load() {
+            return safeDeserialize(payload);
+        }
+    }
+
+    /**
+     * Loads a job that was loaded w/o its payload by {@link #loadJobsLazily()}.
+     */
+    private class StoredJobLoader implements JobHolder.JobLoader {
+        private final String id;
+
+        StoredJobLoader(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Job load() {
+            return loadJob(id);
+        }
+    }
+
     @SuppressWarnings("WeakerAccess")
     static class InvalidJobException extends Exception {
         InvalidJobException(String detailMessage) {
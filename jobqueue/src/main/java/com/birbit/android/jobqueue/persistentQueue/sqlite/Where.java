@@ -14,8 +14,10 @@ public class Where {
 
     private SQLiteStatement countReadyStmt;
     private String findJobsQuery;
+    private String findJobTagsQuery;
     private SQLiteStatement nextJobDelayUntilStmt;
-    private String nextJobQuery;
+    private SQLiteStatement nextJobIdStmt;
+    private String nextJobsQuery;
     static final String NEVER = Long.toString(Params.NEVER);
     static final String FOREVER = Long.toString(Params.FOREVER);
 
@@ -27,20 +29,7 @@ public class Where {
 
     public SQLiteStatement countReady(SQLiteDatabase database, StringBuilder stringBuilder) {
         if (countReadyStmt == null) {
-            stringBuilder.setLength(0);
-            stringBuilder.append("SELECT SUM(case WHEN ")
-                    .append(DbOpenHelper.GROUP_ID_COLUMN.columnName)
-                    .append(" is null then group_cnt else 1 end) from (")
-                        .append("SELECT count(*) group_cnt, ")
-                        .append(DbOpenHelper.GROUP_ID_COLUMN.columnName)
-                        .append(" FROM ")
-                        .append(DbOpenHelper.JOB_HOLDER_TABLE_NAME)
-                        .append(" WHERE ")
-                        .append(query)
-                        .append(" GROUP BY ")
-                        .append(DbOpenHelper.GROUP_ID_COLUMN.columnName)
-                    .append(")");
-            countReadyStmt = database.compileStatement(stringBuilder.toString());
+            countReadyStmt = database.compileStatement(createCountReadyQuery(stringBuilder));
         } else {
             countReadyStmt.clearBindings();
         }
@@ -50,28 +39,27 @@ public class Where {
         return countReadyStmt;
     }
 
+    String createCountReadyQuery(StringBuilder stringBuilder) {
+        stringBuilder.setLength(0);
+        stringBuilder.append("SELECT SUM(case WHEN ")
+                .append(DbOpenHelper.GROUP_ID_COLUMN.columnName)
+                .append(" is null then group_cnt else 1 end) from (")
+                    .append("SELECT count(*) group_cnt, ")
+                    .append(DbOpenHelper.GROUP_ID_COLUMN.columnName)
+                    .append(" FROM ")
+                    .append(DbOpenHelper.JOB_HOLDER_TABLE_NAME)
+                    .append(" WHERE ")
+                    .append(query)
+                    .append(" GROUP BY ")
+                    .append(DbOpenHelper.GROUP_ID_COLUMN.columnName)
+                .append(")");
+        return stringBuilder.toString();
+    }
+
     public SQLiteStatement nextJobDelayUntil(SQLiteDatabase database, SqlHelper sqlHelper) {
         if (nextJobDelayUntilStmt == null) {
-            // cannot use MIN because it always returns a value
-            String deadlineQuery = sqlHelper.createSelectOneField(
-                    DbOpenHelper.DEADLINE_COLUMN.columnName,
-                    query,
-                    null);
-            String delayQuery = sqlHelper.createSelectOneField(
-                    DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnName,
-                    query,
-                    null);
-            StringBuilder sb = sqlHelper.reusedStringBuilder;
-            sb.setLength(0);
-            sb.append("SELECT * FROM (")
-                    .append(deadlineQuery)
-                    .append(" ORDER BY 1 ASC LIMIT 1")
-                    .append(") UNION SELECT * FROM (")
-                    .append(delayQuery)
-                    .append(" ORDER BY 1 ASC LIMIT 1")
-                    .append(") ORDER BY 1 ASC LIMIT 1");
-            String selectQuery = sb.toString();
-            nextJobDelayUntilStmt = database.compileStatement(selectQuery);
+            nextJobDelayUntilStmt = database.compileStatement(
+                    createNextJobDelayUntilQuery(sqlHelper));
         } else {
             nextJobDelayUntilStmt.clearBindings();
         }
@@ -85,11 +73,70 @@ public class Where {
         return nextJobDelayUntilStmt;
     }
 
-    public String nextJob(SqlHelper sqlHelper) {
-        if (nextJobQuery == null) {
-            nextJobQuery = sqlHelper.createSelect(
+    String createNextJobDelayUntilQuery(SqlHelper sqlHelper) {
+        // cannot use MIN because it always returns a value
+        String deadlineQuery = sqlHelper.createSelectOneField(
+                DbOpenHelper.DEADLINE_COLUMN.columnName,
+                query,
+                null);
+        String delayQuery = sqlHelper.createSelectOneField(
+                DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnName,
+                query,
+                null);
+        StringBuilder sb = sqlHelper.reusedStringBuilder;
+        sb.setLength(0);
+        sb.append("SELECT * FROM (")
+                .append(deadlineQuery)
+                .append(" ORDER BY 1 ASC LIMIT 1")
+                .append(") UNION SELECT * FROM (")
+                .append(delayQuery)
+                .append(" ORDER BY 1 ASC LIMIT 1")
+                .append(") ORDER BY 1 ASC LIMIT 1");
+        return sb.toString();
+    }
+
+    /**
+     * Returns a statement that selects the id of the next job to run. The statement is compiled
+     * once and re-used so that the query is not parsed and planned for every job.
+     * <p>
+     * Throws {@link android.database.sqlite.SQLiteDoneException} when executed if there are no
+     * matching jobs.
+     */
+    public SQLiteStatement nextJobId(SQLiteDatabase database, SqlHelper sqlHelper) {
+        if (nextJobIdStmt == null) {
+            nextJobIdStmt = database.compileStatement(createNextJobIdQuery(sqlHelper));
+        } else {
+            nextJobIdStmt.clearBindings();
+        }
+        for (int i = 1; i <= args.length; i ++) {
+            nextJobIdStmt.bindString(i, args[i - 1]);
+        }
+        return nextJobIdStmt;
+    }
+
+    String createNextJobIdQuery(SqlHelper sqlHelper) {
+        return sqlHelper.createSelectOneField(
+                DbOpenHelper.ID_COLUMN.columnName,
+                query,
+                1,
+                new SqlHelper.Order(DbOpenHelper.PRIORITY_COLUMN,
+                        SqlHelper.Order.Type.DESC),
+                new SqlHelper.Order(DbOpenHelper.CREATED_NS_COLUMN,
+                        SqlHelper.Order.Type.ASC),
+                new SqlHelper.Order(DbOpenHelper.INSERTION_ORDER_COLUMN,
+                        SqlHelper.Order.Type.ASC)
+        );
+    }
+
+    /**
+     * Query that selects the jobs to run in the order {@link #nextJobId(SQLiteDatabase, SqlHelper)}
+     * would return them. Callers append a LIMIT clause. Uses the same arguments.
+     */
+    public String nextJobs(SqlHelper sqlHelper) {
+        if (nextJobsQuery == null) {
+            nextJobsQuery = sqlHelper.createSelect(
                     query,
-                    1,
+                    null,
                     new SqlHelper.Order(DbOpenHelper.PRIORITY_COLUMN,
                             SqlHelper.Order.Type.DESC),
                     new SqlHelper.Order(DbOpenHelper.CREATED_NS_COLUMN,
@@ -98,7 +145,7 @@ public class Where {
                             SqlHelper.Order.Type.ASC)
             );
         }
-        return nextJobQuery;
+        return nextJobsQuery;
     }
 
     public String findJobs(SqlHelper sqlHelper) {
@@ -108,6 +155,17 @@ public class Where {
         return findJobsQuery;
     }
 
+    /**
+     * Query that returns the tags of all jobs that would be returned by
+     * {@link #findJobs(SqlHelper)}, as (job_id, tag_name) rows. Uses the same arguments.
+     */
+    public String findJobTags(SqlHelper sqlHelper) {
+        if (findJobTagsQuery == null) {
+            findJobTagsQuery = sqlHelper.createSelectTagsOfJobs(query);
+        }
+        return findJobTagsQuery;
+    }
+
     public void destroy() {
         if (countReadyStmt != null) {
             countReadyStmt.close();
@@ -117,5 +175,9 @@ public class Where {
             nextJobDelayUntilStmt.close();
             nextJobDelayUntilStmt = null;
         }
+        if (nextJobIdStmt != null) {
+            nextJobIdStmt.close();
+            nextJobIdStmt = null;
+        }
     }
 }
@@ -0,0 +1,412 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A persistent {@link JobQueue} that answers every query from memory and writes to a
+ * {@link SqliteJobQueue} in the background.
+ * <p>
+ * When it is created, the metadata of all jobs in the database is loaded into an
+ * {@link IndexedInMemoryPriorityQueue}. Jobs are not deserialized until they are needed, usually
+ * when they are fetched to run. {@link #getWarmUpNs()} returns how long this took.
+ * <p>
+ * Changes are applied to the memory right away and to the database on a single writer thread, in
+ * the same order they are made. Jobs are serialized on the calling thread so later changes to a
+ * Job do not affect what is written. As a result, changes made right before the application
+ * process dies may be lost, including new Jobs that were reported as added. See
+ * {@link Configuration.Builder#sqliteWriteBehind()}.
+ * <p>
+ * Like {@link IndexedInMemoryPriorityQueue}, {@link #findJobs(Constraint)} and
+ * {@link #findJobById(String)} do not return running jobs.
+ */
+public class WriteBehindJobQueue implements JobQueue {
+    private static final JobHolder.JobLoader NO_JOB = new JobHolder.JobLoader() {
+        @Nullable
+        @Override
+        public Job load() {
+            return null;
+        }
+    };
+
+    private final SqliteJobQueue store;
+    private final SqliteJobQueue.JobSerializer jobSerializer;
+    private final IndexedInMemoryPriorityQueue memory;
+    private final BlockingQueue<Runnable> pendingWrites = new LinkedBlockingQueue<>();
+    private final ExecutorService writer;
+    // rowids are assigned here so that the order in memory and in the database is the same
+    private long lastInsertionOrder;
+    private final long warmUpNs;
+
+    public WriteBehindJobQueue(Configuration configuration, long sessionId,
+            SqliteJobQueue.JobSerializer serializer) {
+        final Timer timer = configuration.getTimer();
+        final long start = timer.nanoTime();
+        store = new SqliteJobQueue(configuration, sessionId, serializer);
+        jobSerializer = serializer;
+        memory = new IndexedInMemoryPriorityQueue(configuration, sessionId);
+        List<JobHolder> holders = store.loadJobsLazily();
+        for (JobHolder holder : holders) {
+            memory.insertOrReplace(holder);
+            //noinspection ConstantConditions
+            lastInsertionOrder = Math.max(lastInsertionOrder, holder.getInsertionOrder());
+        }
+        warmUpNs = timer.nanoTime() - start;
+        JqLog.d("loaded %d persistent jobs in %d ms", holders.size(),
+                TimeUnit.NANOSECONDS.toMillis(warmUpNs));
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, pendingWrites,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "JobQueueWriter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @return How long it took to open the database and load the jobs into memory, in
+     * nanoseconds of the {@link Configuration#getTimer() timer}.
+     */
+    public long getWarmUpNs() {
+        return warmUpNs;
+    }
+
+    @VisibleForTesting
+    public SQLiteDatabase getDb() {
+        return store.getDb();
+    }
+
+    /**
+     * Waits until the changes made so far are written to the database.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the changes are written, false if the timeout elapsed first
+     * @throws InterruptedException If the current thread is interrupted while waiting
+     */
+    public boolean awaitWrites(long timeout, TimeUnit unit) throws InterruptedException {
+        Future<?> done = writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                store.flush();
+            }
+        });
+        try {
+            done.get(timeout, unit);
+            return true;
+        } catch (ExecutionException e) {
+            JqLog.e(e, "error while writing jobs");
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean insert(@NonNull JobHolder jobHolder) {
+        jobHolder.setInsertionOrder(++lastInsertionOrder);
+        final byte[] serializedJob = serialize(jobHolder);
+        final JobHolder snapshot = snapshot(jobHolder);
+        memory.insertOrReplace(jobHolder);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.insert(snapshot, serializedJob);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean insertAll(@NonNull List<JobHolder> jobHolders) {
+        // serialize every job before changing any state so that a job that cannot be serialized
+        // fails the whole batch
+        final List<byte[]> serializedJobs = new ArrayList<>(jobHolders.size());
+        for (JobHolder jobHolder : jobHolders) {
+            serializedJobs.add(serialize(jobHolder));
+        }
+        final List<JobHolder> snapshots = new ArrayList<>(jobHolders.size());
+        for (JobHolder jobHolder : jobHolders) {
+            jobHolder.setInsertionOrder(++lastInsertionOrder);
+            snapshots.add(snapshot(jobHolder));
+        }
+        for (JobHolder jobHolder : jobHolders) {
+            memory.insertOrReplace(jobHolder);
+        }
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.insertAll(snapshots, serializedJobs);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean insertOrReplace(@NonNull JobHolder jobHolder) {
+        if (jobHolder.getInsertionOrder() == null) {
+            return insert(jobHolder);
+        }
+        final byte[] serializedJob = serialize(jobHolder);
+        final JobHolder snapshot = snapshot(jobHolder);
+        memory.insertOrReplace(jobHolder);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.insertOrReplace(snapshot, serializedJob);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void substitute(@NonNull JobHolder newJob, @NonNull JobHolder oldJob) {
+        memory.remove(oldJob);
+        newJob.setInsertionOrder(++lastInsertionOrder);
+        final byte[] serializedJob = serialize(newJob);
+        final JobHolder newSnapshot = snapshot(newJob);
+        final JobHolder oldSnapshot = snapshot(oldJob);
+        memory.insertOrReplace(newJob);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.substitute(newSnapshot, serializedJob, oldSnapshot);
+            }
+        });
+    }
+
+    @Override
+    public void remove(@NonNull JobHolder jobHolder) {
+        memory.remove(jobHolder);
+        final JobHolder snapshot = snapshot(jobHolder);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.remove(snapshot);
+            }
+        });
+    }
+
+    @Override
+    public int count() {
+        return memory.count();
+    }
+
+    @Override
+    public int countReadyJobs(@NonNull Constraint constraint) {
+        return memory.countReadyJobs(constraint);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned job is loaded. If it cannot be loaded, it is removed and the next job is
+     * returned instead.
+     */
+    @Override
+    public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
+        while (true) {
+            final JobHolder holder = memory.nextJobAndIncRunCount(constraint);
+            if (holder == null) {
+                return null;
+            }
+            final String id = holder.getId();
+            try {
+                holder.getJob();
+            } catch (IllegalStateException e) {
+                JqLog.e(e, "cannot load job %s, removing it", id);
+                remove(holder);
+                continue;
+            }
+            final int runCount = holder.getRunCount();
+            write(new Runnable() {
+                @Override
+                public void run() {
+                    store.markAsRunning(id, runCount);
+                }
+            });
+            return holder;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Jobs whose payload cannot be loaded are removed and are not replaced in the result. The
+     * returned jobs are marked as running in the database with a single write.
+     */
+    @NonNull
+    @Override
+    public List<JobHolder> nextJobsAndIncRunCount(@NonNull Constraint constraint, int max) {
+        final List<JobHolder> holders = memory.nextJobsAndIncRunCount(constraint, max);
+        final List<JobHolder> result = new ArrayList<>(holders.size());
+        for (JobHolder holder : holders) {
+            try {
+                holder.getJob();
+            } catch (IllegalStateException e) {
+                JqLog.e(e, "cannot load job %s, removing it", holder.getId());
+                remove(holder);
+                continue;
+            }
+            result.add(holder);
+        }
+        if (result.isEmpty()) {
+            return result;
+        }
+        final String[] ids = new String[result.size()];
+        final int[] runCounts = new int[result.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = result.get(i).getId();
+            runCounts[i] = result.get(i).getRunCount();
+        }
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.markAllAsRunning(ids, runCounts);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
+        return memory.getNextJobDelayUntilNs(constraint);
+    }
+
+    @Override
+    public void clear() {
+        memory.clear();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.clear();
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
+        return memory.findJobs(constraint);
+    }
+
+    @Override
+    public void onJobCancelled(@NonNull JobHolder holder) {
+        memory.onJobCancelled(holder);
+        final JobHolder snapshot = snapshot(holder);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                store.onJobCancelled(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Does nothing, the writer thread commits the changes whenever it has nothing else to write.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Waits until the pending changes are written to the database and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                JqLog.d("waiting for %d pending job writes", pendingWrites.size());
+            }
+        } catch (InterruptedException e) {
+            JqLog.e(e, "interrupted while waiting for job writes");
+            Thread.currentThread().interrupt();
+            return;
+        }
+        store.close();
+    }
+
+    @Nullable
+    @Override
+    public JobHolder findJobById(@NonNull String id) {
+        return memory.findJobById(id);
+    }
+
+    private void write(final Runnable change) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    change.run();
+                } catch (Throwable t) {
+                    JqLog.e(t, "error while writing jobs to the database");
+                }
+                if (pendingWrites.isEmpty()) {
+                    // commits deferred changes so that they do not wait for the group window
+                    store.flush();
+                }
+            }
+        });
+    }
+
+    private byte[] serialize(JobHolder jobHolder) {
+        try {
+            return jobSerializer.serialize(jobHolder.getJob());
+        } catch (IOException e) {
+            throw new RuntimeException("cannot serialize job", e);
+        }
+    }
+
+    /**
+     * Copies the values of the given holder that are written to the database, so that the writer
+     * thread does not see later changes to the holder.
+     */
+    private static JobHolder snapshot(JobHolder holder) {
+        //noinspection WrongConstant
+        JobHolder.Builder builder = new JobHolder.Builder()
+                .priority(holder.getPriority())
+                .groupId(holder.getGroupId())
+                .runCount(holder.getRunCount())
+                .jobLoader(NO_JOB)
+                .id(holder.getId())
+                .tags(holder.getTags())
+                .persistent(true)
+                .deadline(holder.getDeadlineNs(), holder.shouldCancelOnDeadline())
+                .createdNs(holder.getCreatedNs())
+                .delayUntilNs(holder.getDelayUntilNs())
+                .runningSessionId(holder.getRunningSessionId())
+                .requiredNetworkType(holder.getRequiredNetworkType());
+        if (holder.getInsertionOrder() != null) {
+            builder.insertionOrder(holder.getInsertionOrder());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,149 @@
+package com.birbit.android.jobqueue;
+
+import android.content.Context;
+
+import com.birbit.android.jobqueue.callback.ConsumerScalingListener;
+import com.birbit.android.jobqueue.config.Configuration;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnit4.class)
+public class AdaptiveConsumerScalerTest {
+    private static final long WINDOW_NS = 1000 * JobManager.NS_PER_MS;
+    private final List<int[]> changes = new ArrayList<>();
+    private final ConsumerScalingListener listener = new ConsumerScalingListener() {
+        @Override
+        public void onConsumerTargetChanged(int previousTarget, int newTarget,
+                double jobsPerSecond, long medianRunTimeNs, long p90RunTimeNs, int backlog) {
+            changes.add(new int[]{previousTarget, newTarget});
+        }
+    };
+    private long now = 0;
+
+    @Test
+    public void testStartsAtMax() {
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(2, 6, WINDOW_NS, listener, now);
+        assertThat(scaler.getTarget(), is(6));
+    }
+
+    @Test
+    public void testShrinksWhenMoreConsumersDoNotHelp() {
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(1, 4, WINDOW_NS, listener, now);
+        for (int i = 0; i < 8; i++) {
+            runWindow(scaler, 100, 50);
+        }
+        assertThat(scaler.getTarget(), is(1));
+        assertChanges(4, 3, 3, 2, 2, 1);
+    }
+
+    @Test
+    public void testUndoesShrinkWhenThroughputDrops() {
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(1, 4, WINDOW_NS, listener, now);
+        for (int i = 0; i < 4; i++) {
+            runWindow(scaler, 25 * scaler.getTarget(), 50);
+        }
+        assertChanges(4, 3, 3, 4);
+        assertThat(scaler.getTarget(), is(4));
+    }
+
+    @Test
+    public void testFindsBestCountWithoutThrashing() {
+        // throughput by target, peaks at 3 consumers
+        final int[] throughput = new int[]{0, 100, 190, 270, 275, 240, 200};
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(1, 6, WINDOW_NS, listener, now);
+        int windowsAtBest = 0;
+        for (int i = 0; i < 100; i++) {
+            runWindow(scaler, throughput[scaler.getTarget()], 50);
+            if (scaler.getTarget() == 3) {
+                windowsAtBest++;
+            }
+        }
+        assertThat(scaler.getTarget(), is(3));
+        assertThat("should stay at the best count most of the time " + windowsAtBest,
+                windowsAtBest > 80, is(true));
+        assertThat("should not change the count often " + changes.size(), changes.size() < 16,
+                is(true));
+        for (int[] change : changes) {
+            assertThat(Math.abs(change[1] - change[0]), is(1));
+            assertThat(change[1] >= 2 && change[1] <= 5, is(true));
+        }
+    }
+
+    @Test
+    public void testIgnoresWindowsWithoutBacklog() {
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(1, 4, WINDOW_NS, listener, now);
+        for (int i = 0; i < 10; i++) {
+            runWindow(scaler, 100, 0);
+        }
+        assertThat(scaler.getTarget(), is(4));
+        assertThat(changes.size(), is(0));
+    }
+
+    @Test
+    public void testIgnoresWindowsWithStarvedConsumers() {
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(1, 4, WINDOW_NS, listener, now);
+        runWindow(scaler, 100, 50);
+        assertChanges(4, 3);
+        for (int i = 0; i < 100; i++) {
+            // a consumer goes idle before each window is over
+            now += WINDOW_NS / 2;
+            assertThat(scaler.onJobFinished(0, now), is(false));
+            scaler.onConsumerStarved(now);
+        }
+        assertChanges(4, 3);
+        assertThat(scaler.getTarget(), is(3));
+    }
+
+    @Test
+    public void testDoesNotMoveUntilWindowIsOver() {
+        AdaptiveConsumerScaler scaler = new AdaptiveConsumerScaler(1, 4, WINDOW_NS, listener, now);
+        for (int i = 0; i < 99; i++) {
+            now += WINDOW_NS / 100;
+            assertThat(scaler.onJobFinished(0, now), is(false));
+        }
+        now += WINDOW_NS / 100;
+        assertThat(scaler.onJobFinished(0, now), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindow() {
+        Context context = mock(Context.class);
+        when(context.getApplicationContext()).thenReturn(mock(Context.class));
+        new Configuration.Builder(context).adaptiveConsumerScaling(0);
+    }
+
+    private void runWindow(AdaptiveConsumerScaler scaler, int jobs, int backlog) {
+        final long start = now;
+        for (int i = 0; i < jobs; i++) {
+            now = start + WINDOW_NS * (i + 1) / jobs;
+            if (scaler.onJobFinished(JobManager.NS_PER_MS, now)) {
+                scaler.evaluate(now, backlog, scaler.getTarget());
+            }
+        }
+        now = start + WINDOW_NS;
+    }
+
+    private void assertChanges(int... expected) {
+        List<Integer> actual = new ArrayList<>();
+        for (int[] change : changes) {
+            actual.add(change[0]);
+            actual.add(change[1]);
+        }
+        List<Integer> expectedList = new ArrayList<>();
+        for (int value : expected) {
+            expectedList.add(value);
+        }
+        assertThat(Arrays.toString(expected), actual, is(expectedList));
+    }
+}
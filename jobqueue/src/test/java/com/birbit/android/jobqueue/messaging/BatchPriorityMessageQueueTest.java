@@ -0,0 +1,68 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+import com.birbit.android.jobqueue.messaging.message.RunJobResultMessage;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+@RunWith(JUnit4.class)
+public class BatchPriorityMessageQueueTest
+        extends MessageQueueTestBase<PriorityMessageQueue> {
+    final PriorityMessageQueue mq = new PriorityMessageQueue(new MockTimer(),
+            new MessageFactory(), true);
+
+    @Test
+    public void higherPriorityGoesBeforeBatch() {
+        final AddJobMessage aj1 = new AddJobMessage();
+        final AddJobMessage aj2 = new AddJobMessage();
+        final AddJobMessage aj3 = new AddJobMessage();
+        final CommandMessage mC1 = new CommandMessage();
+        final RunJobResultMessage result = new RunJobResultMessage();
+        mq.post(mC1);
+        mq.post(aj1);
+        mq.post(aj2);
+        mq.post(aj3);
+        final List<Message> expectedOrder = Arrays.asList(aj1, result, aj2, mC1);
+        mq.consume(new MessageQueueConsumer() {
+            int index;
+            @Override
+            public void handleMessage(Message message) {
+                assertThat(message, is(expectedOrder.get(index++)));
+                if (message == aj1) {
+                    // the others are already in the batch
+                    mq.post(result);
+                    mq.cancelMessages(new MessagePredicate() {
+                        @Override
+                        public boolean onMessage(Message message) {
+                            return message == aj3;
+                        }
+                    });
+                }
+                if (index == expectedOrder.size()) {
+                    mq.stop();
+                }
+            }
+
+            @Override
+            public void onIdle() {
+
+            }
+        });
+    }
+
+    @Override
+    PriorityMessageQueue createMessageQueue(Timer timer, MessageFactory factory) {
+        return new PriorityMessageQueue(timer, factory, true);
+    }
+}
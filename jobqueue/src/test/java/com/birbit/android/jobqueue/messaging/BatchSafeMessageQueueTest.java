@@ -0,0 +1,61 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BatchSafeMessageQueueTest extends MessageQueueTestBase<SafeMessageQueue> {
+
+    @Test
+    public void postAtFrontGoesBeforeBatch() {
+        final SafeMessageQueue mq = createMessageQueue(new MockTimer(), new MessageFactory());
+        final CommandMessage m1 = new CommandMessage();
+        final CommandMessage m2 = new CommandMessage();
+        final CommandMessage m3 = new CommandMessage();
+        final CommandMessage front = new CommandMessage();
+        final CommandMessage last = new CommandMessage();
+        mq.post(m1);
+        mq.post(m2);
+        mq.post(m3);
+        final List<Message> expectedOrder = Arrays.<Message>asList(m1, front, m2, last);
+        mq.consume(new MessageQueueConsumer() {
+            int index;
+            @Override
+            public void handleMessage(Message message) {
+                assertThat(message, is((Message) expectedOrder.get(index++)));
+                if (message == m1) {
+                    // the others are already in the batch
+                    mq.post(last);
+                    mq.postAtFront(front);
+                    mq.cancelMessages(new MessagePredicate() {
+                        @Override
+                        public boolean onMessage(Message message) {
+                            return message == m3;
+                        }
+                    });
+                }
+                if (index == expectedOrder.size()) {
+                    mq.stop();
+                }
+            }
+
+            @Override
+            public void onIdle() {
+
+            }
+        });
+    }
+
+    @Override
+    SafeMessageQueue createMessageQueue(Timer timer, MessageFactory factory) {
+        return new SafeMessageQueue(timer, factory, "test", true);
+    }
+}
@@ -0,0 +1,87 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+@RunWith(JUnit4.class)
+public class DelayedMessageBagOrderTest {
+    MessageFactory factory = new MessageFactory();
+    DelayedMessageBag bag = new DelayedMessageBag(factory);
+
+    @Test
+    public void testRandomOrder() {
+        Random random = new Random(16);
+        // the add order of the messages in the bag, which is also their "what". Removed messages
+        // are recycled so it is not read from them.
+        final List<Integer> expected = new ArrayList<>();
+        final List<Long> readyTimes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            CommandMessage message = new CommandMessage();
+            message.set(i);
+            // few distinct times so that many messages are ready at the same time
+            long readyNs = random.nextInt(100) * 10;
+            bag.add(message, readyNs);
+            expected.add(i);
+            readyTimes.add(readyNs);
+            if (random.nextInt(200) == 0) {
+                final int divisor = 2 + random.nextInt(5);
+                bag.removeMessages(new MessagePredicate() {
+                    @Override
+                    public boolean onMessage(Message message) {
+                        return ((CommandMessage) message).getWhat() % divisor == 0;
+                    }
+                });
+                for (int j = expected.size() - 1; j >= 0; j--) {
+                    if (expected.get(j) % divisor == 0) {
+                        expected.remove(j);
+                        readyTimes.remove(j);
+                    }
+                }
+            }
+        }
+        // sort by ready time, stable so messages with the same time keep the add order
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < expected.size(); i++) {
+            indices.add(i);
+        }
+        Collections.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return readyTimes.get(i1).compareTo(readyTimes.get(i2));
+            }
+        });
+        final List<Integer> flushed = new ArrayList<>();
+        MessageQueue mq = mock(MessageQueue.class, new org.mockito.stubbing.Answer<Object>() {
+            @Override
+            public Object answer(org.mockito.invocation.InvocationOnMock invocation) {
+                if (invocation.getMethod().getName().equals("post")) {
+                    flushed.add(((CommandMessage) invocation.getArguments()[0]).getWhat());
+                }
+                return null;
+            }
+        });
+        for (long now = 0; now < 1000; now += 10) {
+            bag.flushReadyMessages(now, mq);
+        }
+        assertThat(bag.flushReadyMessages(1000, mq), nullValue());
+        List<Integer> expectedOrder = new ArrayList<>();
+        for (Integer index : indices) {
+            expectedOrder.add(expected.get(index));
+        }
+        assertThat(flushed, is(expectedOrder));
+    }
+}
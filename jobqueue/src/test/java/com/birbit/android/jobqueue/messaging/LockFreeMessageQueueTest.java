@@ -0,0 +1,118 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+@RunWith(JUnit4.class)
+public class LockFreeMessageQueueTest extends MessageQueueTestBase<LockFreeMessageQueue> {
+    LockFreeMessageQueue mq = new LockFreeMessageQueue(new MockTimer(), new MessageFactory());
+
+    @Test
+    public void test1() {
+        CommandMessage mC1 = new CommandMessage();
+        CommandMessage mC2 = new CommandMessage();
+        AddJobMessage aj1 = new AddJobMessage();
+        AddJobMessage aj2 = new AddJobMessage();
+        mq.post(mC1);
+        mq.post(mC2);
+        mq.post(aj1);
+        mq.post(aj2);
+        final List<Message> expectedOrder = Arrays.asList(aj1, aj2, mC1, mC2);
+        mq.consume(new MessageQueueConsumer() {
+            int index;
+            @Override
+            public void handleMessage(Message message) {
+                assertThat(message, is (expectedOrder.get(index++)));
+                if (index == expectedOrder.size()) {
+                    mq.stop();
+                }
+            }
+
+            @Override
+            public void onIdle() {
+
+            }
+        });
+    }
+
+    @Test
+    public void manyProducers() throws InterruptedException {
+        final int producerCount = 8;
+        final int messagesPerProducer = 5000;
+        final int[] lastSeen = new int[producerCount];
+        Arrays.fill(lastSeen, -1);
+        final Throwable[] failure = new Throwable[1];
+        final CountDownLatch consumed = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mq.consume(new MessageQueueConsumer() {
+                    int received;
+
+                    @Override
+                    public void handleMessage(Message message) {
+                        int what = ((CommandMessage) message).getWhat();
+                        int producer = what / messagesPerProducer;
+                        int sequence = what % messagesPerProducer;
+                        if (sequence != lastSeen[producer] + 1 && failure[0] == null) {
+                            failure[0] = new AssertionError("producer " + producer + " expected "
+                                    + (lastSeen[producer] + 1) + " but was " + sequence);
+                        }
+                        lastSeen[producer] = sequence;
+                        if (++received == producerCount * messagesPerProducer) {
+                            consumed.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void onIdle() {
+
+                    }
+                });
+            }
+        });
+        consumer.start();
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            final int producer = i;
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < messagesPerProducer; j++) {
+                        CommandMessage message = new CommandMessage();
+                        message.set(producer * messagesPerProducer + j);
+                        mq.post(message);
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertThat(consumed.await(30, TimeUnit.SECONDS), is(true));
+        mq.stop();
+        consumer.join(5000);
+        assertThat(consumer.isAlive(), is(false));
+        assertThat(failure[0], nullValue());
+    }
+
+    @Override
+    LockFreeMessageQueue createMessageQueue(Timer timer, MessageFactory factory) {
+        return new LockFreeMessageQueue(timer, factory);
+    }
+}
@@ -27,4 +27,58 @@ public class MessageFactoryTest {
         assertThat(factory.obtain(AddJobMessage.class), not(sameInstance(aj1)));
         assertThat(factory.obtain(CommandMessage.class), not(sameInstance(cm1)));
     }
+
+    @Test
+    public void createsEveryType() {
+        for (Type type : Type.values()) {
+            Message message = factory.obtain(type.klass);
+            assertThat(message.getClass() == type.klass, is(true));
+            assertThat(message.type, is(type));
+        }
+        assertThat(factory.getMissCount(), is((long) Type.values().length));
+        assertThat(factory.getHitCount(), is(0L));
+    }
+
+    @Test
+    public void stats() {
+        AddJobMessage aj1 = factory.obtain(AddJobMessage.class);
+        factory.release(aj1);
+        assertThat(factory.obtain(AddJobMessage.class), sameInstance(aj1));
+        factory.obtain(AddJobMessage.class);
+        assertThat(factory.getHitCount(), is(1L));
+        assertThat(factory.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void poolSize() {
+        MessageFactory small = new MessageFactory(1, 1);
+        AddJobMessage aj1 = small.obtain(AddJobMessage.class);
+        AddJobMessage aj2 = small.obtain(AddJobMessage.class);
+        small.release(aj1);
+        small.release(aj2);
+        assertThat(small.obtain(AddJobMessage.class), sameInstance(aj1));
+        assertThat(small.obtain(AddJobMessage.class), not(sameInstance(aj2)));
+    }
+
+    @Test
+    public void messageFromAnotherStripe() throws InterruptedException {
+        final MessageFactory striped = new MessageFactory(20, 4);
+        final AddJobMessage[] obtained = new AddJobMessage[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                obtained[0] = striped.obtain(AddJobMessage.class);
+            }
+        });
+        thread.start();
+        thread.join();
+        striped.release(obtained[0]);
+        assertThat(striped.obtain(AddJobMessage.class), sameInstance(obtained[0]));
+        assertThat(striped.getHitCount(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noStripes() {
+        new MessageFactory(20, 0);
+    }
 }
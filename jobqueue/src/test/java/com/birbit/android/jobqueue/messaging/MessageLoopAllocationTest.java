@@ -0,0 +1,106 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+import com.birbit.android.jobqueue.timer.SystemTimer;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that posting and consuming pooled messages does not allocate when logging is disabled.
+ * A few bytes may be allocated once while measuring (e.g. by the JIT), so the test checks the
+ * bytes allocated per message.
+ */
+@RunWith(JUnit4.class)
+public class MessageLoopAllocationTest {
+    private static final int WARM_UP = 20000;
+    private static final int MEASURED = 10000;
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setUp() {
+        JqLog.clearLogger();
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void priorityMessageQueue() {
+        Timer timer = new SystemTimer();
+        MessageFactory factory = new MessageFactory();
+        MessageQueue mq = new PriorityMessageQueue(timer, factory);
+        assertThat(allocatedBytesPerMessage(mq, timer, factory), is(0L));
+    }
+
+    @Test
+    public void batchPriorityMessageQueue() {
+        Timer timer = new SystemTimer();
+        MessageFactory factory = new MessageFactory();
+        MessageQueue mq = new PriorityMessageQueue(timer, factory, true);
+        assertThat(allocatedBytesPerMessage(mq, timer, factory), is(0L));
+    }
+
+    @Test
+    public void safeMessageQueue() {
+        Timer timer = new SystemTimer();
+        MessageFactory factory = new MessageFactory();
+        MessageQueue mq = new SafeMessageQueue(timer, factory, "test");
+        assertThat(allocatedBytesPerMessage(mq, timer, factory), is(0L));
+    }
+
+    /**
+     * Each handled message posts the next one, alternating between a message and a delayed
+     * message that is already ready. Returns the bytes allocated by this thread per handled
+     * message, rounded down.
+     */
+    private long allocatedBytesPerMessage(final MessageQueue mq, final Timer timer,
+            final MessageFactory factory) {
+        final long threadId = Thread.currentThread().getId();
+        final long[] allocated = new long[2];
+        // two messages are in flight so the one released after handling is reused
+        mq.post(factory.obtain(AddJobMessage.class));
+        mq.post(factory.obtain(AddJobMessage.class));
+        mq.consume(new MessageQueueConsumer() {
+            int handled = 0;
+
+            @Override
+            public void handleMessage(Message message) {
+                handled++;
+                if (handled == WARM_UP) {
+                    allocated[0] = threadBean.getThreadAllocatedBytes(threadId);
+                } else if (handled == WARM_UP + MEASURED) {
+                    allocated[1] = threadBean.getThreadAllocatedBytes(threadId);
+                    mq.stop();
+                    return;
+                }
+                if (handled % 2 == 0) {
+                    mq.post(factory.obtain(AddJobMessage.class));
+                } else {
+                    CommandMessage command = factory.obtain(CommandMessage.class);
+                    command.set(CommandMessage.POKE);
+                    mq.postAt(command, timer.nanoTime());
+                }
+            }
+
+            @Override
+            public void onIdle() {
+
+            }
+        });
+        return (allocated[1] - allocated[0]) / MEASURED;
+    }
+}
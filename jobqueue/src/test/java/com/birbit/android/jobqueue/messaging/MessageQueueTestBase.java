@@ -17,6 +17,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import static org.mockito.Mockito.*;
@@ -127,6 +129,100 @@ abstract public class MessageQueueTestBase<T extends MessageQueue> {
         verify(factory, times(0)).release(cm2);
     }
 
+    @Test
+    public void postAtUniqueCoalesces() {
+        MessageFactory factory = spy(new MessageFactory());
+        MockTimer mockTimer = new MockTimer();
+        final T mq = createMessageQueue(mockTimer, factory);
+        final Object key = new Object();
+        CommandMessage first = new CommandMessage();
+        first.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(first, 100, key, 10), CoreMatchers.is(true));
+        // later, within the window
+        CommandMessage later = new CommandMessage();
+        later.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(later, 110, key, 10), CoreMatchers.is(false));
+        verify(factory).release(later);
+        // earlier, within the window, moves the waiting message
+        CommandMessage earlier = new CommandMessage();
+        earlier.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(earlier, 95, key, 10), CoreMatchers.is(false));
+        verify(factory).release(earlier);
+        // outside the window
+        CommandMessage outside = new CommandMessage();
+        outside.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(outside, 200, key, 10), CoreMatchers.is(true));
+        // another key
+        CommandMessage otherKey = new CommandMessage();
+        otherKey.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(otherKey, 95, new Object(), 10), CoreMatchers.is(true));
+        // not keyed
+        CommandMessage notKeyed = new CommandMessage();
+        notKeyed.set(CommandMessage.POKE);
+        mq.postAt(notKeyed, 95);
+        assertThat(mq.getCoalescedMessageCount(), CoreMatchers.is(2L));
+
+        final List<Message> pending = new ArrayList<>();
+        mq.cancelMessages(new MessagePredicate() {
+            @Override
+            public boolean onMessage(Message message) {
+                pending.add(message);
+                return false;
+            }
+        });
+        assertThat(pending.size(), CoreMatchers.is(4));
+        assertThat(pending.contains(first), CoreMatchers.is(true));
+        assertThat(first.readyNs, CoreMatchers.is(95L));
+        assertThat(pending.contains(outside), CoreMatchers.is(true));
+        assertThat(pending.contains(otherKey), CoreMatchers.is(true));
+        assertThat(pending.contains(notKeyed), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void postAtUniqueWakesConsumerWhenMovedEarlier() throws InterruptedException {
+        final MockTimer timer = new MockTimer();
+        final T mq = createMessageQueue(timer, new MessageFactory());
+        final Object key = new Object();
+        final CountDownLatch idleLatch = new CountDownLatch(1);
+        final CountDownLatch handledLatch = new CountDownLatch(1);
+        final long[] handledAt = new long[1];
+        CommandMessage first = new CommandMessage();
+        first.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(first, 1000, key, 1000), CoreMatchers.is(true));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mq.consume(new MessageQueueConsumer() {
+                    @Override
+                    public void handleMessage(Message message) {
+                        handledAt[0] = timer.nanoTime();
+                        handledLatch.countDown();
+                        mq.stop();
+                    }
+
+                    @Override
+                    public void onIdle() {
+                        idleLatch.countDown();
+                    }
+                });
+            }
+        });
+        thread.start();
+        assertThat(idleLatch.await(10, TimeUnit.SECONDS), CoreMatchers.is(true));
+        CommandMessage earlier = new CommandMessage();
+        earlier.set(CommandMessage.POKE);
+        assertThat(mq.postAtUnique(earlier, 500, key, 1000), CoreMatchers.is(false));
+        // the consumer should now wait until 500 instead of 1000
+        for (int i = 0; i < 50 && handledLatch.getCount() > 0; i++) {
+            timer.setNow(500);
+            handledLatch.await(100, TimeUnit.MILLISECONDS);
+        }
+        assertThat(handledLatch.getCount(), CoreMatchers.is(0L));
+        assertThat(handledAt[0], CoreMatchers.is(500L));
+        mq.stop();
+        thread.join(5000);
+    }
+
     @Test
     public void addMessageOnIdle() throws InterruptedException {
         addMessageOnIdle(false);
@@ -0,0 +1,134 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that the queries generated for {@link Where} are answered using the indices on the job
+ * tables instead of scanning the whole table.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class QueryPlanTest {
+    MockTimer timer = new MockTimer();
+    SQLiteDatabase db;
+    SqlHelper sqlHelper;
+    WhereQueryCache whereQueryCache;
+
+    @Before
+    public void init() {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("query_plan").jobSerializer(serializer).inTestMode()
+                        .timer(timer).build(), 1, serializer);
+        db = queue.getDb();
+        sqlHelper = new SqlHelper(db, DbOpenHelper.JOB_HOLDER_TABLE_NAME,
+                DbOpenHelper.ID_COLUMN.columnName, DbOpenHelper.COLUMN_COUNT,
+                DbOpenHelper.JOB_TAGS_TABLE_NAME, DbOpenHelper.TAGS_COLUMN_COUNT, 1);
+        whereQueryCache = new WhereQueryCache(1);
+    }
+
+    @Test
+    public void testNextJobUsesCoveringIndex() {
+        for (Where where : readyJobWheres()) {
+            List<String> plan = queryPlan(where.createNextJobIdQuery(sqlHelper));
+            assertThat(plan.toString(), containsString(
+                    "COVERING INDEX " + DbOpenHelper.NEXT_JOB_INDEX_NAME));
+            assertThat(plan.toString(), not(containsString("TEMP B-TREE")));
+        }
+    }
+
+    @Test
+    public void testCountReadyDoesNotScanTable() {
+        for (Where where : readyJobWheres()) {
+            assertNoTableScan(queryPlan(where.createCountReadyQuery(new StringBuilder())));
+        }
+    }
+
+    @Test
+    public void testNextJobDelayUntilDoesNotScanTable() {
+        for (Where where : readyJobWheres()) {
+            assertNoTableScan(queryPlan(where.createNextJobDelayUntilQuery(sqlHelper)));
+        }
+    }
+
+    @Test
+    public void testTagQueriesUseJobIdIndex() {
+        TestConstraint constraint = TestConstraint.forTags(timer, TagConstraint.ANY,
+                Collections.<String>emptyList(), "a", "b");
+        Where where = whereQueryCache.build(constraint, Collections.<String>emptyList(),
+                new StringBuilder());
+        List<String> plan = queryPlan(where.findJobTags(sqlHelper));
+        assertNoTableScan(plan);
+        assertThat(plan.toString(), containsString(DbOpenHelper.TAG_JOB_ID_INDEX_NAME));
+        assertThat(queryPlan(sqlHelper.LOAD_TAGS_QUERY).toString(),
+                containsString(DbOpenHelper.TAG_JOB_ID_INDEX_NAME));
+        assertThat(queryPlan("DELETE FROM " + DbOpenHelper.JOB_TAGS_TABLE_NAME + " WHERE "
+                        + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + " = ?").toString(),
+                containsString(DbOpenHelper.TAG_JOB_ID_INDEX_NAME));
+    }
+
+    /**
+     * Wheres that are created by the JobManager while looking for jobs to run.
+     */
+    private List<Where> readyJobWheres() {
+        List<Where> result = new ArrayList<>();
+        TestConstraint constraint = new TestConstraint(timer);
+        constraint.setExcludeRunning(true);
+        constraint.setTimeLimit(timer.nanoTime());
+        result.add(whereQueryCache.build(constraint, Collections.<String>emptyList(),
+                new StringBuilder()));
+        constraint = new TestConstraint(timer);
+        constraint.setExcludeRunning(true);
+        constraint.setTimeLimit(timer.nanoTime());
+        constraint.setExcludeGroups(Arrays.asList("g1", "g2"));
+        result.add(whereQueryCache.build(constraint, Collections.<String>emptyList(),
+                new StringBuilder()));
+        return result;
+    }
+
+    private void assertNoTableScan(List<String> plan) {
+        for (String step : plan) {
+            // newer versions of sqlite omit the TABLE keyword
+            boolean tableScan = (step.startsWith("SCAN TABLE " + DbOpenHelper.JOB_HOLDER_TABLE_NAME)
+                    || step.startsWith("SCAN " + DbOpenHelper.JOB_HOLDER_TABLE_NAME))
+                    && !step.contains("INDEX");
+            assertThat(plan.toString(), tableScan, is(false));
+        }
+    }
+
+    private List<String> queryPlan(String query) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,138 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that serializing into the buffer {@link SqliteJobQueue} re-uses does not allocate per
+ * Job when the serializer supports buffers.
+ */
+public class SerializationAllocationTest {
+    private static final int WARM_UP = 2000;
+    private static final int RUNS = 10000;
+
+    com.sun.management.ThreadMXBean threadMXBean;
+    PrimitiveJob job;
+
+    @Before
+    public void init() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        job = new PrimitiveJob(new Params(1).persist(), 3, 42L);
+        // seals the job so that it can be serialized
+        new JobHolder.Builder().priority(1).groupId(null).job(job).id(job.getId())
+                .persistent(true).tags(null).createdNs(0)
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY).deadline(Params.FOREVER, false)
+                .requiredNetworkType(NetworkUtil.DISCONNECTED)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+    }
+
+    @Test
+    public void testBufferedSerializerDoesNotAllocate() throws IOException {
+        BinaryJobSerializer serializer = new BinaryJobSerializer()
+                .register(1, PrimitiveJob.class, PrimitiveJob.FACTORY);
+        long perJob = allocatedPerJob(serializer);
+        // a few bytes of slack for the measurement itself
+        assertThat("allocated " + perJob + " bytes per job", perJob < 8, is(true));
+    }
+
+    @Test
+    public void testByteArraySerializerAllocates() throws IOException {
+        long binary = allocatedPerJob(new BinaryJobSerializer()
+                .register(1, PrimitiveJob.class, PrimitiveJob.FACTORY));
+        long java = allocatedPerJob(
+                ByteArrayJobSerializerAdapter.wrap(new SqliteJobQueue.JavaSerializer()));
+        assertThat("binary " + binary + " java " + java, java > binary + 64, is(true));
+    }
+
+    @Test
+    public void testAdapterRoundTrip() throws Exception {
+        BufferedJobSerializer serializer = ByteArrayJobSerializerAdapter.wrap(
+                new SqliteJobQueue.JavaSerializer());
+        Buffer buffer = new Buffer();
+        serializer.serialize(job, buffer);
+        PrimitiveJob read = serializer.deserialize(buffer);
+        assertThat(read.count, is(3));
+        assertThat(read.timestamp, is(42L));
+        assertThat(buffer.size(), is(0L));
+    }
+
+    @Test
+    public void testBinaryRoundTripThroughBuffer() throws Exception {
+        BinaryJobSerializer serializer = new BinaryJobSerializer()
+                .register(1, PrimitiveJob.class, PrimitiveJob.FACTORY);
+        Buffer buffer = new Buffer();
+        serializer.serialize(job, buffer);
+        PrimitiveJob read = serializer.deserialize(buffer);
+        assertThat(read.count, is(3));
+        assertThat(read.timestamp, is(42L));
+        assertThat(buffer.size(), is(0L));
+    }
+
+    private long allocatedPerJob(BufferedJobSerializer serializer) throws IOException {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < WARM_UP; i++) {
+            buffer.clear();
+            serializer.serialize(job, buffer);
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < RUNS; i++) {
+            buffer.clear();
+            serializer.serialize(job, buffer);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+        buffer.clear();
+        return allocated / RUNS;
+    }
+
+    public static class PrimitiveJob extends DummyJob implements BinaryJob {
+        static final BinaryJobSerializer.Factory<PrimitiveJob> FACTORY =
+                new BinaryJobSerializer.Factory<PrimitiveJob>() {
+                    @Override
+                    public PrimitiveJob create() {
+                        return new PrimitiveJob(new Params(0), 0, 0);
+                    }
+                };
+        int count;
+        long timestamp;
+
+        public PrimitiveJob(Params params, int count, long timestamp) {
+            super(params);
+            this.count = count;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.writeInt(count);
+            sink.writeLong(timestamp);
+        }
+
+        @Override
+        public void readFrom(BufferedSource source) throws IOException {
+            count = source.readInt();
+            timestamp = source.readLong();
+        }
+    }
+}
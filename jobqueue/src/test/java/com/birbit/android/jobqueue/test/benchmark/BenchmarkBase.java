@@ -0,0 +1,49 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.test.TestBase;
+
+import org.junit.Assume;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for benchmarks. They are slow so they only run when the {@code jobqueue.benchmark}
+ * system property is set to true (e.g. {@code ./gradlew test -Djobqueue.benchmark=true}).
+ * <p>
+ * Results are printed to the standard output.
+ */
+public abstract class BenchmarkBase extends TestBase {
+    public static final String BENCHMARK_PROPERTY = "jobqueue.benchmark";
+
+    @Before
+    public void assumeBenchmarksEnabled() {
+        Assume.assumeTrue("benchmarks are disabled, set -D" + BENCHMARK_PROPERTY + "=true",
+                Boolean.getBoolean(BENCHMARK_PROPERTY));
+    }
+
+    /**
+     * Prints min / median / p90 / max of the given durations.
+     *
+     * @param name The name of the measurement
+     * @param durationsNs The measured durations in nanoseconds
+     */
+    protected void report(String name, long[] durationsNs) {
+        long[] sorted = Arrays.copyOf(durationsNs, durationsNs.length);
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US,
+                "[benchmark] %s: runs %d, min %.3fms, median %.3fms, p90 %.3fms, max %.3fms",
+                name, sorted.length, toMs(sorted[0]), toMs(sorted[sorted.length / 2]),
+                toMs(sorted[(int) (sorted.length * .9)]), toMs(sorted[sorted.length - 1])));
+    }
+
+    protected void report(String name, String format, Object... args) {
+        System.out.println("[benchmark] " + name + ": " + String.format(Locale.US, format, args));
+    }
+
+    private static double toMs(long ns) {
+        return ns / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,69 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures how long it takes to cancel jobs by tag from a {@link SqliteJobQueue} that has 10k
+ * jobs in it. This is what {@code CancelHandler} does when JobManager#cancelJobs is called.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class CancelByTagBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 10000;
+    private static final int TAG_COUNT = 100;
+    private static final int RUNS = 20;
+
+    @Test
+    public void cancelByTag() {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("cancel_benchmark").jobSerializer(serializer).inTestMode()
+                        .timer(timer).build(), timer.nanoTime(), serializer);
+        List<JobHolder> holders = new ArrayList<>(JOB_COUNT);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            holders.add(JobQueueTestBase.createNewJobHolder(new Params(0).persist()
+                    .addTags("tag" + (i % TAG_COUNT), "all"), timer));
+        }
+        queue.insertAll(holders);
+        long[] durations = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            TestConstraint constraint = TestConstraint.forTags(timer, TagConstraint.ANY,
+                    Collections.<String>emptyList(), "tag" + run);
+            Set<JobHolder> jobs = queue.findJobs(constraint);
+            for (JobHolder holder : jobs) {
+                queue.onJobCancelled(holder);
+            }
+            for (JobHolder holder : jobs) {
+                queue.remove(holder);
+            }
+            durations[run] = System.nanoTime() - start;
+            assertThat(jobs.size(), is(JOB_COUNT / TAG_COUNT));
+        }
+        report("cancel " + (JOB_COUNT / TAG_COUNT) + " jobs by tag, " + JOB_COUNT + " queued",
+                durations);
+    }
+}
@@ -0,0 +1,139 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures how long a consumer waits for its next job when 5k no-op jobs are ready: the time
+ * between the end of a job and the start of the next one on the only consumer. Prints a
+ * histogram of these gaps.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class DispatchLatencyBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 5000;
+    private static final int WARM_UP = 500;
+    private static final long[] BUCKETS_US = {10, 20, 50, 100, 200, 500, 1000};
+
+    @Test
+    public void messages() throws InterruptedException {
+        run("dispatch latency, messages", false);
+    }
+
+    @Test
+    public void directHandOff() throws InterruptedException {
+        run("dispatch latency, direct hand-off", true);
+    }
+
+    private void run(String name, final boolean directHandOff) throws InterruptedException {
+        final long[] gaps = new long[JOB_COUNT - WARM_UP];
+        // JobManager cannot be queried from the main thread
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                measure(directHandOff, gaps);
+            }
+        });
+        thread.start();
+        thread.join();
+        report(name + ", " + gaps.length + " jobs", gaps);
+        report(name, "histogram %s", histogram(gaps));
+    }
+
+    private void measure(boolean directHandOff, long[] gaps) {
+        Configuration.Builder builder = new Configuration.Builder(RuntimeEnvironment.application)
+                .id("dispatch_latency_benchmark_" + directHandOff)
+                .inTestMode()
+                .minConsumerCount(1)
+                .maxConsumerCount(1);
+        if (directHandOff) {
+            builder.directJobHandOff();
+        }
+        JobManager jobManager = new JobManager(builder.build());
+        jobManager.stop();
+        long[] starts = new long[JOB_COUNT];
+        long[] ends = new long[JOB_COUNT];
+        final CountDownLatch done = new CountDownLatch(JOB_COUNT);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < JOB_COUNT; i++) {
+            jobManager.addJobInBackground(new TimedJob(i, starts, ends));
+        }
+        assertThat(jobManager.count(), is(JOB_COUNT));
+        jobManager.start();
+        try {
+            assertThat(done.await(5, TimeUnit.MINUTES), is(true));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        jobManager.stopAndWaitUntilConsumersAreFinished();
+        jobManager.destroy();
+        for (int i = WARM_UP; i < JOB_COUNT; i++) {
+            gaps[i - WARM_UP] = starts[i] - ends[i - 1];
+        }
+    }
+
+    private static String histogram(long[] durationsNs) {
+        int[] counts = new int[BUCKETS_US.length + 1];
+        for (long duration : durationsNs) {
+            int bucket = 0;
+            while (bucket < BUCKETS_US.length
+                    && duration >= TimeUnit.MICROSECONDS.toNanos(BUCKETS_US[bucket])) {
+                bucket++;
+            }
+            counts[bucket]++;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i < BUCKETS_US.length) {
+                sb.append("<").append(BUCKETS_US[i]).append("us:");
+            } else {
+                sb.append(">=").append(BUCKETS_US[BUCKETS_US.length - 1]).append("us:");
+            }
+            sb.append(counts[i]).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    // jobs run one by one in the order they are added because they have the same priority
+    private static class TimedJob extends DummyJob {
+        private final int index;
+        private final long[] starts;
+        private final long[] ends;
+
+        TimedJob(int index, long[] starts, long[] ends) {
+            super(new Params(1));
+            this.index = index;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        @Override
+        public void onRun() throws Throwable {
+            starts[index] = System.nanoTime();
+            ends[index] = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures fetching and removing queued jobs on a file backed {@link SqliteJobQueue}, with and
+ * without group commit.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class GroupCommitBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 2000;
+
+    @Test
+    public void withoutGroupCommit() {
+        run("fetch + remove, no group commit", 0);
+    }
+
+    @Test
+    public void withGroupCommit() {
+        run("fetch + remove, group commit 50ms", 50);
+    }
+
+    private void run(String name, long windowMs) {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(new Configuration.Builder(
+                RuntimeEnvironment.application).id("group_commit_benchmark_" + System.nanoTime())
+                .jobSerializer(serializer).timer(timer).sqliteGroupCommit(windowMs).build(),
+                timer.nanoTime(), serializer);
+        try {
+            List<JobHolder> holders = new ArrayList<>(JOB_COUNT);
+            for (int i = 0; i < JOB_COUNT; i++) {
+                holders.add(JobQueueTestBase.createNewJobHolder(new Params(0).persist(), timer));
+            }
+            queue.insertAll(holders);
+            TestConstraint constraint = new TestConstraint(timer);
+            constraint.setExcludeRunning(true);
+            long[] durations = new long[JOB_COUNT];
+            for (int i = 0; i < JOB_COUNT; i++) {
+                long start = System.nanoTime();
+                JobHolder holder = queue.nextJobAndIncRunCount(constraint);
+                assertThat(holder, notNullValue());
+                queue.remove(holder);
+                durations[i] = System.nanoTime() - start;
+                // the mock timer does not move by itself, make the window expire every 10 jobs
+                timer.incrementMs(Math.max(1, windowMs / 10));
+            }
+            queue.flush();
+            report(name, durations);
+        } finally {
+            queue.clear();
+            queue.getDb().close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.cachedQueue.CachedJobQueue;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures what the job manager asks the persistent queue when 8 consumers become idle while
+ * none of the 10k jobs can run (they need network): the next job and the next wake up time for
+ * each consumer.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class IdleBurstBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 10000;
+    private static final int CONSUMER_COUNT = 8;
+    private static final int RUNS = 50;
+
+    @Test
+    public void uncached() {
+        run("idle burst, uncached", false);
+    }
+
+    @Test
+    public void cached() {
+        run("idle burst, cached", true);
+    }
+
+    private void run(String name, boolean cached) {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        JobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("idle_burst_benchmark").jobSerializer(serializer).inTestMode()
+                        .timer(timer).build(), timer.nanoTime(), serializer);
+        if (cached) {
+            queue = new CachedJobQueue(queue);
+        }
+        List<JobHolder> holders = new ArrayList<>(JOB_COUNT);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            Params params = new Params(i % 10).persist().requireNetwork();
+            if (i % 4 == 0) {
+                params.delayInMs(1000000 + i);
+            }
+            holders.add(JobQueueTestBase.createNewJobHolder(params, timer));
+        }
+        queue.insertAll(holders);
+        TestConstraint constraint = new TestConstraint(timer);
+        constraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        constraint.setExcludeRunning(true);
+        long[] durations = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            timer.incrementMs(1);
+            // a new job makes the first consumer query the queue again
+            queue.insert(JobQueueTestBase.createNewJobHolder(
+                    new Params(0).persist().requireNetwork(), timer));
+            long start = System.nanoTime();
+            for (int consumer = 0; consumer < CONSUMER_COUNT; consumer++) {
+                constraint.setTimeLimit(timer.nanoTime());
+                assertThat(queue.nextJobAndIncRunCount(constraint), nullValue());
+                constraint.setTimeLimit(null);
+                queue.getNextJobDelayUntilNs(constraint);
+            }
+            durations[run] = System.nanoTime() - start;
+        }
+        report(name + ", " + CONSUMER_COUNT + " consumers, " + JOB_COUNT + " jobs", durations);
+    }
+}
@@ -0,0 +1,83 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures what the job manager does with the non persistent queue when a consumer becomes idle:
+ * count the ready jobs, find the next wake up time and take the next job. The queue has 20k
+ * jobs, a quarter of them delayed and a quarter of them in groups that have a running job.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class InMemoryQueueBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 20000;
+    private static final int GROUP_COUNT = 8;
+    private static final int RUNS = 200;
+
+    @Test
+    public void simpleQueue() {
+        run("simple in memory queue", new SimpleInMemoryPriorityQueue(null, 1));
+    }
+
+    @Test
+    public void indexedQueue() {
+        run("indexed in memory queue", new IndexedInMemoryPriorityQueue(null, 1));
+    }
+
+    private void run(String name, JobQueue queue) {
+        MockTimer timer = new MockTimer();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            Params params = new Params(i % 5);
+            if (i % 4 == 0) {
+                params.delayInMs(1000000 + i);
+            }
+            if (i % 2 == 0) {
+                params.groupBy("group" + (i % GROUP_COUNT));
+            }
+            if (i % 3 == 0) {
+                params.requireNetwork();
+            }
+            queue.insert(JobQueueTestBase.createNewJobHolder(params, timer));
+        }
+        // groups 0 and 2 have a running job
+        List<String> runningGroups = new ArrayList<>();
+        runningGroups.add("group0");
+        runningGroups.add("group2");
+        TestConstraint constraint = new TestConstraint(timer);
+        constraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        constraint.setExcludeGroups(runningGroups);
+        constraint.setExcludeRunning(true);
+        long[] durations = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            constraint.setTimeLimit(timer.nanoTime());
+            queue.countReadyJobs(constraint);
+            JobHolder next = queue.nextJobAndIncRunCount(constraint);
+            constraint.setTimeLimit(null);
+            queue.getNextJobDelayUntilNs(constraint);
+            durations[run] = System.nanoTime() - start;
+            assertThat(next, notNullValue());
+            queue.insertOrReplace(next);
+        }
+        report(name + ", " + JOB_COUNT + " jobs", durations);
+    }
+}
@@ -0,0 +1,122 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.messaging.LockFreeMessageQueue;
+import com.birbit.android.jobqueue.messaging.Message;
+import com.birbit.android.jobqueue.messaging.MessageFactory;
+import com.birbit.android.jobqueue.messaging.MessageQueue;
+import com.birbit.android.jobqueue.messaging.MessageQueueConsumer;
+import com.birbit.android.jobqueue.messaging.PriorityMessageQueue;
+import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+import com.birbit.android.jobqueue.timer.SystemTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures how long it takes to deliver 20k messages from each of 8 (then 16) threads to the
+ * JobManager thread, the way many threads adding jobs and many consumers reporting results do.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class MessageQueueContentionBenchmark extends BenchmarkBase {
+    private static final int MESSAGES_PER_PRODUCER = 20000;
+    private static final int RUNS = 10;
+
+    @Test
+    public void priorityMessageQueue() throws InterruptedException {
+        run("priority message queue", false, 8);
+        run("priority message queue", false, 16);
+    }
+
+    @Test
+    public void lockFreeMessageQueue() throws InterruptedException {
+        run("lock free message queue", true, 8);
+        run("lock free message queue", true, 16);
+    }
+
+    private void run(String name, boolean lockFree, int producerCount)
+            throws InterruptedException {
+        long[] durations = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            durations[run] = measure(lockFree, producerCount);
+        }
+        report(name + ", " + producerCount + " producers x " + MESSAGES_PER_PRODUCER
+                + " messages", durations);
+    }
+
+    private long measure(boolean lockFree, int producerCount) throws InterruptedException {
+        final MessageFactory factory = new MessageFactory();
+        final SystemTimer timer = new SystemTimer();
+        final MessageQueue mq = lockFree ? new LockFreeMessageQueue(timer, factory)
+                : new PriorityMessageQueue(timer, factory);
+        final int total = producerCount * MESSAGES_PER_PRODUCER;
+        final CountDownLatch consumed = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mq.consume(new MessageQueueConsumer() {
+                    int received;
+
+                    @Override
+                    public void handleMessage(Message message) {
+                        if (++received == total) {
+                            consumed.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void onIdle() {
+
+                    }
+                });
+            }
+        });
+        consumer.start();
+        // messages are created before the clock starts so that only posting is measured
+        final Message[][] messages = new Message[producerCount][MESSAGES_PER_PRODUCER];
+        for (int i = 0; i < producerCount; i++) {
+            for (int j = 0; j < MESSAGES_PER_PRODUCER; j++) {
+                // two priorities, like consumers reporting results among jobs being added
+                messages[i][j] = j % 2 == 0 ? new AddJobMessage() : new CommandMessage();
+            }
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            final Message[] toPost = messages[i];
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (Message message : toPost) {
+                        mq.post(message);
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        long startNs = System.nanoTime();
+        start.countDown();
+        assertThat(consumed.await(1, TimeUnit.MINUTES), is(true));
+        long duration = System.nanoTime() - startNs;
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        mq.stop();
+        consumer.join();
+        return duration;
+    }
+}
@@ -0,0 +1,97 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import android.content.Context;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures how many messages per second JobManager's thread processes when 10k jobs are added
+ * in the background at once. The jobs need network and there is none, so the thread only adds
+ * them to the queue.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class MessageThroughputBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 10000;
+    private static final int RUNS = 20;
+
+    @Test
+    public void lockPerMessage() throws InterruptedException {
+        run("message throughput, lock per message", false);
+    }
+
+    @Test
+    public void batchDrain() throws InterruptedException {
+        run("message throughput, batch drain", true);
+    }
+
+    private void run(String name, final boolean batchDrain) throws InterruptedException {
+        final long[] durations = new long[RUNS];
+        // JobManager cannot be queried from the main thread
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int run = 0; run < RUNS; run++) {
+                    durations[run] = measure(batchDrain, run);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertThat(durations[RUNS - 1] > 0, is(true));
+        report(name + ", " + JOB_COUNT + " jobs", durations);
+        long[] sorted = Arrays.copyOf(durations, durations.length);
+        Arrays.sort(sorted);
+        // the adds and the count query
+        double medianSeconds = sorted[sorted.length / 2] / (double) TimeUnit.SECONDS.toNanos(1);
+        report(name, "median %.0f messages/s", (JOB_COUNT + 1) / medianSeconds);
+    }
+
+    private long measure(boolean batchDrain, int run) {
+        Configuration.Builder builder = new Configuration.Builder(RuntimeEnvironment.application)
+                .id("message_throughput_benchmark_" + batchDrain + run)
+                .inTestMode()
+                .networkUtil(new NetworkUtil() {
+                    @Override
+                    public int getNetworkStatus(Context context) {
+                        return NetworkUtil.DISCONNECTED;
+                    }
+                });
+        if (batchDrain) {
+            builder.batchMessageDrain();
+        }
+        JobManager jobManager = new JobManager(builder.build());
+        DummyJob[] jobs = new DummyJob[JOB_COUNT];
+        for (int i = 0; i < JOB_COUNT; i++) {
+            jobs[i] = new DummyJob(new Params(i % 10).requireNetwork());
+        }
+        // makes sure the thread is running before the clock starts
+        assertThat(jobManager.count(), is(0));
+        long start = System.nanoTime();
+        for (DummyJob job : jobs) {
+            jobManager.addJobInBackground(job);
+        }
+        // has a lower priority than the adds so it is answered after all of them are processed
+        assertThat(jobManager.count(), is(JOB_COUNT));
+        long duration = System.nanoTime() - start;
+        jobManager.stopAndWaitUntilConsumersAreFinished();
+        jobManager.destroy();
+        return duration;
+    }
+}
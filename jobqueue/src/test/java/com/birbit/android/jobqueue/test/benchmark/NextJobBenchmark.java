@@ -0,0 +1,59 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures the latency of {@link SqliteJobQueue#nextJobAndIncRunCount} with 10k jobs in the
+ * queue.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class NextJobBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 10000;
+    private static final int RUNS = 1000;
+
+    @Test
+    public void nextJob() {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("next_job_benchmark").jobSerializer(serializer).inTestMode()
+                        .timer(timer).build(), timer.nanoTime(), serializer);
+        List<JobHolder> holders = new ArrayList<>(JOB_COUNT);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            holders.add(JobQueueTestBase.createNewJobHolder(
+                    new Params(i % 10).persist().groupBy("group" + (i % 50)), timer));
+        }
+        queue.insertAll(holders);
+        TestConstraint constraint = new TestConstraint(timer);
+        constraint.setExcludeRunning(true);
+        long[] durations = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            JobHolder holder = queue.nextJobAndIncRunCount(constraint);
+            durations[run] = System.nanoTime() - start;
+            assertThat(holder, notNullValue());
+            queue.remove(holder);
+        }
+        report("next job, " + JOB_COUNT + " queued", durations);
+    }
+}
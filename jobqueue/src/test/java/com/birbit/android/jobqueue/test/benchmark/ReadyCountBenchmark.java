@@ -0,0 +1,85 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures the ready job count JobManager makes to decide whether it needs more consumers, with
+ * 10k jobs in the persistent queue. The same count is also measured with a constraint that makes
+ * the queue run the query.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class ReadyCountBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 10000;
+    private static final int RUNS = 500;
+
+    @Test
+    public void countReadyJobs() {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("ready_count_benchmark").jobSerializer(serializer).inTestMode()
+                        .timer(timer).build(), timer.nanoTime(), serializer);
+        List<JobHolder> holders = new ArrayList<>(JOB_COUNT);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            Params params = new Params(i % 10).persist();
+            if (i % 2 == 0) {
+                params.groupBy("group" + (i % 50));
+            }
+            if (i % 3 == 0) {
+                params.requireNetwork();
+            }
+            if (i % 4 == 0) {
+                params.delayInMs(1000000 + i);
+            }
+            holders.add(JobQueueTestBase.createNewJobHolder(params, timer));
+        }
+        queue.insertAll(holders);
+        List<String> runningGroups = new ArrayList<>();
+        runningGroups.add("group0");
+        runningGroups.add("group2");
+        TestConstraint constraint = new TestConstraint(timer);
+        constraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        constraint.setExcludeGroups(runningGroups);
+        constraint.setExcludeRunning(true);
+        constraint.setTimeLimit(timer.nanoTime());
+        int counted = measure("ready count", queue, constraint);
+        // excluding a job id that does not exist makes the queue run the query
+        constraint.setExcludeJobIds(Collections.singletonList("not a job id"));
+        int queried = measure("ready count, query", queue, constraint);
+        assertThat(counted, is(queried));
+    }
+
+    private int measure(String name, SqliteJobQueue queue, TestConstraint constraint) {
+        long[] durations = new long[RUNS];
+        int count = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            count = queue.countReadyJobs(constraint);
+            durations[run] = System.nanoTime() - start;
+        }
+        report(name + ", " + JOB_COUNT + " queued", durations);
+        return count;
+    }
+}
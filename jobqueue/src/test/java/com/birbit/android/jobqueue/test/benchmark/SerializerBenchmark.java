@@ -0,0 +1,67 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobs.BinaryDummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Compares the payload size and the serialize + deserialize time of
+ * {@link SqliteJobQueue.JavaSerializer} and {@link BinaryJobSerializer}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class SerializerBenchmark extends BenchmarkBase {
+    private static final int WARM_UP = 5000;
+    private static final int RUNS = 20000;
+
+    @Test
+    public void javaSerializer() throws Exception {
+        run("java serializer", new SqliteJobQueue.JavaSerializer());
+    }
+
+    @Test
+    public void binarySerializer() throws Exception {
+        run("binary serializer", new BinaryJobSerializer()
+                .register(1, BinaryDummyJob.class, BinaryDummyJob.FACTORY));
+    }
+
+    private void run(String name, SqliteJobQueue.JobSerializer serializer) throws Exception {
+        BinaryDummyJob job = new BinaryDummyJob(new Params(1).persist(), "some job payload", 7,
+                System.currentTimeMillis(), Arrays.asList("item1", "item2", "item3"));
+        // seals the job so that it can be serialized
+        new JobHolder.Builder().priority(1).groupId(null).job(job).id(job.getId())
+                .persistent(true).tags(null).createdNs(0)
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY).deadline(Params.FOREVER, false)
+                .requiredNetworkType(NetworkUtil.DISCONNECTED)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+        for (int i = 0; i < WARM_UP; i++) {
+            serializer.deserialize(serializer.serialize(job));
+        }
+        long[] durations = new long[RUNS];
+        int size = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            byte[] bytes = serializer.serialize(job);
+            BinaryDummyJob read = serializer.deserialize(bytes);
+            durations[i] = System.nanoTime() - start;
+            assertThat(read, notNullValue());
+            size = bytes.length;
+        }
+        report(name + " round trip", durations);
+        report(name + " payload", "%d bytes", size);
+    }
+}
@@ -0,0 +1,106 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures the throughput of insert + dequeue + delete cycles on a file backed
+ * {@link SqliteJobQueue} for different journal mode and pragma settings.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class SqlitePragmaBenchmark extends BenchmarkBase {
+    private static final int WARM_UP = 200;
+    private static final int CYCLES = 2000;
+
+    @Test
+    public void rollbackJournal() {
+        run("rollback journal", builder());
+    }
+
+    @Test
+    public void rollbackJournalSynchronousOff() {
+        run("rollback journal, synchronous off",
+                builder().sqliteSynchronous(Configuration.SQLITE_SYNCHRONOUS_OFF));
+    }
+
+    @Test
+    public void wal() {
+        run("wal", builder().sqliteWriteAheadLogging());
+    }
+
+    @Test
+    public void walSynchronousNormal() {
+        run("wal, synchronous normal", builder().sqliteWriteAheadLogging()
+                .sqliteSynchronous(Configuration.SQLITE_SYNCHRONOUS_NORMAL));
+    }
+
+    @Test
+    public void walSynchronousFull() {
+        run("wal, synchronous full", builder().sqliteWriteAheadLogging()
+                .sqliteSynchronous(Configuration.SQLITE_SYNCHRONOUS_FULL));
+    }
+
+    @Test
+    public void walSynchronousNormalCacheAndMmap() {
+        run("wal, synchronous normal, 8MB cache, 8MB mmap", builder().sqliteWriteAheadLogging()
+                .sqliteSynchronous(Configuration.SQLITE_SYNCHRONOUS_NORMAL)
+                .sqliteCacheSizeKb(8 * 1024)
+                .sqliteMmapSize(8 * 1024 * 1024));
+    }
+
+    private Configuration.Builder builder() {
+        return new Configuration.Builder(RuntimeEnvironment.application)
+                .id("pragma_benchmark_" + System.nanoTime());
+    }
+
+    private void run(String name, Configuration.Builder builder) {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(builder.jobSerializer(serializer).timer(timer)
+                .build(), timer.nanoTime(), serializer);
+        try {
+            TestConstraint constraint = new TestConstraint(timer);
+            constraint.setExcludeRunning(true);
+            for (int i = 0; i < WARM_UP; i++) {
+                cycle(queue, constraint, timer);
+            }
+            long[] durations = new long[CYCLES];
+            long total = 0;
+            for (int i = 0; i < CYCLES; i++) {
+                long start = System.nanoTime();
+                cycle(queue, constraint, timer);
+                durations[i] = System.nanoTime() - start;
+                total += durations[i];
+            }
+            report(name, durations);
+            report(name, "%.0f cycles/s", CYCLES / (total / (double) TimeUnit.SECONDS.toNanos(1)));
+        } finally {
+            queue.clear();
+            queue.getDb().close();
+        }
+    }
+
+    private static void cycle(SqliteJobQueue queue, TestConstraint constraint, MockTimer timer) {
+        queue.insert(JobQueueTestBase.createNewJobHolder(new Params(0).persist(), timer));
+        JobHolder holder = queue.nextJobAndIncRunCount(constraint);
+        assertThat(holder, notNullValue());
+        queue.remove(holder);
+    }
+}
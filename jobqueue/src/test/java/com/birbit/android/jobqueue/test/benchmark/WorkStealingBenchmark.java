@@ -0,0 +1,144 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.birbit.android.jobqueue.CancelReason;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.RetryConstraint;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Runs 100k no-op non-persistent jobs on 4 consumers and prints how many jobs per second are
+ * completed, from the moment JobManager is started until the last job is done.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class WorkStealingBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 100000;
+    private static final int CONSUMER_COUNT = 4;
+    private static final int GROUP_COUNT = 8;
+
+    @Test
+    public void messages() throws InterruptedException {
+        run("throughput, messages", new Configuration.Builder(RuntimeEnvironment.application),
+                false);
+    }
+
+    @Test
+    public void directHandOff() throws InterruptedException {
+        run("throughput, direct hand-off",
+                new Configuration.Builder(RuntimeEnvironment.application).directJobHandOff(),
+                false);
+    }
+
+    @Test
+    public void workStealing() throws InterruptedException {
+        run("throughput, work stealing",
+                new Configuration.Builder(RuntimeEnvironment.application).workStealing(32),
+                false);
+    }
+
+    @Test
+    public void workStealingWithGroups() throws InterruptedException {
+        run("throughput, work stealing, 1/4 of jobs in " + GROUP_COUNT + " groups",
+                new Configuration.Builder(RuntimeEnvironment.application).workStealing(32),
+                true);
+    }
+
+    private void run(String name, final Configuration.Builder builder, final boolean groups)
+            throws InterruptedException {
+        final long[] duration = new long[1];
+        // JobManager cannot be queried from the main thread
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                duration[0] = measure(builder, groups);
+            }
+        });
+        thread.start();
+        thread.join();
+        report(name, "%d jobs in %.1fms, %.0f jobs/s", JOB_COUNT,
+                duration[0] / (double) TimeUnit.MILLISECONDS.toNanos(1),
+                JOB_COUNT / (duration[0] / (double) TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private long measure(Configuration.Builder builder, boolean groups) {
+        JobManager jobManager = new JobManager(builder
+                .id("work_stealing_benchmark")
+                .inTestMode()
+                .minConsumerCount(CONSUMER_COUNT)
+                .maxConsumerCount(CONSUMER_COUNT)
+                .build());
+        jobManager.stop();
+        final CountDownLatch done = new CountDownLatch(JOB_COUNT);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        List<Job> jobs = new ArrayList<>(JOB_COUNT);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            Params params = new Params(1);
+            if (groups && i % 4 == 0) {
+                params.groupBy("group" + (i % GROUP_COUNT));
+            }
+            jobs.add(new NoOpJob(params));
+        }
+        jobManager.addJobs(jobs);
+        assertThat(jobManager.count(), is(JOB_COUNT));
+        long start = System.nanoTime();
+        jobManager.start();
+        try {
+            assertThat(done.await(10, TimeUnit.MINUTES), is(true));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        long duration = System.nanoTime() - start;
+        jobManager.stopAndWaitUntilConsumersAreFinished();
+        jobManager.destroy();
+        return duration;
+    }
+
+    private static class NoOpJob extends Job {
+        NoOpJob(Params params) {
+            super(params);
+        }
+
+        @Override
+        public void onAdded() {
+        }
+
+        @Override
+        public void onRun() throws Throwable {
+        }
+
+        @Override
+        protected void onCancel(@CancelReason int cancelReason, @Nullable Throwable throwable) {
+        }
+
+        @Override
+        protected RetryConstraint shouldReRunOnThrowable(@NonNull Throwable throwable,
+                int runCount, int maxRunCount) {
+            return RetryConstraint.CANCEL;
+        }
+    }
+}
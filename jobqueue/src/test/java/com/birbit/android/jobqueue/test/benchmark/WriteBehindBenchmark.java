@@ -0,0 +1,133 @@
+package com.birbit.android.jobqueue.test.benchmark;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.WriteBehindJobQueue;
+import com.birbit.android.jobqueue.test.jobqueue.JobQueueTestBase;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Measures the queries JobManager makes besides fetching jobs (job status, find by tag, ready
+ * count and next wake up time) with 10k jobs in {@link SqliteJobQueue} and in
+ * {@link WriteBehindJobQueue}, and how long the latter takes to load 10k jobs on start.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class WriteBehindBenchmark extends BenchmarkBase {
+    private static final int JOB_COUNT = 10000;
+    private static final int RUNS = 100;
+
+    @Test
+    public void sqliteQueries() {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        measureQueries("queries, sqlite", new SqliteJobQueue(
+                createConfiguration("sqlite_queries_benchmark", serializer, timer),
+                timer.nanoTime(), serializer), timer);
+    }
+
+    @Test
+    public void writeBehindQueries() {
+        MockTimer timer = new MockTimer();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        measureQueries("queries, write behind", new WriteBehindJobQueue(
+                createConfiguration("write_behind_queries_benchmark", serializer, timer),
+                timer.nanoTime(), serializer), timer);
+    }
+
+    @Test
+    public void warmUp() throws InterruptedException {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        // not in test mode so that the database survives a restart, with the system timer
+        Configuration configuration = new Configuration.Builder(RuntimeEnvironment.application)
+                .id("write_behind_warm_up_benchmark" + System.nanoTime())
+                .jobSerializer(serializer).build();
+        WriteBehindJobQueue queue = new WriteBehindJobQueue(configuration, 1, serializer);
+        queue.insertAll(createJobs(new MockTimer()));
+        assertThat(queue.awaitWrites(1, TimeUnit.MINUTES), is(true));
+        queue.getDb().close();
+        long[] durations = new long[10];
+        for (int run = 0; run < durations.length; run++) {
+            queue = new WriteBehindJobQueue(configuration, run + 2, serializer);
+            assertThat(queue.count(), is(JOB_COUNT));
+            durations[run] = queue.getWarmUpNs();
+            if (run == durations.length - 1) {
+                queue.clear();
+                assertThat(queue.awaitWrites(1, TimeUnit.MINUTES), is(true));
+            }
+            queue.getDb().close();
+        }
+        report("warm up, " + JOB_COUNT + " jobs", durations);
+    }
+
+    private void measureQueries(String name, JobQueue queue, MockTimer timer) {
+        List<JobHolder> holders = createJobs(timer);
+        queue.insertAll(holders);
+        TestConstraint readyConstraint = new TestConstraint(timer);
+        readyConstraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        readyConstraint.setExcludeRunning(true);
+        readyConstraint.setTimeLimit(timer.nanoTime());
+        TestConstraint delayConstraint = new TestConstraint(timer);
+        delayConstraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        delayConstraint.setExcludeRunning(true);
+        TestConstraint tagConstraint = new TestConstraint(timer);
+        tagConstraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        tagConstraint.setExcludeRunning(true);
+        tagConstraint.setTagConstraint(TagConstraint.ANY);
+        long[] durations = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            tagConstraint.setTags(new String[]{"tag" + (run % 100)});
+            long start = System.nanoTime();
+            assertThat(queue.findJobById(holders.get(run * 37).getId()), notNullValue());
+            queue.findJobs(tagConstraint);
+            queue.countReadyJobs(readyConstraint);
+            queue.getNextJobDelayUntilNs(delayConstraint);
+            durations[run] = System.nanoTime() - start;
+        }
+        report(name + ", " + JOB_COUNT + " jobs", durations);
+    }
+
+    private static Configuration createConfiguration(String id,
+            SqliteJobQueue.JavaSerializer serializer, MockTimer timer) {
+        return new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(serializer).inTestMode().timer(timer).build();
+    }
+
+    private static List<JobHolder> createJobs(MockTimer timer) {
+        List<JobHolder> holders = new ArrayList<>(JOB_COUNT);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            Params params = new Params(i % 10).persist().addTags("tag" + (i % 100));
+            if (i % 2 == 0) {
+                params.groupBy("group" + (i % 50));
+            }
+            if (i % 3 == 0) {
+                params.requireNetwork();
+            }
+            if (i % 4 == 0) {
+                params.delayInMs(1000000 + i);
+            }
+            holders.add(JobQueueTestBase.createNewJobHolder(params, timer));
+        }
+        return holders;
+    }
+}
@@ -0,0 +1,110 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.ConsumerScalingListener;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class AdaptiveConsumerScalingTest extends JobManagerTestBase {
+    private static final int JOB_COUNT = 300;
+    private static final int MAX_CONSUMERS = 4;
+
+    @Test
+    public void testShrinksWhenConsumersDoNotHelp() throws InterruptedException {
+        runJobsThatShareTheClock(new Configuration.Builder(RuntimeEnvironment.application));
+    }
+
+    @Test
+    public void testShrinksWhenConsumersDoNotHelpWithDirectHandOff()
+            throws InterruptedException {
+        runJobsThatShareTheClock(new Configuration.Builder(RuntimeEnvironment.application)
+                .directJobHandOff());
+    }
+
+    /**
+     * Each job moves the clock forward by the same amount no matter how many run at the same
+     * time, like CPU bound jobs on a single core, so more consumers do not complete more jobs.
+     */
+    private void runJobsThatShareTheClock(Configuration.Builder builder)
+            throws InterruptedException {
+        final List<Integer> targets = Collections.synchronizedList(new ArrayList<Integer>());
+        final JobManager jobManager = createJobManager(builder
+                .timer(mockTimer)
+                .minConsumerCount(1)
+                .maxConsumerCount(MAX_CONSUMERS)
+                .loadFactor(1)
+                .adaptiveConsumerScaling(100)
+                .consumerScalingListener(new ConsumerScalingListener() {
+                    @Override
+                    public void onConsumerTargetChanged(int previousTarget, int newTarget,
+                            double jobsPerSecond, long medianRunTimeNs, long p90RunTimeNs,
+                            int backlog) {
+                        targets.add(newTarget);
+                    }
+                }));
+        jobManager.stop();
+        final CountDownLatch done = new CountDownLatch(JOB_COUNT);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger runningAtEnd = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            jobManager.addJob(new DummyJob(new Params(0)) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    final int runningNow = running.incrementAndGet();
+                    if (runningNow > maxRunning.get()) {
+                        maxRunning.set(runningNow);
+                    }
+                    //noinspection SLEEP_IN_CODE
+                    Thread.sleep(1);
+                    mockTimer.incrementMs(5);
+                    if (completed.incrementAndGet() > JOB_COUNT - 20) {
+                        runningAtEnd.set(Math.max(runningAtEnd.get(), runningNow));
+                    }
+                    running.decrementAndGet();
+                }
+            });
+        }
+        jobManager.start();
+        assertThat("all jobs should run", done.await(1, TimeUnit.MINUTES), is(true));
+        assertThat("should run more consumers at first", maxRunning.get() > 1, is(true));
+        assertThat("should aim for fewer consumers " + targets, targets.isEmpty(), is(false));
+        for (int target : targets) {
+            assertThat("target should be between min and max " + targets,
+                    target >= 1 && target <= MAX_CONSUMERS, is(true));
+        }
+        assertThat("should run fewer consumers at the end " + targets,
+                runningAtEnd.get() < MAX_CONSUMERS, is(true));
+    }
+}
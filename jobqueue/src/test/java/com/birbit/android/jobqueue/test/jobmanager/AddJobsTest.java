@@ -0,0 +1,122 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.AsyncAddCallback;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class AddJobsTest extends JobManagerTestBase {
+    @Test
+    public void testAddJobsPersistent() throws Throwable {
+        testAddJobs(true);
+    }
+
+    @Test
+    public void testAddJobsNonPersistent() throws Throwable {
+        testAddJobs(false);
+    }
+
+    private void testAddJobs(boolean persistent) throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            jobs.add(new DummyJob(new Params(i % 3).setPersistent(persistent).addTags("tag" + i)));
+        }
+        jobManager.addJobs(jobs);
+        assertThat(jobManager.count(), is(50));
+        assertThat(jobManager.countReadyJobs(), is(50));
+    }
+
+    @Test
+    public void testSingleIdInBatchPersistent() throws Throwable {
+        testSingleIdInBatch(true);
+    }
+
+    @Test
+    public void testSingleIdInBatchNonPersistent() throws Throwable {
+        testSingleIdInBatch(false);
+    }
+
+    private void testSingleIdInBatch(boolean persistent) throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        DummyJob queued = new DummyJob(new Params(0).setPersistent(persistent).setSingleId("a"));
+        jobManager.addJob(queued);
+        DummyJob sameAsQueued = new DummyJob(new Params(0).setPersistent(persistent)
+                .setSingleId("a"));
+        DummyJob first = new DummyJob(new Params(0).setPersistent(persistent).setSingleId("b"));
+        DummyJob sameAsFirst = new DummyJob(new Params(0).setPersistent(persistent)
+                .setSingleId("b"));
+        DummyJob other = new DummyJob(new Params(0).setPersistent(persistent));
+        jobManager.addJobs(Arrays.<Job>asList(sameAsQueued, first, sameAsFirst, other));
+        assertThat(jobManager.countReadyJobs(), is(3));
+        assertThat(nextJob(jobManager).getId(), is(queued.getId()));
+        assertThat(nextJob(jobManager).getId(), is(first.getId()));
+        assertThat(nextJob(jobManager).getId(), is(other.getId()));
+        assertThat(nextJob(jobManager), is(nullValue()));
+    }
+
+    @Test
+    public void testRejectedBatch() throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        final AtomicInteger addedCount = new AtomicInteger();
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                addedCount.incrementAndGet();
+            }
+        });
+        DummyJob duplicate = new DummyJob(new Params(0).persist());
+        DummyJob other = new DummyJob(new Params(0).persist());
+        // the second copy of the same job cannot be saved so the whole batch is rejected
+        jobManager.addJobs(Arrays.<Job>asList(duplicate, other, duplicate));
+        assertThat(jobManager.count(), is(0));
+        assertThat(addedCount.get(), is(0));
+        assertThat(duplicate.getOnAddedCnt(), is(0));
+        assertThat(other.getOnAddedCnt(), is(0));
+        assertThat(other.getOnCancelCnt(), is(1));
+    }
+
+    @Test
+    public void testAddJobsInBackgroundCallback() throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        final CountDownLatch latch = new CountDownLatch(1);
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            jobs.add(new DummyJob(new Params(0).setPersistent(i % 2 == 0)));
+        }
+        jobManager.addJobsInBackground(jobs, new AsyncAddCallback() {
+            @Override
+            public void onAdded() {
+                latch.countDown();
+            }
+        });
+        assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(jobManager.count(), is(10));
+    }
+}
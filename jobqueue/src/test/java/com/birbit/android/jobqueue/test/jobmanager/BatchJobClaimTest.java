@@ -0,0 +1,75 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class BatchJobClaimTest extends JobManagerTestBase {
+    private static final int CONSUMER_COUNT = 4;
+
+    @Test
+    public void testConstraintChangeStartsAllWaitingConsumers() throws InterruptedException {
+        DummyNetworkUtilWithConnectivityEventSupport networkUtil =
+                new DummyNetworkUtilWithConnectivityEventSupport();
+        networkUtil.setNetworkStatus(NetworkUtil.DISCONNECTED, false);
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .minConsumerCount(CONSUMER_COUNT)
+                        .maxConsumerCount(CONSUMER_COUNT)
+                        .networkUtil(networkUtil)
+                        .timer(mockTimer));
+        // start all consumers and let them wait for jobs
+        CountDownLatch warmUpStarted = new CountDownLatch(CONSUMER_COUNT);
+        CountDownLatch warmUpRelease = new CountDownLatch(1);
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            jobManager.addJob(new BlockingJob(new Params(0), warmUpStarted, warmUpRelease));
+        }
+        assertThat(warmUpStarted.await(30, TimeUnit.SECONDS), is(true));
+        warmUpRelease.countDown();
+
+        CountDownLatch started = new CountDownLatch(CONSUMER_COUNT);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            jobManager.addJob(new BlockingJob(new Params(0).requireNetwork(), started, release));
+        }
+        networkUtil.setNetworkStatus(NetworkUtil.METERED, true);
+        assertThat("all waiting consumers should get a job when the network comes back",
+                started.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(jobManager.getActiveConsumerCount(), is(CONSUMER_COUNT));
+        release.countDown();
+    }
+
+    private static class BlockingJob extends DummyJob {
+        private final transient CountDownLatch started;
+        private final transient CountDownLatch release;
+
+        BlockingJob(Params params, CountDownLatch started, CountDownLatch release) {
+            super(params);
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public void onRun() throws Throwable {
+            super.onRun();
+            started.countDown();
+            release.await(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class ConsumerExecutorTest extends JobManagerTestBase {
+
+    @Test
+    public void testSuppliedExecutor() throws Throwable {
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, "shared-worker");
+            }
+        });
+        try {
+            JobManager jobManager = createJobManager(
+                    new Configuration.Builder(RuntimeEnvironment.application)
+                            .timer(mockTimer)
+                            .consumerExecutor(executor));
+            assertThat(runOnWorker(jobManager), is("shared-worker"));
+            jobManager.destroy();
+            assertThat("JobManager should not shut down a supplied executor",
+                    executor.isShutdown(), is(false));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThreadPool() throws Throwable {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .consumerThreadPool(1, 2, 0));
+        assertThat(runOnWorker(jobManager), startsWith("job-queue-worker-"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreadPool() {
+        new Configuration.Builder(RuntimeEnvironment.application).consumerThreadPool(2, 1, 0);
+    }
+
+    private String runOnWorker(final JobManager jobManager) throws Throwable {
+        final String[] threadName = new String[1];
+        final Job job = new DummyJob(new Params(1)) {
+            @Override
+            public void onRun() throws Throwable {
+                super.onRun();
+                threadName[0] = Thread.currentThread().getName();
+            }
+        };
+        waitUntilAJobIsDone(jobManager, new WaitUntilCallback() {
+            @Override
+            public void run() {
+                jobManager.addJob(job);
+            }
+
+            @Override
+            public void assertJob(Job job) {}
+        });
+        assertThat(threadName[0], notNullValue());
+        return threadName[0];
+    }
+}
@@ -0,0 +1,95 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class DirectJobHandOffTest extends JobManagerTestBase {
+    private static final int JOB_COUNT = 30;
+
+    @Test
+    public void testRunAllJobs() throws InterruptedException {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .maxConsumerCount(3)
+                        .directJobHandOff());
+        final CountDownLatch done = new CountDownLatch(JOB_COUNT);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        final AtomicInteger runningInGroup = new AtomicInteger();
+        final AtomicInteger groupOverlaps = new AtomicInteger();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            if (i % 3 == 0) {
+                jobManager.addJobInBackground(new DummyJob(new Params(0).groupBy("group")) {
+                    @Override
+                    public void onRun() throws Throwable {
+                        if (runningInGroup.incrementAndGet() > 1) {
+                            groupOverlaps.incrementAndGet();
+                        }
+                        super.onRun();
+                        runningInGroup.decrementAndGet();
+                    }
+                });
+            } else {
+                jobManager.addJobInBackground(new DummyJob(new Params(0)));
+            }
+        }
+        assertThat("all jobs should run", done.await(1, TimeUnit.MINUTES), is(true));
+        assertThat("jobs in the same group should not run at the same time",
+                groupOverlaps.get(), is(0));
+        assertThat(jobManager.count(), is(0));
+    }
+
+    @Test
+    public void testKeepAlive() throws InterruptedException {
+        final int keepAlive = 3;
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .consumerKeepAlive(keepAlive)
+                        .directJobHandOff());
+        final CountDownLatch done = new CountDownLatch(1);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        jobManager.addJob(new DummyJob(new Params(0)));
+        assertThat(done.await(1, TimeUnit.MINUTES), is(true));
+        assertThat("there should be 1 thread actively waiting for jobs",
+                jobManager.getActiveConsumerCount(), is(1));
+        mockTimer.incrementNs(JobManager.NETWORK_CHECK_INTERVAL
+                + TimeUnit.SECONDS.toNanos(keepAlive) * 2);
+        // give the consumer time to stop
+        //noinspection SLEEP_IN_CODE
+        Thread.sleep(3000);
+        assertThat("after keep alive timeout, there should NOT be any threads waiting",
+                jobManager.getActiveConsumerCount(), is(0));
+    }
+}
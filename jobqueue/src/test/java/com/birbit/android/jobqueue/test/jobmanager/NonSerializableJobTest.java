@@ -1,9 +1,13 @@
 package com.birbit.android.jobqueue.test.jobmanager;
 
+import com.birbit.android.jobqueue.Job;
 import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
 import com.birbit.android.jobqueue.test.jobs.DummyJob;
 
+import android.support.annotation.NonNull;
+
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
 import org.junit.Test;
@@ -12,8 +16,10 @@ import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(RobolectricGradleTestRunner.class)
 @Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
@@ -39,6 +45,35 @@ public class NonSerializableJobTest extends JobManagerTestBase {
         MatcherAssert.assertThat(throwable[0].getCause() instanceof IOException, CoreMatchers.is(true));
     }
 
+    @Test
+    public void testAddJobs() throws InterruptedException {
+        final Throwable[] throwable = new Throwable[1];
+        JobManager jobManager = createJobManager();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger addedCount = new AtomicInteger();
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                addedCount.incrementAndGet();
+            }
+        });
+        jobManager.getJobManagerExecutionThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                throwable[0] = ex;
+                latch.countDown();
+            }
+        });
+        jobManager.addJobsInBackground(Arrays.<Job>asList(new DummyJob(new Params(0).persist()),
+                new DummyJob(new Params(0).persist()) {
+                    ICannotBeSerialized iCannotBeSerialized = new ICannotBeSerialized();
+                }, new DummyJob(new Params(0).persist())));
+        MatcherAssert.assertThat(latch.await(30, TimeUnit.SECONDS), CoreMatchers.is(true));
+        MatcherAssert.assertThat(throwable[0] instanceof RuntimeException, CoreMatchers.is(true));
+        MatcherAssert.assertThat(throwable[0].getCause() instanceof IOException, CoreMatchers.is(true));
+        MatcherAssert.assertThat(addedCount.get(), CoreMatchers.is(0));
+    }
+
     static class ICannotBeSerialized {
 
     }
@@ -0,0 +1,132 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import android.support.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class WorkStealingTest extends JobManagerTestBase {
+    private static final int JOB_COUNT = 60;
+
+    @Test
+    public void testRunAllJobs() throws InterruptedException {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .maxConsumerCount(3)
+                        .workStealing(4));
+        final CountDownLatch done = new CountDownLatch(JOB_COUNT);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        final AtomicInteger runningInGroup = new AtomicInteger();
+        final AtomicInteger groupOverlaps = new AtomicInteger();
+        final List<Integer> groupOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> expectedGroupOrder = new ArrayList<>();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            if (i % 3 == 0) {
+                final int index = i;
+                expectedGroupOrder.add(index);
+                jobManager.addJobInBackground(new DummyJob(new Params(0).groupBy("group")) {
+                    @Override
+                    public void onRun() throws Throwable {
+                        if (runningInGroup.incrementAndGet() > 1) {
+                            groupOverlaps.incrementAndGet();
+                        }
+                        groupOrder.add(index);
+                        super.onRun();
+                        runningInGroup.decrementAndGet();
+                    }
+                });
+            } else {
+                jobManager.addJobInBackground(new DummyJob(new Params(0)));
+            }
+        }
+        assertThat("all jobs should run", done.await(1, TimeUnit.MINUTES), is(true));
+        assertThat("jobs in the same group should not run at the same time",
+                groupOverlaps.get(), is(0));
+        assertThat("jobs in the same group should run in order",
+                groupOrder, is(expectedGroupOrder));
+        assertThat(jobManager.count(), is(0));
+    }
+
+    @Test
+    public void testStopPutsQueuedJobsBack() throws InterruptedException {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .minConsumerCount(1)
+                        .maxConsumerCount(1)
+                        .workStealing(10));
+        jobManager.stop();
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final AtomicInteger runCount = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                done.countDown();
+            }
+        });
+        jobManager.addJob(new DummyJob(new Params(1)) {
+            @Override
+            public void onRun() throws Throwable {
+                super.onRun();
+                runCount.incrementAndGet();
+                firstStarted.countDown();
+                releaseFirst.await(30, TimeUnit.SECONDS);
+            }
+        });
+        for (int i = 0; i < 19; i++) {
+            jobManager.addJob(new DummyJob(new Params(0)) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    runCount.incrementAndGet();
+                }
+            });
+        }
+        jobManager.start();
+        assertThat(firstStarted.await(30, TimeUnit.SECONDS), is(true));
+        jobManager.stop();
+        assertThat("queued jobs should be back in the queue", jobManager.count(), is(19));
+        releaseFirst.countDown();
+        //noinspection SLEEP_IN_CODE
+        Thread.sleep(1000);
+        assertThat("queued jobs should not run after stop", runCount.get(), is(1));
+        jobManager.start();
+        assertThat(done.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(runCount.get(), is(20));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQueueSize() {
+        new Configuration.Builder(RuntimeEnvironment.application).workStealing(0);
+    }
+}
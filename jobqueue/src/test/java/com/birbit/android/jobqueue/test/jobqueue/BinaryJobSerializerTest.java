@@ -0,0 +1,136 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.TestBase;
+import com.birbit.android.jobqueue.test.jobs.BinaryDummyJob;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class BinaryJobSerializerTest extends TestBase {
+    MockTimer mockTimer = new MockTimer();
+
+    private BinaryJobSerializer createSerializer() {
+        return new BinaryJobSerializer().register(1, BinaryDummyJob.class, BinaryDummyJob.FACTORY);
+    }
+
+    private JobHolder createHolder(DummyJob job) {
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .groupId(null)
+                .requiredNetworkType(NetworkUtil.DISCONNECTED)
+                .job(job)
+                .id(job.getId())
+                .persistent(true)
+                .tags(job.getTags())
+                .createdNs(mockTimer.nanoTime())
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY)
+                .deadline(Params.FOREVER, false)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BinaryJobSerializer serializer = createSerializer();
+        BinaryDummyJob job = new BinaryDummyJob(new Params(1).persist(), "hello çş", 3,
+                42L, Arrays.asList("a", "b"));
+        createHolder(job);
+        byte[] bytes = serializer.serialize(job);
+        BinaryDummyJob read = serializer.deserialize(bytes);
+        assertThat(read.getText(), is("hello çş"));
+        assertThat(read.getCount(), is(3));
+        assertThat(read.getTimestamp(), is(42L));
+        assertThat(read.getItems(), is(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        BinaryDummyJob job = new BinaryDummyJob(new Params(1).persist(), "text", 3, 42L,
+                Arrays.asList("a", "b"));
+        createHolder(job);
+        int binarySize = createSerializer().serialize(job).length;
+        int javaSize = new SqliteJobQueue.JavaSerializer().serialize(job).length;
+        assertThat("binary " + binarySize + " java " + javaSize, binarySize < javaSize / 4,
+                is(true));
+    }
+
+    @Test
+    public void testUnregisteredJobUsesFallback() throws Exception {
+        BinaryJobSerializer serializer = createSerializer();
+        DummyJob job = new DummyJob(new Params(1).persist());
+        createHolder(job);
+        byte[] bytes = serializer.serialize(job);
+        assertThat(serializer.deserialize(bytes), instanceOf(DummyJob.class));
+    }
+
+    @Test
+    public void testReadsJavaSerializedPayload() throws Exception {
+        BinaryDummyJob job = new BinaryDummyJob(new Params(1).persist(), "text", 3, 42L,
+                Arrays.asList("a", "b"));
+        createHolder(job);
+        byte[] bytes = new SqliteJobQueue.JavaSerializer().serialize(job);
+        BinaryDummyJob read = createSerializer().deserialize(bytes);
+        assertThat(read.getText(), is("text"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnregisteredJobWithoutFallback() throws Exception {
+        BinaryJobSerializer serializer = new BinaryJobSerializer(null);
+        DummyJob job = new DummyJob(new Params(1).persist());
+        createHolder(job);
+        serializer.serialize(job);
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testUnknownClassId() throws Exception {
+        BinaryDummyJob job = new BinaryDummyJob(new Params(1).persist(), "text", 3, 42L,
+                Arrays.asList("a", "b"));
+        byte[] bytes = createSerializer().serialize(job);
+        new BinaryJobSerializer().deserialize(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateClassId() {
+        createSerializer().register(1, BinaryDummyJob.class, BinaryDummyJob.FACTORY);
+    }
+
+    @Test
+    public void testSqliteJobQueue() {
+        BinaryJobSerializer serializer = createSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("binary_serializer").jobSerializer(serializer).inTestMode()
+                        .timer(mockTimer).build(), 1, serializer);
+        BinaryDummyJob job = new BinaryDummyJob(new Params(1).persist().addTags("t"), "text",
+                3, 42L, Arrays.asList("a", "b"));
+        JobHolder holder = createHolder(job);
+        queue.insert(holder);
+        JobHolder next = queue.nextJobAndIncRunCount(new TestConstraint(mockTimer));
+        assertThat(next.getId(), is(holder.getId()));
+        assertThat(next.getTags(), hasItem("t"));
+        BinaryDummyJob read = (BinaryDummyJob) next.getJob();
+        assertThat(read.getId(), is(job.getId()));
+        assertThat(read.getText(), is("text"));
+        assertThat(read.getItems(), is(Arrays.asList("a", "b")));
+    }
+}
@@ -1,15 +1,35 @@
 package com.birbit.android.jobqueue.test.jobqueue;
 
+import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.cachedQueue.CachedJobQueue;
 import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
 import com.birbit.android.jobqueue.test.util.JobQueueFactory;
 import com.birbit.android.jobqueue.timer.Timer;
 
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.*;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
 @RunWith(RobolectricGradleTestRunner.class)
 @Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
 public class CachedPersistentJobQueueTest extends JobQueueTestBase {
@@ -17,12 +37,180 @@ public class CachedPersistentJobQueueTest extends JobQueueTestBase {
         super(new JobQueueFactory() {
             @Override
             public JobQueue createNew(long sessionId, String id, Timer timer) {
-                SqliteJobQueue.JavaSerializer jobSerializer = new SqliteJobQueue.JavaSerializer();
-                return new SqliteJobQueue(
-                        new Configuration.Builder(RuntimeEnvironment.application)
-                        .id(id).jobSerializer(jobSerializer).inTestMode()
-                        .timer(timer).build(), sessionId, jobSerializer);
+                return new CachedJobQueue(createSqliteQueue(sessionId, id, timer));
             }
         });
     }
+
+    private static SqliteJobQueue createSqliteQueue(long sessionId, String id, Timer timer) {
+        SqliteJobQueue.JavaSerializer jobSerializer = new SqliteJobQueue.JavaSerializer();
+        return new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(jobSerializer).inTestMode()
+                .timer(timer).build(), sessionId, jobSerializer);
+    }
+
+    @Test
+    public void testIdleConsumersDoNotRepeatQueries() {
+        final AtomicInteger nextJobQueries = new AtomicInteger();
+        final AtomicInteger nextDelayQueries = new AtomicInteger();
+        SqliteJobQueue.JavaSerializer jobSerializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue sqliteQueue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("idle_burst").jobSerializer(jobSerializer).inTestMode()
+                        .timer(mockTimer).build(), 1, jobSerializer) {
+            @Override
+            public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
+                nextJobQueries.incrementAndGet();
+                return super.nextJobAndIncRunCount(constraint);
+            }
+
+            @Override
+            public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
+                nextDelayQueries.incrementAndGet();
+                return super.getNextJobDelayUntilNs(constraint);
+            }
+        };
+        CachedJobQueue queue = new CachedJobQueue(sqliteQueue);
+        queue.insert(createNewJobHolder(new Params(0).persist().requireNetwork()));
+        queue.insert(createNewJobHolder(new Params(0).persist().delayInMs(1000)));
+        for (int i = 0; i < 5; i++) {
+            // what job manager does for each idle consumer while there is no network
+            assertThat(queue.nextJobAndIncRunCount(createConstraint(true)), nullValue());
+            assertThat(queue.getNextJobDelayUntilNs(createConstraint(false)),
+                    is(mockTimer.nanoTime() + 1000 * JobManager.NS_PER_MS));
+        }
+        assertThat(nextJobQueries.get(), is(1));
+        assertThat(nextDelayQueries.get(), is(1));
+
+        // a new job may be ready
+        queue.insert(createNewJobHolder(new Params(0).persist().delayInMs(500)));
+        assertThat(queue.nextJobAndIncRunCount(createConstraint(true)), nullValue());
+        assertThat(queue.getNextJobDelayUntilNs(createConstraint(false)),
+                is(mockTimer.nanoTime() + 500 * JobManager.NS_PER_MS));
+        assertThat(nextJobQueries.get(), is(2));
+        assertThat(nextDelayQueries.get(), is(2));
+
+        // the delay passes
+        mockTimer.incrementMs(500);
+        assertThat(queue.nextJobAndIncRunCount(createConstraint(true)), notNullValue());
+        assertThat(nextJobQueries.get(), is(3));
+    }
+
+    /**
+     * Runs the same random operations on a cached and an uncached queue and checks that they give
+     * the same results.
+     */
+    @Test
+    public void testSameResultsAsUncachedQueue() {
+        Random random = new Random(13);
+        JobQueue cached = createNewJobQueue();
+        JobQueue uncached = createSqliteQueue(1, "uncached", mockTimer);
+        // twins are kept in the same order in both lists
+        List<JobHolder> cachedHolders = new ArrayList<>();
+        List<JobHolder> uncachedHolders = new ArrayList<>();
+        List<JobHolder> fetchedCached = new ArrayList<>();
+        List<JobHolder> fetchedUncached = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int op = random.nextInt(100);
+            if (op < 25 || cachedHolders.isEmpty()) {
+                JobHolder[] twins = createTwins(random);
+                cached.insert(twins[0]);
+                uncached.insert(twins[1]);
+                cachedHolders.add(twins[0]);
+                uncachedHolders.add(twins[1]);
+            } else if (op < 35) {
+                mockTimer.incrementMs(random.nextInt(500));
+            } else if (op < 55) {
+                TestConstraint constraint = createConstraint(random, true);
+                JobHolder fromCached = cached.nextJobAndIncRunCount(constraint);
+                JobHolder fromUncached = uncached.nextJobAndIncRunCount(constraint);
+                if (fromCached == null || fromUncached == null) {
+                    assertThat("next job #" + i, fromCached, is(fromUncached));
+                } else {
+                    assertThat("next job #" + i, fromCached.getId(), is(fromUncached.getId()));
+                    fetchedCached.add(fromCached);
+                    fetchedUncached.add(fromUncached);
+                }
+            } else if (op < 62 && !fetchedCached.isEmpty()) {
+                // a fetched job fails and is re-added or succeeds and is removed
+                int index = random.nextInt(fetchedCached.size());
+                JobHolder fromCached = fetchedCached.remove(index);
+                JobHolder fromUncached = fetchedUncached.remove(index);
+                if (random.nextBoolean()) {
+                    long delayUntil = mockTimer.nanoTime()
+                            + random.nextInt(1000) * JobManager.NS_PER_MS;
+                    fromCached.setDelayUntilNs(delayUntil);
+                    fromUncached.setDelayUntilNs(delayUntil);
+                    cached.insertOrReplace(fromCached);
+                    uncached.insertOrReplace(fromUncached);
+                } else {
+                    cached.remove(fromCached);
+                    uncached.remove(fromUncached);
+                }
+            } else if (op < 85) {
+                TestConstraint constraint = createConstraint(random, false);
+                assertThat("next delay #" + i, cached.getNextJobDelayUntilNs(constraint),
+                        is(uncached.getNextJobDelayUntilNs(constraint)));
+            } else if (op < 92) {
+                int index = random.nextInt(cachedHolders.size());
+                cached.onJobCancelled(cachedHolders.get(index));
+                uncached.onJobCancelled(uncachedHolders.get(index));
+            } else {
+                int index = random.nextInt(cachedHolders.size());
+                cached.remove(cachedHolders.remove(index));
+                uncached.remove(uncachedHolders.remove(index));
+            }
+            assertThat(cached.count(), is(uncached.count()));
+        }
+    }
+
+    private TestConstraint createConstraint(boolean withTimeLimit) {
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        constraint.setExcludeRunning(true);
+        if (withTimeLimit) {
+            constraint.setTimeLimit(mockTimer.nanoTime());
+        }
+        return constraint;
+    }
+
+    private TestConstraint createConstraint(Random random, boolean withTimeLimit) {
+        TestConstraint constraint = createConstraint(withTimeLimit);
+        // few shapes so that cached results are re-used
+        constraint.setMaxNetworkType(random.nextInt(3));
+        if (random.nextBoolean()) {
+            constraint.setExcludeGroups(Collections.singletonList("group" + random.nextInt(2)));
+        }
+        return constraint;
+    }
+
+    private JobHolder[] createTwins(Random random) {
+        final int priority = random.nextInt(5);
+        final String groupId = random.nextBoolean() ? null : "group" + random.nextInt(3);
+        final int networkType = random.nextInt(3);
+        final long now = mockTimer.nanoTime();
+        final long delayUntil = random.nextBoolean() ? JobManager.NOT_DELAYED_JOB_DELAY
+                : now + random.nextInt(2000) * JobManager.NS_PER_MS;
+        final long deadline = random.nextInt(3) > 0 ? Params.FOREVER
+                : Math.max(now, delayUntil) + random.nextInt(3000) * JobManager.NS_PER_MS;
+        final String id = "job" + now + "_" + random.nextInt();
+        JobHolder[] twins = new JobHolder[2];
+        for (int i = 0; i < 2; i++) {
+            //noinspection WrongConstant
+            twins[i] = new JobHolder.Builder()
+                    .priority(priority)
+                    .groupId(groupId)
+                    .job(new DummyJob(new Params(priority)))
+                    .id(id)
+                    .persistent(true)
+                    .tags(null)
+                    .createdNs(now)
+                    .deadline(deadline, false)
+                    .delayUntilNs(delayUntil)
+                    .requiredNetworkType(networkType)
+                    .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+        }
+        return twins;
+    }
 }
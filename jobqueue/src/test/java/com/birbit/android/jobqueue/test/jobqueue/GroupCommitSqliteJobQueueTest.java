@@ -0,0 +1,137 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class GroupCommitSqliteJobQueueTest extends JobQueueTestBase {
+    private static final long WINDOW_MS = 1000;
+
+    public GroupCommitSqliteJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, String id, Timer timer) {
+                SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+                return new SqliteJobQueue(
+                        new Configuration.Builder(RuntimeEnvironment.application)
+                                .id(id).jobSerializer(serializer).inTestMode()
+                                .sqliteGroupCommit(WINDOW_MS)
+                                .timer(timer).build(), sessionId, serializer);
+            }
+        });
+    }
+
+    /**
+     * Creates a file backed queue. WAL lets {@link #openCommitted(String)} read the committed
+     * state while the queue has an open group transaction.
+     */
+    private SqliteJobQueue createFileQueue(String id) {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        return new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(serializer).sqliteGroupCommit(WINDOW_MS)
+                .sqliteWriteAheadLogging()
+                .timer(mockTimer).build(), 1, serializer);
+    }
+
+    /**
+     * Opens another connection to the queue's database. It only sees the committed state, which
+     * is what would be loaded if the app crashed.
+     */
+    private SQLiteDatabase openCommitted(String id) {
+        return SQLiteDatabase.openDatabase(
+                RuntimeEnvironment.application.getDatabasePath("db_" + id).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+    }
+
+    /**
+     * @return The committed run count of the job or null if the job is not in the database
+     */
+    private static Integer committedRunCount(SQLiteDatabase db, String jobId) {
+        Cursor cursor = db.rawQuery("SELECT run_count FROM job_holder WHERE _id = ?",
+                new String[]{jobId});
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testStateChangesAreDeferred() {
+        String id = "group_commit_" + mockTimer.nanoTime();
+        SqliteJobQueue queue = createFileQueue(id);
+        SQLiteDatabase committed = openCommitted(id);
+        JobHolder holder = createNewJobHolder(new Params(1).persist());
+        queue.insert(holder);
+        JobHolder next = queue.nextJobAndIncRunCount(new TestConstraint(mockTimer));
+        assertThat(next, notNullValue());
+        queue.remove(next);
+        assertThat("changes should be visible to the queue itself", queue.count(), is(0));
+        assertThat("job should run again after a crash",
+                committedRunCount(committed, holder.getId()), is(0));
+
+        queue.flush();
+        assertThat(committedRunCount(committed, holder.getId()), nullValue());
+        committed.close();
+    }
+
+    @Test
+    public void testInsertCommitsPendingChanges() {
+        String id = "group_commit_insert_" + mockTimer.nanoTime();
+        SqliteJobQueue queue = createFileQueue(id);
+        SQLiteDatabase committed = openCommitted(id);
+        JobHolder holder1 = createNewJobHolder(new Params(1).persist());
+        queue.insert(holder1);
+        JobHolder next = queue.nextJobAndIncRunCount(new TestConstraint(mockTimer));
+        assertThat(next, notNullValue());
+        assertThat(committedRunCount(committed, holder1.getId()), is(0));
+        JobHolder holder2 = createNewJobHolder(new Params(1).persist());
+        queue.insert(holder2);
+        assertThat(committedRunCount(committed, holder1.getId()), is(1));
+        assertThat(committedRunCount(committed, holder2.getId()), is(0));
+        committed.close();
+    }
+
+    @Test
+    public void testCommitAfterWindow() {
+        String id = "group_commit_window_" + mockTimer.nanoTime();
+        SqliteJobQueue queue = createFileQueue(id);
+        SQLiteDatabase committed = openCommitted(id);
+        JobHolder holder1 = createNewJobHolder(new Params(1).persist());
+        JobHolder holder2 = createNewJobHolder(new Params(1).persist());
+        queue.insert(holder1);
+        queue.insert(holder2);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        JobHolder first = queue.nextJobAndIncRunCount(constraint);
+        assertThat(first.getId(), is(holder1.getId()));
+        queue.remove(first);
+        assertThat(committedRunCount(committed, holder1.getId()), is(0));
+        mockTimer.incrementMs(WINDOW_MS);
+        // this change is older than the window so it should commit the whole group
+        JobHolder second = queue.nextJobAndIncRunCount(constraint);
+        assertThat(second.getId(), is(holder2.getId()));
+        assertThat(committedRunCount(committed, holder1.getId()), nullValue());
+        assertThat(committedRunCount(committed, holder2.getId()), is(1));
+        committed.close();
+    }
+}
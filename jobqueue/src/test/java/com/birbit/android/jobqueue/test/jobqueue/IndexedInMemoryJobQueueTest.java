@@ -0,0 +1,175 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class IndexedInMemoryJobQueueTest extends JobQueueTestBase {
+    public IndexedInMemoryJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, String id, Timer timer) {
+                return new IndexedInMemoryPriorityQueue(null, sessionId);
+            }
+        });
+    }
+
+    /**
+     * Runs the same random operations on this queue and a {@link SimpleInMemoryPriorityQueue} and
+     * checks that they give the same results.
+     */
+    @Test
+    public void testSameResultsAsSimpleQueue() {
+        Random random = new Random(7);
+        JobQueue indexed = createNewJobQueue();
+        JobQueue simple = new SimpleInMemoryPriorityQueue(null, 1);
+        // twins are kept in the same order in both lists
+        List<JobHolder> indexedHolders = new ArrayList<>();
+        List<JobHolder> simpleHolders = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(100);
+            if (op < 35 || indexedHolders.isEmpty()) {
+                JobHolder[] twins = createTwins(random);
+                indexed.insert(twins[0]);
+                simple.insert(twins[1]);
+                indexedHolders.add(twins[0]);
+                simpleHolders.add(twins[1]);
+            } else if (op < 45) {
+                mockTimer.incrementMs(random.nextInt(500));
+            } else if (op < 65) {
+                TestConstraint constraint = createConstraint(random, random.nextInt(10) > 0);
+                JobHolder fromIndexed = indexed.nextJobAndIncRunCount(constraint);
+                JobHolder fromSimple = simple.nextJobAndIncRunCount(constraint);
+                assertSameJob("next job #" + i, fromIndexed, fromSimple);
+                if (fromIndexed != null && random.nextBoolean()) {
+                    // re-add it the way job manager does when a job fails
+                    long delayUntil = mockTimer.nanoTime()
+                            + random.nextInt(1000) * JobManager.NS_PER_MS;
+                    fromIndexed.setDelayUntilNs(delayUntil);
+                    fromSimple.setDelayUntilNs(delayUntil);
+                    indexed.insertOrReplace(fromIndexed);
+                    simple.insertOrReplace(fromSimple);
+                }
+            } else if (op < 75) {
+                TestConstraint constraint = createConstraint(random, random.nextInt(10) > 0);
+                assertThat("ready count #" + i, indexed.countReadyJobs(constraint),
+                        is(simple.countReadyJobs(constraint)));
+            } else if (op < 85) {
+                TestConstraint constraint = createConstraint(random, false);
+                assertThat("next delay #" + i, indexed.getNextJobDelayUntilNs(constraint),
+                        is(simple.getNextJobDelayUntilNs(constraint)));
+            } else if (op < 92) {
+                TestConstraint constraint = createConstraint(random, false);
+                constraint.setMaxNetworkType(2);
+                constraint.setTagConstraint(random.nextBoolean() ? TagConstraint.ANY
+                        : TagConstraint.ALL);
+                constraint.setTags(randomTags(random).toArray(new String[0]));
+                assertThat("find jobs #" + i, ids(indexed.findJobs(constraint)),
+                        is(ids(simple.findJobs(constraint))));
+            } else {
+                int index = random.nextInt(indexedHolders.size());
+                indexed.remove(indexedHolders.get(index));
+                simple.remove(simpleHolders.get(index));
+            }
+            assertThat(indexed.count(), is(simple.count()));
+        }
+    }
+
+    private void assertSameJob(String message, JobHolder holder1, JobHolder holder2) {
+        if (holder1 == null || holder2 == null) {
+            assertThat(message, holder1, is(holder2));
+        } else {
+            assertThat(message, holder1.getId(), is(holder2.getId()));
+        }
+    }
+
+    private static Set<String> ids(Set<JobHolder> holders) {
+        Set<String> ids = new HashSet<>();
+        for (JobHolder holder : holders) {
+            ids.add(holder.getId());
+        }
+        return ids;
+    }
+
+    private TestConstraint createConstraint(Random random, boolean withTimeLimit) {
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(random.nextInt(3));
+        List<String> excludeGroups = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            if (random.nextInt(4) == 0) {
+                excludeGroups.add("group" + i);
+            }
+        }
+        constraint.setExcludeGroups(excludeGroups);
+        constraint.setExcludeRunning(true);
+        if (withTimeLimit) {
+            constraint.setTimeLimit(mockTimer.nanoTime());
+        }
+        return constraint;
+    }
+
+    private static Set<String> randomTags(Random random) {
+        Set<String> tags = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            if (random.nextBoolean()) {
+                tags.add("tag" + i);
+            }
+        }
+        return tags;
+    }
+
+    private JobHolder[] createTwins(Random random) {
+        final int priority = random.nextInt(5);
+        final String groupId = random.nextBoolean() ? null : "group" + random.nextInt(4);
+        final int networkType = random.nextInt(3);
+        final long now = mockTimer.nanoTime();
+        final long delayUntil = random.nextBoolean() ? JobManager.NOT_DELAYED_JOB_DELAY
+                : now + random.nextInt(2000) * JobManager.NS_PER_MS;
+        final long deadline = random.nextInt(3) > 0 ? Params.FOREVER
+                : now + random.nextInt(3000) * JobManager.NS_PER_MS;
+        final Set<String> tags = randomTags(random);
+        final String id = "job" + now + "_" + random.nextInt();
+        JobHolder[] twins = new JobHolder[2];
+        for (int i = 0; i < 2; i++) {
+            //noinspection WrongConstant
+            twins[i] = new JobHolder.Builder()
+                    .priority(priority)
+                    .groupId(groupId)
+                    .job(new DummyJob(new Params(priority)))
+                    .id(id)
+                    .persistent(false)
+                    .tags(tags.isEmpty() ? Collections.<String>emptySet() : tags)
+                    .createdNs(now)
+                    .deadline(deadline, false)
+                    .delayUntilNs(delayUntil)
+                    .requiredNetworkType(networkType)
+                    .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+        }
+        return twins;
+    }
+}
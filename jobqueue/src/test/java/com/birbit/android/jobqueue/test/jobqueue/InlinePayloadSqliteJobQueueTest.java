@@ -0,0 +1,108 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import android.database.Cursor;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class InlinePayloadSqliteJobQueueTest extends JobQueueTestBase {
+    public InlinePayloadSqliteJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, String id, Timer timer) {
+                SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+                return new SqliteJobQueue(
+                        new Configuration.Builder(RuntimeEnvironment.application)
+                                .id(id).jobSerializer(serializer).inTestMode()
+                                .inlineJobPayloads()
+                                .timer(timer).build(), sessionId, serializer);
+            }
+        });
+    }
+
+    @Test
+    public void testPayloadIsKeptInDatabase() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        JobHolder holder = createNewJobHolder(new Params(1));
+        queue.insert(holder);
+        Cursor cursor = queue.getDb().rawQuery("select payload from job_holder", new String[0]);
+        try {
+            assertThat(cursor.moveToFirst(), is(true));
+            assertThat(cursor.getBlob(0), notNullValue());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testMigrateFromFiles() {
+        String id = "migrate_" + mockTimer.nanoTime();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue fileQueue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id(id).jobSerializer(serializer)
+                        .timer(mockTimer).build(), 1, serializer);
+        JobHolder holder = createNewJobHolder(new Params(1).addTags("a"));
+        fileQueue.insert(holder);
+        File folder = new File(RuntimeEnvironment.application.getDir("com_birbit_jobqueue_jobs",
+                android.content.Context.MODE_PRIVATE), "files_jobs_" + id);
+        assertThat(folder.list().length, is(1));
+
+        SqliteJobQueue inlineQueue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id(id).jobSerializer(serializer).inlineJobPayloads()
+                        .timer(mockTimer).build(), 2, serializer);
+        assertThat("files should be moved into the database", folder.list().length, is(0));
+        JobHolder loaded = inlineQueue.findJobById(holder.getId());
+        assertThat(loaded, notNullValue());
+        assertThat(loaded.getJob(), notNullValue());
+        assertThat(loaded.getTags(), hasItem("a"));
+        inlineQueue.remove(loaded);
+        assertThat(inlineQueue.count(), is(0));
+    }
+
+    @Test
+    public void testRemoveJobThatCouldNotBeMigrated() {
+        String id = "unmigrated_" + mockTimer.nanoTime();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue fileQueue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id(id).jobSerializer(serializer)
+                        .timer(mockTimer).build(), 1, serializer);
+        JobHolder holder = createNewJobHolder(new Params(1));
+        fileQueue.insert(holder);
+        File folder = new File(RuntimeEnvironment.application.getDir("com_birbit_jobqueue_jobs",
+                android.content.Context.MODE_PRIVATE), "files_jobs_" + id);
+        // replace the file with one that cannot be read
+        File file = new File(folder, holder.getId() + ".jobs");
+        assertThat(file.delete(), is(true));
+        assertThat(file.mkdir(), is(true));
+
+        SqliteJobQueue inlineQueue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id(id).jobSerializer(serializer).inlineJobPayloads()
+                        .timer(mockTimer).build(), 2, serializer);
+        assertThat("file that cannot be migrated should be kept", file.exists(), is(true));
+        inlineQueue.remove(holder);
+        assertThat(inlineQueue.count(), is(0));
+        assertThat(file.exists(), is(false));
+    }
+}
@@ -83,6 +83,29 @@ public abstract class JobQueueTestBase extends TestBase {
         assertThat((int) jobQueue.count(), equalTo(ADD_COUNT - 2));
     }
 
+    @Test
+    public void testInsertAll() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        List<JobHolder> holders = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            holders.add(createNewJobHolder(new Params(i).addTags("tag" + (i % 2))));
+        }
+        assertThat(jobQueue.insertAll(holders), is(true));
+        assertThat(jobQueue.count(), equalTo(5));
+        for (JobHolder holder : holders) {
+            assertThat(holder.getInsertionOrder(), notNullValue());
+            assertThat(jobQueue.findJobById(holder.getId()), notNullValue());
+        }
+        assertThat(jobQueue.findJobs(forTags(mockTimer, ANY, Collections.<String>emptyList(),
+                "tag1")).size(), equalTo(2));
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        for (int i = 4; i >= 0; i--) {
+            assertThat(jobQueue.nextJobAndIncRunCount(constraint).getId(),
+                    equalTo(holders.get(i).getId()));
+        }
+    }
+
     @Test
     public void testPriority() throws Exception {
         int JOB_LIMIT = 20;
@@ -287,6 +310,86 @@ public abstract class JobQueueTestBase extends TestBase {
                 equalTo(jobHolder7.getId()));
     }
 
+    @Test
+    public void testNextJobs() throws Exception {
+        long sessionId = (long) (Math.random() * 100000);
+        JobQueue jobQueue = createNewJobQueueWithSessionId(sessionId);
+        JobHolder group1 = createNewJobHolder(new Params(5).groupBy("group1"));
+        JobHolder group1Second = createNewJobHolder(new Params(5).groupBy("group1"));
+        JobHolder group2 = createNewJobHolder(new Params(4).groupBy("group2"));
+        JobHolder noGroup = createNewJobHolder(new Params(3));
+        JobHolder excludedGroup = createNewJobHolder(new Params(3).groupBy("group3"));
+        JobHolder noGroupSecond = createNewJobHolder(new Params(2));
+        jobQueue.insert(group1);
+        jobQueue.insert(group1Second);
+        jobQueue.insert(group2);
+        jobQueue.insert(noGroup);
+        jobQueue.insert(excludedGroup);
+        jobQueue.insert(noGroupSecond);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setExcludeGroups(Arrays.asList("group3"));
+        List<JobHolder> received = jobQueue.nextJobsAndIncRunCount(constraint, 3);
+        assertThat("jobs should be returned in order, one per group",
+                ids(received), equalTo(Arrays.asList(group1.getId(), group2.getId(),
+                        noGroup.getId())));
+        for (JobHolder holder : received) {
+            assertThat(holder.getRunCount(), equalTo(1));
+            assertThat(holder.getRunningSessionId(), equalTo(sessionId));
+        }
+        assertThat("excluded groups should not change",
+                constraint.getExcludeGroups(), equalTo(Arrays.asList("group3")));
+        received = jobQueue.nextJobsAndIncRunCount(constraint, 10);
+        assertThat("running jobs should not be returned again",
+                ids(received), equalTo(Arrays.asList(group1Second.getId(),
+                        noGroupSecond.getId())));
+        assertThat("no more jobs should be returned",
+                jobQueue.nextJobsAndIncRunCount(constraint, 10).size(), equalTo(0));
+    }
+
+    @Test
+    public void testNextJobsHaveTheirTags() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder tagged = createNewJobHolder(new Params(2).addTags("a", "b"));
+        JobHolder notTagged = createNewJobHolder(new Params(1));
+        jobQueue.insert(tagged);
+        jobQueue.insert(notTagged);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        List<JobHolder> received = jobQueue.nextJobsAndIncRunCount(constraint, 2);
+        assertThat(ids(received), equalTo(Arrays.asList(tagged.getId(), notTagged.getId())));
+        assertThat(received.get(0).getTags(), equalTo((Set<String>) new HashSet<>(
+                Arrays.asList("a", "b"))));
+        assertThat(received.get(1).hasTags(), is(false));
+    }
+
+    @Test
+    public void testNextJobsAfterManyJobsOfTheSameGroup() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            JobHolder holder = createNewJobHolder(new Params(1).groupBy("group"));
+            jobQueue.insert(holder);
+            if (i == 0) {
+                expected.add(holder.getId());
+            }
+        }
+        JobHolder noGroup = createNewJobHolder(new Params(0));
+        jobQueue.insert(noGroup);
+        expected.add(noGroup.getId());
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        assertThat(ids(jobQueue.nextJobsAndIncRunCount(constraint, 2)), equalTo(expected));
+    }
+
+    private static List<String> ids(List<JobHolder> holders) {
+        List<String> ids = new ArrayList<>(holders.size());
+        for (JobHolder holder : holders) {
+            ids.add(holder.getId());
+        }
+        return ids;
+    }
+
     @Test
     public void testDueDelayUntilWithPriority() throws Exception {
         JobQueue jobQueue = createNewJobQueue();
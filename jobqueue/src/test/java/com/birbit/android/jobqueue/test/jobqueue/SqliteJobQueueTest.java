@@ -1,14 +1,18 @@
 package com.birbit.android.jobqueue.test.jobqueue;
 
+import android.content.Context;
 import android.database.Cursor;
 import android.support.v4.util.Pair;
 
 import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.TestConstraint;
 import com.birbit.android.jobqueue.Job;
 import com.birbit.android.jobqueue.JobQueue;
 import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
 import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.DbOpenHelper;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
 import com.birbit.android.jobqueue.test.util.JobQueueFactory;
@@ -23,12 +27,17 @@ import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.CoreMatchers.*;
 
@@ -118,6 +127,245 @@ public class SqliteJobQueueTest extends JobQueueTestBase {
 
     }
 
+    @Test
+    public void testFindJobsDeserializesLazily() throws Exception {
+        final AtomicInteger deserializeCount = new AtomicInteger();
+        SqliteJobQueue.JobSerializer jobSerializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public <T extends Job> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+                deserializeCount.incrementAndGet();
+                return super.deserialize(bytes);
+            }
+        };
+        SqliteJobQueue jobQueue = new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id("__" + mockTimer.nanoTime()).jobSerializer(jobSerializer).inTestMode()
+                .timer(mockTimer).build(), mockTimer.nanoTime(), jobSerializer);
+        JobHolder holder1 = createNewJobHolder(new Params(3).addTags("a"));
+        JobHolder holder2 = createNewJobHolder(new Params(4).addTags("a"));
+        jobQueue.insert(holder1);
+        jobQueue.insert(holder2);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setTags(new String[]{"a"});
+        constraint.setTagConstraint(TagConstraint.ANY);
+        Set<JobHolder> found = jobQueue.findJobs(constraint);
+        JobHolder byId = jobQueue.findJobById(holder1.getId());
+        assertThat(found.size(), is(2));
+        assertThat(byId.getTags(), hasItem("a"));
+        assertThat(byId.isJobLoaded(), is(false));
+        for (JobHolder holder : found) {
+            assertThat(holder.isJobLoaded(), is(false));
+        }
+        assertThat(deserializeCount.get(), is(0));
+
+        byId.setPriority(7);
+        byId.markAsCancelled();
+        Job job = byId.getJob();
+        assertThat(deserializeCount.get(), is(1));
+        assertThat(byId.isJobLoaded(), is(true));
+        assertThat(job.getId(), is(holder1.getId()));
+        assertThat(job.getPriority(), is(7));
+        assertThat(job.getTags(), hasItem("a"));
+        assertThat(job.isCancelled(), is(true));
+        assertThat(byId.getJob(), sameInstance(job));
+        assertThat(deserializeCount.get(), is(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLazyJobThatCannotBeLoaded() throws Exception {
+        SqliteJobQueue.JobSerializer jobSerializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public <T extends Job> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+                throw new ClassNotFoundException("removed job class");
+            }
+        };
+        SqliteJobQueue jobQueue = new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id("__" + mockTimer.nanoTime()).jobSerializer(jobSerializer).inTestMode()
+                .timer(mockTimer).build(), mockTimer.nanoTime(), jobSerializer);
+        JobHolder holder = createNewJobHolder(new Params(0));
+        jobQueue.insert(holder);
+        JobHolder found = jobQueue.findJobById(holder.getId());
+        assertThat(found, notNullValue());
+        found.getJob();
+    }
+
+    @Test
+    public void testInsertAllRollsBackWhenAJobCannotBeSerialized() throws Exception {
+        final JobHolder bad = createNewJobHolder(new Params(0).addTags("a"));
+        SqliteJobQueue.JobSerializer jobSerializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public byte[] serialize(Object object) throws IOException {
+                if (object == bad.getJob()) {
+                    throw new IOException("cannot serialize");
+                }
+                return super.serialize(object);
+            }
+        };
+        String id = "__" + mockTimer.nanoTime();
+        SqliteJobQueue jobQueue = new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(jobSerializer).inTestMode()
+                .timer(mockTimer).build(), mockTimer.nanoTime(), jobSerializer);
+        List<JobHolder> holders = Arrays.asList(createNewJobHolder(new Params(0).addTags("a")),
+                createNewJobHolder(new Params(0)), bad);
+        try {
+            jobQueue.insertAll(holders);
+            throw new AssertionError("insertAll should fail");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause() instanceof IOException, is(true));
+        }
+        assertThat(jobQueue.count(), is(0));
+        assertThat(jobQueue.countReadyJobs(new TestConstraint(mockTimer)), is(0));
+        assertTags(jobQueue);
+        for (JobHolder holder : holders) {
+            assertThat(holder.getInsertionOrder(), nullValue());
+        }
+        File folder = new File(RuntimeEnvironment.application.getDir("com_birbit_jobqueue_jobs",
+                Context.MODE_PRIVATE), "files_jobs_" + id);
+        String[] files = folder.list();
+        assertThat(files == null ? 0 : files.length, is(0));
+    }
+
+    /**
+     * Ready counts that exclude running jobs are answered from memory. They should be the same
+     * as the ones the database returns.
+     */
+    @Test
+    public void testReadyCountsMatchQuery() {
+        Random random = new Random(11);
+        JobQueue queue = createNewJobQueue();
+        List<JobHolder> holders = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            int op = random.nextInt(100);
+            if (op < 40 || holders.isEmpty()) {
+                Params params = new Params(random.nextInt(5));
+                if (random.nextBoolean()) {
+                    params.groupBy("group" + random.nextInt(4));
+                }
+                int delay = random.nextInt(3) == 0 ? random.nextInt(2000) : 0;
+                params.delayInMs(delay);
+                if (random.nextInt(3) == 0) {
+                    params.overrideDeadlineToRunInMs(delay + random.nextInt(3000));
+                }
+                int network = random.nextInt(3);
+                if (network == 1) {
+                    params.requireNetwork();
+                } else if (network == 2) {
+                    params.requireUnmeteredNetwork();
+                }
+                JobHolder holder = createNewJobHolder(params);
+                queue.insert(holder);
+                holders.add(holder);
+            } else if (op < 50) {
+                mockTimer.incrementMs(random.nextInt(500));
+            } else if (op < 65) {
+                JobHolder next = queue.nextJobAndIncRunCount(createReadyConstraint(random));
+                if (next != null && random.nextBoolean()) {
+                    next.setDelayUntilNs(mockTimer.nanoTime()
+                            + random.nextInt(1000) * JobManager.NS_PER_MS);
+                    queue.insertOrReplace(next);
+                }
+            } else if (op < 70) {
+                JobHolder cancelled = holders.get(random.nextInt(holders.size()));
+                queue.onJobCancelled(cancelled);
+                if (random.nextBoolean()) {
+                    // stays cancelled until it is removed
+                    queue.insertOrReplace(cancelled);
+                }
+            } else if (op < 80) {
+                queue.remove(holders.remove(random.nextInt(holders.size())));
+            } else {
+                TestConstraint constraint = createReadyConstraint(random);
+                int counted = queue.countReadyJobs(constraint);
+                // excluding a job id that does not exist makes the queue run the query
+                constraint.setExcludeJobIds(Collections.singletonList("not a job id"));
+                assertThat("ready count #" + i, counted, is(queue.countReadyJobs(constraint)));
+            }
+        }
+    }
+
+    @Test
+    public void testReadyCountsAfterRestart() {
+        String id = "__restart" + mockTimer.nanoTime();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        Configuration configuration = new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(serializer).timer(mockTimer).build();
+        SqliteJobQueue queue = new SqliteJobQueue(configuration, 1, serializer);
+        queue.clear();
+        queue.insert(createNewJobHolder(new Params(0).persist()));
+        queue.insert(createNewJobHolder(new Params(0).persist().groupBy("a")));
+        queue.insert(createNewJobHolder(new Params(0).persist().groupBy("a")));
+        queue.insert(createNewJobHolder(new Params(0).persist().delayInMs(100)));
+        queue.insert(createNewJobHolder(new Params(0).persist().requireNetwork()));
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setTimeLimit(mockTimer.nanoTime());
+        assertThat(queue.nextJobAndIncRunCount(constraint), notNullValue());
+        assertThat(queue.countReadyJobs(constraint), is(1));
+        queue.getDb().close();
+
+        // the running job of the previous session is ready again
+        SqliteJobQueue restarted = new SqliteJobQueue(configuration, 2, serializer);
+        try {
+            assertThat(restarted.countReadyJobs(constraint), is(2));
+            mockTimer.incrementMs(100);
+            constraint.setTimeLimit(mockTimer.nanoTime());
+            assertThat(restarted.countReadyJobs(constraint), is(3));
+            constraint.setMaxNetworkType(NetworkUtil.METERED);
+            assertThat(restarted.countReadyJobs(constraint), is(4));
+        } finally {
+            restarted.clear();
+            restarted.getDb().close();
+        }
+    }
+
+    private TestConstraint createReadyConstraint(Random random) {
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(random.nextInt(3));
+        List<String> excludeGroups = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            if (random.nextInt(4) == 0) {
+                excludeGroups.add("group" + i);
+            }
+        }
+        constraint.setExcludeGroups(excludeGroups);
+        constraint.setExcludeRunning(true);
+        constraint.setTimeLimit(mockTimer.nanoTime());
+        return constraint;
+    }
+
+    @Test
+    public void testSqlitePragmas() throws Exception {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        // WAL is not available for in memory databases so this cannot run in test mode
+        SqliteJobQueue queue = new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id("__pragmas" + mockTimer.nanoTime()).jobSerializer(serializer)
+                .sqliteWriteAheadLogging()
+                .sqliteSynchronous(Configuration.SQLITE_SYNCHRONOUS_NORMAL)
+                .sqliteCacheSizeKb(4096)
+                .timer(mockTimer).build(), mockTimer.nanoTime(), serializer);
+        try {
+            assertThat(queryPragma(queue, "journal_mode"), is("wal"));
+            assertThat(queryPragma(queue, "synchronous"), is("1"));
+            assertThat(queryPragma(queue, "cache_size"), is("-4096"));
+            JobHolder holder = createNewJobHolder(new Params(0).persist());
+            queue.insert(holder);
+            assertThat(queue.nextJobAndIncRunCount(new TestConstraint(mockTimer)).getId(),
+                    is(holder.getId()));
+        } finally {
+            queue.clear();
+            queue.getDb().close();
+        }
+    }
+
+    private static String queryPragma(SqliteJobQueue queue, String pragma) {
+        Cursor cursor = queue.getDb().rawQuery("PRAGMA " + pragma, null);
+        try {
+            assertThat(cursor.moveToFirst(), is(true));
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
     private static class TagInfo {
         final int tagId;
         final String jobId;
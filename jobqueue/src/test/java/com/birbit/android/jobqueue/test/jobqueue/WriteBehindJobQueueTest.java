@@ -0,0 +1,251 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.WriteBehindJobQueue;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = com.birbit.android.jobqueue.BuildConfig.class)
+public class WriteBehindJobQueueTest extends JobQueueTestBase {
+    public WriteBehindJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, String id, Timer timer) {
+                SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+                return new WriteBehindJobQueue(
+                        new Configuration.Builder(RuntimeEnvironment.application)
+                                .id(id).jobSerializer(serializer).inTestMode()
+                                .timer(timer).build(), sessionId, serializer);
+            }
+        });
+    }
+
+    @Test
+    public void testChangesAreWrittenInOrder() throws InterruptedException {
+        Configuration configuration = createConfiguration("__write_behind_order");
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        WriteBehindJobQueue queue = new WriteBehindJobQueue(configuration, 1, serializer);
+        queue.clear();
+        List<JobHolder> holders = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            JobHolder holder = createNewJobHolder(new Params(i % 3).persist().addTags("t" + i));
+            holders.add(holder);
+            queue.insert(holder);
+        }
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setTimeLimit(mockTimer.nanoTime());
+        // fetched and failed, re-inserted with a delay
+        JobHolder failed = queue.nextJobAndIncRunCount(constraint);
+        failed.setDelayUntilNs(mockTimer.nanoTime() + 1000);
+        queue.insertOrReplace(failed);
+        // fetched and finished
+        JobHolder finished = queue.nextJobAndIncRunCount(constraint);
+        queue.remove(finished);
+        // cancelled
+        queue.onJobCancelled(holders.get(6));
+        queue.remove(holders.get(6));
+        // fetched, not finished before the restart
+        JobHolder running = queue.nextJobAndIncRunCount(constraint);
+        assertThat(queue.awaitWrites(10, TimeUnit.SECONDS), is(true));
+        queue.getDb().close();
+
+        WriteBehindJobQueue restarted = new WriteBehindJobQueue(configuration, 2, serializer);
+        try {
+            assertThat(restarted.count(), is(18));
+            assertThat(restarted.findJobById(finished.getId()), nullValue());
+            assertThat(restarted.findJobById(holders.get(6).getId()), nullValue());
+            JobHolder restartedFailed = restarted.findJobById(failed.getId());
+            assertThat(restartedFailed.getRunCount(), is(1));
+            assertThat(restartedFailed.getDelayUntilNs(), is(failed.getDelayUntilNs()));
+            assertThat(restarted.findJobById(running.getId()).getRunCount(), is(1));
+            assertThat(restarted.findJobById(holders.get(7).getId()).getTags(),
+                    is(holders.get(7).getTags()));
+            // by priority, then by insertion order. The failed job is delayed.
+            List<String> expected = new ArrayList<>();
+            for (int priority = 2; priority >= 0; priority--) {
+                for (JobHolder holder : holders) {
+                    String id = holder.getId();
+                    if (holder.getPriority() == priority && !id.equals(finished.getId())
+                            && !id.equals(holders.get(6).getId())
+                            && !id.equals(failed.getId())) {
+                        expected.add(id);
+                    }
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            JobHolder next;
+            while ((next = restarted.nextJobAndIncRunCount(constraint)) != null) {
+                actual.add(next.getId());
+            }
+            assertThat(actual, is(expected));
+        } finally {
+            restarted.clear();
+            restarted.awaitWrites(10, TimeUnit.SECONDS);
+            restarted.getDb().close();
+        }
+    }
+
+    @Test
+    public void testJobsAreLoadedLazily() throws InterruptedException {
+        Configuration configuration = createConfiguration("__write_behind_lazy");
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        WriteBehindJobQueue queue = new WriteBehindJobQueue(configuration, 1, serializer);
+        queue.clear();
+        JobHolder holder = createNewJobHolder(new Params(3).persist().groupBy("g"));
+        queue.insert(holder);
+        assertThat(queue.awaitWrites(10, TimeUnit.SECONDS), is(true));
+        queue.getDb().close();
+
+        WriteBehindJobQueue restarted = new WriteBehindJobQueue(configuration, 2, serializer);
+        try {
+            assertThat(restarted.getWarmUpNs() >= 0, is(true));
+            JobHolder loaded = restarted.findJobById(holder.getId());
+            assertThat(loaded.isJobLoaded(), is(false));
+            assertThat(loaded.getPriority(), is(3));
+            assertThat(loaded.getGroupId(), is("g"));
+            TestConstraint constraint = new TestConstraint(mockTimer);
+            constraint.setExcludeRunning(true);
+            constraint.setTimeLimit(mockTimer.nanoTime());
+            JobHolder next = restarted.nextJobAndIncRunCount(constraint);
+            assertThat(next, sameInstance(loaded));
+            assertThat(next.isJobLoaded(), is(true));
+            assertThat(next.getJob(), instanceOf(DummyJob.class));
+        } finally {
+            restarted.clear();
+            restarted.awaitWrites(10, TimeUnit.SECONDS);
+            restarted.getDb().close();
+        }
+    }
+
+    @Test
+    public void testJobThatCannotBeLoadedIsRemoved() throws InterruptedException {
+        Configuration configuration = createConfiguration("__write_behind_invalid");
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        WriteBehindJobQueue queue = new WriteBehindJobQueue(configuration, 1, serializer);
+        queue.clear();
+        JobHolder invalid = createNewJobHolder(new Params(5).persist());
+        JobHolder valid = createNewJobHolder(new Params(1).persist());
+        queue.insert(invalid);
+        queue.insert(valid);
+        assertThat(queue.awaitWrites(10, TimeUnit.SECONDS), is(true));
+        queue.getDb().close();
+
+        final String invalidId = invalid.getId();
+        // the job with the higher priority is loaded first
+        final AtomicInteger loadCount = new AtomicInteger();
+        SqliteJobQueue.JavaSerializer failingSerializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public <T extends Job> T deserialize(byte[] bytes)
+                    throws IOException, ClassNotFoundException {
+                T job = super.deserialize(bytes);
+                return loadCount.incrementAndGet() == 1 ? null : job;
+            }
+        };
+        WriteBehindJobQueue restarted = new WriteBehindJobQueue(configuration, 2,
+                failingSerializer);
+        try {
+            assertThat(restarted.count(), is(2));
+            TestConstraint constraint = new TestConstraint(mockTimer);
+            constraint.setExcludeRunning(true);
+            constraint.setTimeLimit(mockTimer.nanoTime());
+            assertThat(restarted.nextJobAndIncRunCount(constraint).getId(), is(valid.getId()));
+            assertThat(restarted.count(), is(0));
+            assertThat(restarted.awaitWrites(10, TimeUnit.SECONDS), is(true));
+            restarted.getDb().close();
+            restarted = new WriteBehindJobQueue(configuration, 3, serializer);
+            assertThat(restarted.findJobById(invalidId), nullValue());
+            assertThat(restarted.count(), is(1));
+        } finally {
+            restarted.clear();
+            restarted.awaitWrites(10, TimeUnit.SECONDS);
+            restarted.getDb().close();
+        }
+    }
+
+    @Test
+    public void testCloseWritesPendingChanges() throws InterruptedException {
+        Configuration configuration = createConfiguration("__write_behind_close");
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        WriteBehindJobQueue queue = new WriteBehindJobQueue(configuration, 1, serializer);
+        queue.clear();
+        for (int i = 0; i < 20; i++) {
+            queue.insert(createNewJobHolder(new Params(i).persist()));
+        }
+        queue.close();
+        queue.getDb().close();
+
+        WriteBehindJobQueue restarted = new WriteBehindJobQueue(configuration, 2, serializer);
+        try {
+            assertThat(restarted.count(), is(20));
+        } finally {
+            restarted.clear();
+            restarted.close();
+            restarted.getDb().close();
+        }
+    }
+
+    @Test
+    public void testInsertAllWithJobThatCannotBeSerialized() throws InterruptedException {
+        Configuration configuration = createConfiguration("__write_behind_batch");
+        final JobHolder bad = createNewJobHolder(new Params(0).persist());
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public byte[] serialize(Object object) throws IOException {
+                if (object == bad.getJob()) {
+                    throw new IOException("cannot serialize");
+                }
+                return super.serialize(object);
+            }
+        };
+        WriteBehindJobQueue queue = new WriteBehindJobQueue(configuration, 1, serializer);
+        try {
+            queue.clear();
+            List<JobHolder> holders = Arrays.asList(createNewJobHolder(new Params(0).persist()),
+                    bad, createNewJobHolder(new Params(0).persist()));
+            try {
+                queue.insertAll(holders);
+                throw new AssertionError("insertAll should fail");
+            } catch (RuntimeException e) {
+                assertThat(e.getCause() instanceof IOException, is(true));
+            }
+            assertThat(queue.count(), is(0));
+            for (JobHolder holder : holders) {
+                assertThat(holder.getInsertionOrder(), nullValue());
+                assertThat(queue.findJobById(holder.getId()), nullValue());
+            }
+        } finally {
+            queue.awaitWrites(10, TimeUnit.SECONDS);
+            queue.getDb().close();
+        }
+    }
+
+    private Configuration createConfiguration(String id) {
+        return new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id + mockTimer.nanoTime()).timer(mockTimer).build();
+    }
+}
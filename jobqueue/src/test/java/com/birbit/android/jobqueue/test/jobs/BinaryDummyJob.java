@@ -0,0 +1,93 @@
+package com.birbit.android.jobqueue.test.jobs;
+
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJob;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * A {@link DummyJob} with some state that writes itself for {@link BinaryJobSerializer}.
+ */
+public class BinaryDummyJob extends DummyJob implements BinaryJob {
+    public static final BinaryJobSerializer.Factory<BinaryDummyJob> FACTORY =
+            new BinaryJobSerializer.Factory<BinaryDummyJob>() {
+                @Override
+                public BinaryDummyJob create() {
+                    return new BinaryDummyJob(new Params(0));
+                }
+            };
+
+    String text;
+    int count;
+    long timestamp;
+    List<String> items = new ArrayList<>();
+
+    public BinaryDummyJob(Params params) {
+        super(params);
+    }
+
+    public BinaryDummyJob(Params params, String text, int count, long timestamp,
+            List<String> items) {
+        super(params);
+        this.text = text;
+        this.count = count;
+        this.timestamp = timestamp;
+        this.items = items;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        writeString(sink, text);
+        sink.writeInt(count);
+        sink.writeLong(timestamp);
+        sink.writeInt(items.size());
+        for (String item : items) {
+            writeString(sink, item);
+        }
+    }
+
+    @Override
+    public void readFrom(BufferedSource source) throws IOException {
+        text = readString(source);
+        count = source.readInt();
+        timestamp = source.readLong();
+        int size = source.readInt();
+        items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(readString(source));
+        }
+    }
+
+    private static void writeString(BufferedSink sink, String value) throws IOException {
+        ByteString bytes = ByteString.encodeUtf8(value);
+        sink.writeInt(bytes.size());
+        sink.write(bytes);
+    }
+
+    private static String readString(BufferedSource source) throws IOException {
+        return source.readUtf8(source.readInt());
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<String> getItems() {
+        return items;
+    }
+}